@@ -18,7 +18,12 @@
 
 package com.github.kvr000.zbynekvideoutils.videotool;
 
+import com.github.kvr000.zbynekvideoutils.videotool.command.FrameIndexCommand;
 import com.github.kvr000.zbynekvideoutils.videotool.command.MyCommand;
+import com.github.kvr000.zbynekvideoutils.videotool.command.SubtitleConvertCommand;
+import com.github.kvr000.zbynekvideoutils.videotool.command.SubtitleMergeCommand;
+import com.github.kvr000.zbynekvideoutils.videotool.command.SubtitleSyncCommand;
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.FrameIndexConfig;
 import com.google.common.collect.ImmutableMap;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
@@ -41,6 +46,7 @@ import net.dryuf.cmdline.command.RootCommandContext;
 import javax.inject.Inject;
 import java.util.Arrays;
 import java.util.ListIterator;
+import java.util.Locale;
 import java.util.Map;
 
 
@@ -73,15 +79,48 @@ public class ZbynekVideoTool extends AbstractParentCommand
 	protected boolean parseOption(CommandContext context, String arg, ListIterator<String> args) throws Exception
 	{
 		switch (arg) {
+		case "--vi":
+			options.videoInput = needArgsParam(options.videoInput, args);
+			return true;
+
 		case "--vo":
 			options.videoOutput = needArgsParam(options.videoOutput, args);
 			return true;
 
+		case "--index-cache":
+			options.frameIndex.setCacheLocation(needArgsParam(null, args));
+			return true;
+
+		case "--index-mode":
+			options.indexMode = needArgsParam(options.indexMode, args);
+			return true;
+
+		case "--index-workers":
+			options.frameIndex.setWorkers(Integer.parseInt(needArgsParam(null, args)));
+			if (options.frameIndex.getWorkers() < 1) {
+				throw new IllegalArgumentException("workers must be positive");
+			}
+			return true;
+
 		default:
 			return super.parseOption(context, arg, args);
 		}
 	}
 
+	@Override
+	protected int validateOptions(CommandContext context, ListIterator<String> args) throws Exception
+	{
+		if (options.indexMode != null) {
+			try {
+				options.frameIndex.setIndexMode(FrameIndexConfig.IndexMode.valueOf(options.indexMode.toUpperCase(Locale.ROOT)));
+			}
+			catch (IllegalArgumentException ex) {
+				return usage(context, "--index-mode must be one of auto, frames or packets, got: "+options.indexMode);
+			}
+		}
+		return super.validateOptions(context, args);
+	}
+
 	@Override
 	public void createOptions(CommandContext context)
 	{
@@ -98,7 +137,11 @@ public class ZbynekVideoTool extends AbstractParentCommand
 	protected Map<String, String> configOptionsDescription(CommandContext context)
 	{
 		return ImmutableMap.of(
-			"-vo video-output", "video output filename"
+			"--vi video-input", "video input filename",
+			"--vo video-output", "video output filename",
+			"--index-cache location", "frame index cache, sidecar (default, next to video), none or cache directory",
+			"--index-mode mode", "frame index source, auto (default, native container reader, constant frame rate or frames), frames (decodes video) or packets (demux only)",
+			"--index-workers count", "number of parallel processes indexing video segments (default number of cores)"
 		);
 	}
 
@@ -107,6 +150,10 @@ public class ZbynekVideoTool extends AbstractParentCommand
 	{
 		return ImmutableMap.<String, Class<? extends Command>>builder()
 			.put("mycommand", MyCommand.class)
+			.put("frame-index", FrameIndexCommand.class)
+			.put("subtitle-convert", SubtitleConvertCommand.class)
+			.put("subtitle-merge", SubtitleMergeCommand.class)
+			.put("subtitle-sync", SubtitleSyncCommand.class)
 			.put("help", HelpOfHelpCommand.class)
 			.build();
 	}
@@ -115,6 +162,10 @@ public class ZbynekVideoTool extends AbstractParentCommand
 	{
 		return ImmutableMap.<String, String>builder()
 			.put("mycommand", "The first command")
+			.put("frame-index", "Builds video frames index and looks up frames or times")
+			.put("subtitle-convert", "Converts subtitles files across formats")
+			.put("subtitle-merge", "Merges subtitles files into one, stacking them")
+			.put("subtitle-sync", "Finds subtitles delays against video audio")
 			.put("help [command]", "Prints help")
 			.build();
 	}
@@ -122,7 +173,13 @@ public class ZbynekVideoTool extends AbstractParentCommand
 	@Data
 	public static class Options
 	{
+		String videoInput;
+
 		String videoOutput;
+
+		String indexMode;
+
+		FrameIndexConfig frameIndex = new FrameIndexConfig();
 	}
 
 	public static class GuiceModule extends AbstractModule
@@ -0,0 +1,145 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.command;
+
+import com.github.kvr000.zbynekvideoutils.videotool.ZbynekVideoTool;
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.FrameIndex;
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.FrameIndexService;
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.FrameTimeLookup;
+import com.github.kvr000.zbynekvideoutils.videotool.util.TimeFormat;
+import com.google.common.collect.ImmutableMap;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import net.dryuf.cmdline.command.AbstractCommand;
+import net.dryuf.cmdline.command.CommandContext;
+
+import javax.inject.Inject;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+
+/**
+ * Builds video frames index and looks up frames or times in it.
+ */
+@Log4j2
+@RequiredArgsConstructor(onConstructor = @__(@Inject))
+public class FrameIndexCommand extends AbstractCommand
+{
+	private final ZbynekVideoTool.Options mainOptions;
+
+	private final FrameIndexService frameIndexService;
+
+	private Options options = new Options();
+
+	protected boolean parseOption(CommandContext context, String arg, ListIterator<String> args) throws Exception
+	{
+		switch (arg) {
+		case "--frame":
+			options.frames.add(Integer.parseInt(needArgsParam(null, args)));
+			return true;
+
+		case "--time":
+			options.times.add(TimeFormat.strToUsTime(needArgsParam(null, args)));
+			return true;
+
+		case "--snap":
+			options.snaps.add(TimeFormat.strToUsTime(needArgsParam(null, args)));
+			return true;
+		}
+		return super.parseOption(context, arg, args);
+	}
+
+	@Override
+	protected int validateOptions(CommandContext context, ListIterator<String> args) throws Exception
+	{
+		if (mainOptions.getVideoInput() == null) {
+			return usage(context, "--vi video-input is mandatory");
+		}
+		if (!options.snaps.isEmpty() && !(options.frames.isEmpty() && options.times.isEmpty())) {
+			return usage(context, "--snap cannot be combined with --frame or --time");
+		}
+		return EXIT_CONTINUE;
+	}
+
+	@Override
+	public int execute() throws Exception
+	{
+		if (!options.snaps.isEmpty()) {
+			return executeSnaps();
+		}
+
+		FrameIndex index = frameIndexService.obtainIndex(Paths.get(mainOptions.getVideoInput()), mainOptions.getFrameIndex());
+
+		if (options.frames.isEmpty() && options.times.isEmpty()) {
+			System.out.println("frames="+index.size()+
+				(index.size() == 0 ? "" :
+					" first="+TimeFormat.usToStr(index.frameTime(0))+
+					" last="+TimeFormat.usToStr(index.frameTime(index.size()-1))));
+		}
+		for (int frame: options.frames) {
+			if (frame < 0 || frame >= index.size()) {
+				System.out.println("frame="+frame+" time=none");
+			}
+			else {
+				System.out.println("frame="+frame+" time="+TimeFormat.usToStr(index.frameTime(frame)));
+			}
+		}
+		int[] frames = index.lowestFramesByTimes(options.times.stream().mapToLong(Long::longValue).toArray());
+		for (int i = 0; i < frames.length; ++i) {
+			System.out.println("time="+TimeFormat.usToStr(options.times.get(i))+" frame="+(frames[i] == FrameIndex.NO_FRAME ? "none" : String.valueOf(frames[i])));
+		}
+		return EXIT_SUCCESS;
+	}
+
+	private int executeSnaps() throws Exception
+	{
+		FrameTimeLookup lookup = frameIndexService.obtainTimeLookup(Paths.get(mainOptions.getVideoInput()), mainOptions.getFrameIndex());
+		lookup.prefetch(options.snaps.stream().mapToLong(Long::longValue).toArray());
+		for (long time: options.snaps) {
+			long floor = lookup.floorFrameTime(time);
+			long ceiling = lookup.ceilingFrameTime(time);
+			System.out.println("time="+TimeFormat.usToStr(time)+
+				" floor="+(floor == FrameTimeLookup.NO_TIME ? "none" : TimeFormat.usToStr(floor))+
+				" ceiling="+(ceiling == FrameTimeLookup.NO_TIME ? "none" : TimeFormat.usToStr(ceiling)));
+		}
+		return EXIT_SUCCESS;
+	}
+
+	@Override
+	protected Map<String, String> configOptionsDescription(CommandContext context)
+	{
+		return ImmutableMap.of(
+			"--frame frame-id", "prints time of frame (can be specified multiple times)",
+			"--time [[hh:]mm:]ss[.ssssss]", "prints lowest frame at or after the time (can be specified multiple times)",
+			"--snap [[hh:]mm:]ss[.ssssss]", "prints times of nearest frames around the time, reading only the needed parts of video (can be specified multiple times)"
+		);
+	}
+
+	public static class Options
+	{
+		List<Integer> frames = new ArrayList<>();
+
+		List<Long> times = new ArrayList<>();
+
+		List<Long> snaps = new ArrayList<>();
+	}
+}
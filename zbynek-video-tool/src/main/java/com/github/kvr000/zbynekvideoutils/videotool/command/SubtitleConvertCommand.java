@@ -0,0 +1,534 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.command;
+
+import com.github.kvr000.zbynekvideoutils.videotool.ZbynekVideoTool;
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.FrameIndex;
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.FrameIndexService;
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.FrameTimeLookup;
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+import com.github.kvr000.zbynekvideoutils.videotool.subtitle.CharsetDetector;
+import com.github.kvr000.zbynekvideoutils.videotool.subtitle.Retiming;
+import com.github.kvr000.zbynekvideoutils.videotool.subtitle.SubtitleArchiveCache;
+import com.github.kvr000.zbynekvideoutils.videotool.subtitle.SubtitleFormat;
+import com.github.kvr000.zbynekvideoutils.videotool.subtitle.SubtitlePipeline;
+import com.github.kvr000.zbynekvideoutils.videotool.subtitle.Subtitles;
+import com.github.kvr000.zbynekvideoutils.videotool.util.Rational;
+import com.github.kvr000.zbynekvideoutils.videotool.util.TimeFormat;
+import com.google.common.collect.ImmutableMap;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import net.dryuf.cmdline.command.AbstractCommand;
+import net.dryuf.cmdline.command.CommandContext;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import javax.inject.Inject;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Converts subtitles files across formats, possibly delaying them.
+ */
+@Log4j2
+@RequiredArgsConstructor(onConstructor = @__(@Inject))
+public class SubtitleConvertCommand extends AbstractCommand
+{
+	/** Name of standard input or output. */
+	private static final String STDIO = "-";
+
+	private final ZbynekVideoTool.Options mainOptions;
+
+	private final FrameIndexService frameIndexService;
+
+	private final SubtitleArchiveCache subtitleArchiveCache;
+
+	private Options options = new Options();
+
+	private FrameIndex frameIndex;
+
+	private FrameTimeLookup frameTimeLookup;
+
+	protected boolean parseOption(CommandContext context, String arg, ListIterator<String> args) throws Exception
+	{
+		switch (arg) {
+		case "-i":
+		case "--input":
+			options.inputs.add(needArgsParam(null, args));
+			return true;
+
+		case "-o":
+		case "--output":
+			options.outputs.add(needArgsParam(null, args));
+			return true;
+
+		case "-t":
+		case "--type":
+			options.format = SubtitleFormat.fromType(needArgsParam(options.format, args));
+			return true;
+
+		case "--delay":
+			options.delays.add(parseDelay(needArgsParam(null, args)));
+			return true;
+
+		case "--delay-file":
+			options.delays.addAll(readDelays(Paths.get(needArgsParam(null, args))));
+			return true;
+
+		case "--charset":
+			options.charset = Charset.forName(needArgsParam(options.charset, args));
+			return true;
+
+		case "--snap-frames":
+			options.snapFrames = true;
+			return true;
+
+		case "--output-charset":
+			options.outputCharset = Charset.forName(needArgsParam(options.outputCharset, args));
+			if (!CharsetDetector.isAsciiCompatible(options.outputCharset)) {
+				throw new IllegalArgumentException("output charset must be ASCII compatible: "+options.outputCharset);
+			}
+			return true;
+
+		case "-j":
+		case "--jobs":
+			options.jobs = Integer.parseInt(needArgsParam(options.jobs, args));
+			if (options.jobs < 1) {
+				throw new IllegalArgumentException("jobs must be positive");
+			}
+			return true;
+		}
+		return super.parseOption(context, arg, args);
+	}
+
+	@Override
+	protected int parseNonOptions(CommandContext context, ListIterator<String> args) throws Exception
+	{
+		args.forEachRemaining(options.inputs::add);
+		return EXIT_CONTINUE;
+	}
+
+	@Override
+	protected int validateOptions(CommandContext context, ListIterator<String> args) throws Exception
+	{
+		if (options.inputs.isEmpty()) {
+			return usage(context, "-i input argument is mandatory");
+		}
+		List<String> inputs = new ArrayList<>();
+		for (String input: options.inputs) {
+			if (!STDIO.equals(input) && !SubtitleArchiveCache.isEntry(input) && SubtitleArchiveCache.isArchive(input)) {
+				List<String> entries;
+				try {
+					entries = subtitleArchiveCache.listSubtitles(Paths.get(input));
+				}
+				catch (IOException ex) {
+					return usage(context, ex.getMessage());
+				}
+				if (entries.isEmpty()) {
+					return usage(context, "no subtitles found in archive: "+input);
+				}
+				inputs.addAll(entries);
+			}
+			else {
+				inputs.add(input);
+			}
+		}
+		options.inputs = inputs;
+		if (options.outputs.isEmpty() && options.format == null) {
+			return usage(context, "one of -o output or -t type arguments is mandatory");
+		}
+		if (!options.outputs.isEmpty() && (options.inputs.size() > 1 || options.outputs.size() > 1)) {
+			return usage(context, "-o output must not be specified if there are multiple inputs");
+		}
+		if (options.inputs.stream().filter(STDIO::equals).count() > 1) {
+			return usage(context, "- standard input can be specified only once");
+		}
+		for (String input: options.inputs) {
+			if (!STDIO.equals(input)) {
+				try {
+					SubtitleFormat.fromPath(Paths.get(input));
+				}
+				catch (IllegalArgumentException ex) {
+					return usage(context, ex.getMessage());
+				}
+			}
+		}
+		if (options.format == null) {
+			if (STDIO.equals(options.outputs.get(0))) {
+				return usage(context, "-t type is mandatory for standard output");
+			}
+			try {
+				options.format = SubtitleFormat.fromPath(Paths.get(options.outputs.get(0)));
+			}
+			catch (IllegalArgumentException ex) {
+				return usage(context, ex.getMessage());
+			}
+		}
+		if (options.outputs.isEmpty()) {
+			for (String input: options.inputs) {
+				if (STDIO.equals(input)) {
+					options.outputs.add(STDIO);
+					continue;
+				}
+				// archive entries are written next to the archive:
+				Path base = SubtitleArchiveCache.isEntry(input) ? SubtitleArchiveCache.archivePath(input) : Paths.get(input);
+				String name = Paths.get(input).getFileName().toString();
+				int dot = name.lastIndexOf('.');
+				options.outputs.add(base.resolveSibling((dot < 0 ? name : name.substring(0, dot))+"."+options.format.getExtension()).toString());
+			}
+			if (options.outputs.stream().filter(output -> !STDIO.equals(output)).distinct().count() !=
+				options.outputs.stream().filter(output -> !STDIO.equals(output)).count()) {
+				return usage(context, "inputs map to the same output, convert them separately");
+			}
+		}
+
+		if (options.snapFrames) {
+			if (mainOptions.getVideoInput() == null) {
+				return usage(context, "--vi video-input is needed for --snap-frames");
+			}
+			if (options.format.getRangeType() != RangeType.TIME) {
+				return usage(context, "--snap-frames applies to time based output only");
+			}
+		}
+		if (options.outputCharset == null) {
+			options.outputCharset = StandardCharsets.UTF_8;
+		}
+		if (options.jobs == null) {
+			options.jobs = Runtime.getRuntime().availableProcessors();
+		}
+
+		if (!options.delays.isEmpty()) {
+			try {
+				options.retiming = Retiming.fromDelays(options.delays);
+			}
+			catch (IllegalArgumentException ex) {
+				return usage(context, ex.getMessage());
+			}
+		}
+		return EXIT_CONTINUE;
+	}
+
+	@Override
+	public int execute() throws Exception
+	{
+		if (mainOptions.getVideoInput() != null && needsFrameIndex()) {
+			// obtain the index before starting the conversions, so they do not wait on each other:
+			frameIndex();
+		}
+		if (options.snapFrames) {
+			frameTimeLookup();
+		}
+
+		int result = EXIT_SUCCESS;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(options.jobs, options.inputs.size()));
+		try {
+			List<Future<Long>> futures = new ArrayList<>();
+			for (int i = 0; i < options.inputs.size(); ++i) {
+				String input = options.inputs.get(i);
+				String output = options.outputs.get(i);
+				futures.add(executor.submit(() -> convert(input, output)));
+			}
+			for (int i = 0; i < options.inputs.size(); ++i) {
+				String input = options.inputs.get(i);
+				String output = options.outputs.get(i);
+				try {
+					long entries = futures.get(i).get();
+					// logging goes to standard output too, so keep it clean when it carries the subtitles:
+					if (!STDIO.equals(output)) {
+						log.info("Converted subtitles: input={} output={} entries={}", input, output, entries);
+					}
+				}
+				catch (ExecutionException ex) {
+					if (ex.getCause() instanceof ConvertException) {
+						log.error("{}: input={}", ex.getCause().getMessage(), input);
+					}
+					else {
+						log.error("Failed to convert subtitles: input={}", input, ex.getCause());
+					}
+					result = EXIT_FAILURE;
+				}
+			}
+		}
+		finally {
+			executor.shutdownNow();
+			subtitleArchiveCache.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Checks whether any of file inputs needs conversion between frames and times.
+	 */
+	private boolean needsFrameIndex()
+	{
+		for (String input: options.inputs) {
+			if (STDIO.equals(input)) {
+				continue;
+			}
+			RangeType inputType = SubtitleFormat.fromPath(Paths.get(input)).getRangeType();
+			if (inputType == RangeType.FRAME ?
+				options.format.getRangeType() == RangeType.TIME || options.retiming != null :
+				options.format.getRangeType() == RangeType.FRAME) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Converts single input, streaming it in chunks.  File output is written into temporary file and replaced on
+	 * success, so the input may be overwritten and failed conversion does not leave partial output.
+	 *
+	 * @return
+	 * 	number of converted entries
+	 */
+	private long convert(String input, String output) throws IOException
+	{
+		Path target = STDIO.equals(output) ? null : Paths.get(output).toAbsolutePath();
+		Path temporary = target == null ? null : target.resolveSibling(target.getFileName()+"."+UUID.randomUUID()+".tmp");
+		try {
+			long entries = convert(input, temporary);
+			if (temporary != null) {
+				Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			return entries;
+		}
+		finally {
+			if (temporary != null) {
+				Files.deleteIfExists(temporary);
+			}
+		}
+	}
+
+	private long convert(String input, Path output) throws IOException
+	{
+		try (WritableByteChannel outputChannel = output == null ?
+				Channels.newChannel(CloseShieldOutputStream.wrap(System.out)) : FileChannel.open(output, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)
+		) {
+			if (!STDIO.equals(input) && !SubtitleArchiveCache.isEntry(input)) {
+				// regular file is memory mapped and parsed in place:
+				return pipeline(SubtitleFormat.fromPath(Paths.get(input))).run(Paths.get(input), outputChannel);
+			}
+			try (InputStream inputStream = new BufferedInputStream(STDIO.equals(input) ?
+					CloseShieldInputStream.wrap(System.in) : subtitleArchiveCache.openEntry(input))) {
+				SubtitleFormat inputFormat;
+				if (STDIO.equals(input)) {
+					byte[] head = new byte[64];
+					inputStream.mark(head.length);
+					inputFormat = SubtitleFormat.detect(head, IOUtils.read(inputStream, head));
+					inputStream.reset();
+					if (inputFormat == null) {
+						throw new ConvertException("Failed to detect subtitles format of standard input");
+					}
+				}
+				else {
+					inputFormat = SubtitleFormat.fromPath(Paths.get(input));
+				}
+				return pipeline(inputFormat).run(inputStream, outputChannel);
+			}
+		}
+	}
+
+	private SubtitlePipeline pipeline(SubtitleFormat inputFormat)
+	{
+		return new SubtitlePipeline(inputFormat, options.format, this::convertChunk, SubtitlePipeline.DEFAULT_CHUNK_SIZE,
+			options.charset, options.outputCharset);
+	}
+
+	/**
+	 * Converts chunk of subtitles to output format range type, applying the delays and snapping to frames.
+	 */
+	private Subtitles convertChunk(Subtitles subtitles) throws IOException
+	{
+		boolean needsTimes = options.retiming != null || options.format.getRangeType() == RangeType.TIME;
+		// declared frame rate is used both ways, when there is no video:
+		Rational frameRate = null;
+		if (subtitles.getRangeType() == RangeType.FRAME && needsTimes) {
+			if (mainOptions.getVideoInput() == null && subtitles.getFrameRate() != null) {
+				frameRate = subtitles.getFrameRate();
+				subtitles.framesToTimes(frameRate);
+			}
+			else {
+				subtitles.framesToTimes(frameIndex());
+			}
+		}
+		if (options.retiming != null) {
+			subtitles.retime(options.retiming);
+		}
+		if (subtitles.getRangeType() == RangeType.TIME && options.format.getRangeType() == RangeType.FRAME) {
+			if (frameRate != null) {
+				subtitles.timesToFrames(frameRate);
+			}
+			else {
+				subtitles.timesToFrames(frameIndex());
+			}
+		}
+		if (options.snapFrames) {
+			subtitles.snapToFrames(frameTimeLookup());
+		}
+		return subtitles;
+	}
+
+	/**
+	 * Gets frame index of video, obtaining it on first use.  Shared by all conversions.
+	 */
+	private synchronized FrameIndex frameIndex() throws IOException
+	{
+		if (frameIndex == null) {
+			if (mainOptions.getVideoInput() == null) {
+				throw new ConvertException("--vi video-input is needed to convert between frames and times");
+			}
+			frameIndex = frameIndexService.obtainIndex(Paths.get(mainOptions.getVideoInput()), mainOptions.getFrameIndex());
+		}
+		return frameIndex;
+	}
+
+	/**
+	 * Parses delay in time=delay form.
+	 *
+	 * @return
+	 * 	pair of time and delay in microseconds
+	 */
+	private static long[] parseDelay(String delay)
+	{
+		int split = delay.indexOf('=');
+		if (split < 0) {
+			throw new IllegalArgumentException("Expected delay in form time=[-]delay, got: "+delay);
+		}
+		return new long[]{ TimeFormat.strToUsTime(delay.substring(0, split)), TimeFormat.strToUsTime(delay.substring(split+1)) };
+	}
+
+	/**
+	 * Reads delays from file, one time=delay per line, text after # and empty lines are ignored.
+	 *
+	 * @return
+	 * 	list of pairs of time and delay in microseconds
+	 */
+	private static List<long[]> readDelays(Path file) throws IOException
+	{
+		List<long[]> delays = new ArrayList<>();
+		int lineNumber = 0;
+		for (String line: Files.readAllLines(file)) {
+			++lineNumber;
+			int comment = line.indexOf('#');
+			line = (comment < 0 ? line : line.substring(0, comment)).strip();
+			if (line.isEmpty()) {
+				continue;
+			}
+			try {
+				delays.add(parseDelay(line));
+			}
+			catch (IllegalArgumentException ex) {
+				throw new IllegalArgumentException(ex.getMessage()+" at "+file+":"+lineNumber, ex);
+			}
+		}
+		return delays;
+	}
+
+	/**
+	 * Gets frame time lookup of video, obtaining it on first use.  Full frame index is reused if already obtained,
+	 * otherwise only the parts of video around the looked up times are read.
+	 */
+	private synchronized FrameTimeLookup frameTimeLookup() throws IOException
+	{
+		if (frameTimeLookup == null) {
+			frameTimeLookup = frameIndex != null ? frameIndex :
+				frameIndexService.obtainTimeLookup(Paths.get(mainOptions.getVideoInput()), mainOptions.getFrameIndex());
+		}
+		return frameTimeLookup;
+	}
+
+	@Override
+	protected Map<String, String> configParametersDescription(CommandContext context)
+	{
+		return ImmutableMap.of(
+			"inputs...", "input subtitles files or archives"
+		);
+	}
+
+	@Override
+	protected Map<String, String> configOptionsDescription(CommandContext context)
+	{
+		return ImmutableMap.of(
+			"-i input", "input subtitles file, archive.zip for all its subtitles, archive.zip!/entry, - for standard input (can be specified multiple times)",
+			"-o output", "output subtitles file, - for standard output, only for single input",
+			"-t type", "output type (srt, sub, vtt, ass or ssa), default by output extension",
+			"--delay time=delay", "delays subtitle at time by delay seconds (can be negative, multiple anchors retime piecewise linearly)",
+			"--delay-file file", "reads --delay anchors from file, one time=delay per line",
+			"--charset charset", "input charset (default detected, UTF-8, UTF-16 with BOM, windows-1250 or ISO-8859-2)",
+			"--output-charset charset", "output charset, ASCII compatible (default UTF-8)",
+			"--snap-frames", "snaps output times to the following video frames, reading only the needed parts of video",
+			"-j count", "number of inputs converted in parallel (default number of cores)"
+		);
+	}
+
+	/**
+	 * Thrown on invalid input or missing options, reported without stack trace.
+	 */
+	private static class ConvertException extends RuntimeException
+	{
+		public ConvertException(String message)
+		{
+			super(message);
+		}
+	}
+
+	public static class Options
+	{
+		List<String> inputs = new ArrayList<>();
+
+		List<String> outputs = new ArrayList<>();
+
+		SubtitleFormat format;
+
+		List<long[]> delays = new ArrayList<>();
+
+		Retiming retiming;
+
+		Charset charset;
+
+		Charset outputCharset;
+
+		boolean snapFrames;
+
+		Integer jobs;
+	}
+}
@@ -0,0 +1,328 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.command;
+
+import com.github.kvr000.zbynekvideoutils.videotool.ZbynekVideoTool;
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.FrameIndex;
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.FrameIndexService;
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.FrameTimeLookup;
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+import com.github.kvr000.zbynekvideoutils.videotool.subtitle.CharsetDetector;
+import com.github.kvr000.zbynekvideoutils.videotool.subtitle.SubtitleArchiveCache;
+import com.github.kvr000.zbynekvideoutils.videotool.subtitle.SubtitleChunkReader;
+import com.github.kvr000.zbynekvideoutils.videotool.subtitle.SubtitleFormat;
+import com.github.kvr000.zbynekvideoutils.videotool.subtitle.SubtitleMerger;
+import com.github.kvr000.zbynekvideoutils.videotool.subtitle.SubtitlePipeline;
+import com.github.kvr000.zbynekvideoutils.videotool.subtitle.Subtitles;
+import com.github.kvr000.zbynekvideoutils.videotool.util.Rational;
+import com.google.common.collect.ImmutableMap;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import net.dryuf.cmdline.command.AbstractCommand;
+import net.dryuf.cmdline.command.CommandContext;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import javax.inject.Inject;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.UUID;
+
+
+/**
+ * Merges multiple subtitles files into single one, stacking entries shown at the same time, the first input on top.
+ */
+@Log4j2
+@RequiredArgsConstructor(onConstructor = @__(@Inject))
+public class SubtitleMergeCommand extends AbstractCommand
+{
+	/** Name of standard output. */
+	private static final String STDIO = "-";
+
+	private final ZbynekVideoTool.Options mainOptions;
+
+	private final FrameIndexService frameIndexService;
+
+	private final SubtitleArchiveCache subtitleArchiveCache;
+
+	private Options options = new Options();
+
+	private FrameIndex frameIndex;
+
+	private FrameTimeLookup frameTimeLookup;
+
+	/** Frame rate declared by the first input converted by it, used for frames output when there is no video. */
+	private Rational frameRate;
+
+	protected boolean parseOption(CommandContext context, String arg, ListIterator<String> args) throws Exception
+	{
+		switch (arg) {
+		case "-i":
+		case "--input":
+			options.inputs.add(needArgsParam(null, args));
+			return true;
+
+		case "-o":
+		case "--output":
+			options.output = needArgsParam(options.output, args);
+			return true;
+
+		case "-t":
+		case "--type":
+			options.format = SubtitleFormat.fromType(needArgsParam(options.format, args));
+			return true;
+
+		case "--charset":
+			options.charset = Charset.forName(needArgsParam(options.charset, args));
+			return true;
+
+		case "--snap-frames":
+			options.snapFrames = true;
+			return true;
+
+		case "--output-charset":
+			options.outputCharset = Charset.forName(needArgsParam(options.outputCharset, args));
+			if (!CharsetDetector.isAsciiCompatible(options.outputCharset)) {
+				throw new IllegalArgumentException("output charset must be ASCII compatible: "+options.outputCharset);
+			}
+			return true;
+		}
+		return super.parseOption(context, arg, args);
+	}
+
+	@Override
+	protected int parseNonOptions(CommandContext context, ListIterator<String> args) throws Exception
+	{
+		args.forEachRemaining(options.inputs::add);
+		return EXIT_CONTINUE;
+	}
+
+	@Override
+	protected int validateOptions(CommandContext context, ListIterator<String> args) throws Exception
+	{
+		if (options.inputs.size() < 2) {
+			return usage(context, "at least two inputs are needed");
+		}
+		if (options.output == null) {
+			return usage(context, "-o output argument is mandatory");
+		}
+		for (String input: options.inputs) {
+			try {
+				SubtitleFormat.fromPath(Paths.get(input));
+			}
+			catch (IllegalArgumentException ex) {
+				return usage(context, ex.getMessage());
+			}
+		}
+		if (options.format == null) {
+			if (STDIO.equals(options.output)) {
+				return usage(context, "-t type is mandatory for standard output");
+			}
+			try {
+				options.format = SubtitleFormat.fromPath(Paths.get(options.output));
+			}
+			catch (IllegalArgumentException ex) {
+				return usage(context, ex.getMessage());
+			}
+		}
+		if (options.snapFrames) {
+			if (mainOptions.getVideoInput() == null) {
+				return usage(context, "--vi video-input is needed for --snap-frames");
+			}
+			if (options.format.getRangeType() != RangeType.TIME) {
+				return usage(context, "--snap-frames applies to time based output only");
+			}
+		}
+		if (options.outputCharset == null) {
+			options.outputCharset = StandardCharsets.UTF_8;
+		}
+		return EXIT_CONTINUE;
+	}
+
+	@Override
+	public int execute() throws Exception
+	{
+		Path target = STDIO.equals(options.output) ? null : Paths.get(options.output).toAbsolutePath();
+		Path temporary = target == null ? null : target.resolveSibling(target.getFileName()+"."+UUID.randomUUID()+".tmp");
+		List<InputStream> streams = new ArrayList<>();
+		try {
+			List<SubtitleChunkReader> readers = new ArrayList<>();
+			for (String input: options.inputs) {
+				InputStream stream = new BufferedInputStream(SubtitleArchiveCache.isEntry(input) ?
+					subtitleArchiveCache.openEntry(input) : Files.newInputStream(Paths.get(input)));
+				streams.add(stream);
+				readers.add(new SubtitleChunkReader(SubtitleFormat.fromPath(Paths.get(input)), stream,
+					SubtitlePipeline.DEFAULT_CHUNK_SIZE, options.charset, options.outputCharset));
+			}
+			long entries;
+			try (WritableByteChannel output = target == null ?
+				Channels.newChannel(CloseShieldOutputStream.wrap(System.out)) :
+				FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+				entries = new SubtitleMerger(readers, this::toTimes, this::toOutput, options.format.getWriter())
+					.run(output);
+			}
+			if (target != null) {
+				Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+				log.info("Merged subtitles: inputs={} output={} entries={}", options.inputs, options.output, entries);
+			}
+		}
+		catch (MergeException ex) {
+			log.error("{}", ex.getMessage());
+			return EXIT_FAILURE;
+		}
+		finally {
+			for (InputStream stream: streams) {
+				stream.close();
+			}
+			subtitleArchiveCache.close();
+			if (temporary != null) {
+				Files.deleteIfExists(temporary);
+			}
+		}
+		return EXIT_SUCCESS;
+	}
+
+	/**
+	 * Converts chunk of input to times, snapping them to frames.
+	 */
+	private Subtitles toTimes(Subtitles subtitles) throws IOException
+	{
+		if (subtitles.getRangeType() == RangeType.FRAME) {
+			if (mainOptions.getVideoInput() == null && subtitles.getFrameRate() != null) {
+				if (frameRate == null) {
+					frameRate = subtitles.getFrameRate();
+				}
+				subtitles.framesToTimes(subtitles.getFrameRate());
+			}
+			else {
+				subtitles.framesToTimes(frameIndex());
+			}
+		}
+		if (options.snapFrames) {
+			// before merging, so the merged segments do not split frames:
+			subtitles.snapToFrames(frameTimeLookup());
+		}
+		return subtitles;
+	}
+
+	/**
+	 * Converts batch of output to output format range type, using the declared input frame rate if there is no
+	 * video.
+	 */
+	private Subtitles toOutput(Subtitles subtitles) throws IOException
+	{
+		if (options.format.getRangeType() == RangeType.FRAME) {
+			if (frameRate != null) {
+				subtitles.timesToFrames(frameRate);
+			}
+			else {
+				subtitles.timesToFrames(frameIndex());
+			}
+		}
+		return subtitles;
+	}
+
+	/**
+	 * Gets frame index of video, obtaining it on first use.
+	 */
+	private FrameIndex frameIndex() throws IOException
+	{
+		if (frameIndex == null) {
+			if (mainOptions.getVideoInput() == null) {
+				throw new MergeException("--vi video-input is needed to convert between frames and times");
+			}
+			frameIndex = frameIndexService.obtainIndex(Paths.get(mainOptions.getVideoInput()), mainOptions.getFrameIndex());
+		}
+		return frameIndex;
+	}
+
+	/**
+	 * Gets frame time lookup of video, obtaining it on first use.  Full frame index is reused if already obtained,
+	 * otherwise only the parts of video around the looked up times are read.
+	 */
+	private FrameTimeLookup frameTimeLookup() throws IOException
+	{
+		if (frameTimeLookup == null) {
+			frameTimeLookup = frameIndex != null ? frameIndex :
+				frameIndexService.obtainTimeLookup(Paths.get(mainOptions.getVideoInput()), mainOptions.getFrameIndex());
+		}
+		return frameTimeLookup;
+	}
+
+	@Override
+	protected Map<String, String> configParametersDescription(CommandContext context)
+	{
+		return ImmutableMap.of(
+			"inputs...", "input subtitles files, first on top"
+		);
+	}
+
+	@Override
+	protected Map<String, String> configOptionsDescription(CommandContext context)
+	{
+		return ImmutableMap.of(
+			"-i input", "input subtitles file or archive.zip!/entry, in order from top (can be specified multiple times)",
+			"-o output", "output subtitles file, - for standard output",
+			"-t type", "output type (srt, sub, vtt, ass or ssa), default by output extension",
+			"--charset charset", "input charset (default detected, UTF-8, UTF-16 with BOM, windows-1250 or ISO-8859-2)",
+			"--output-charset charset", "output charset, ASCII compatible (default UTF-8)",
+			"--snap-frames", "snaps input times to the following video frames before merging, reading only the needed parts of video"
+		);
+	}
+
+	/**
+	 * Thrown on invalid input or missing options, reported without stack trace.
+	 */
+	private static class MergeException extends RuntimeException
+	{
+		public MergeException(String message)
+		{
+			super(message);
+		}
+	}
+
+	public static class Options
+	{
+		List<String> inputs = new ArrayList<>();
+
+		String output;
+
+		SubtitleFormat format;
+
+		Charset charset;
+
+		Charset outputCharset;
+
+		boolean snapFrames;
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.command;
+
+import com.github.kvr000.zbynekvideoutils.videotool.ZbynekVideoTool;
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.FrameIndexService;
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+import com.github.kvr000.zbynekvideoutils.videotool.subtitle.SubtitleFormat;
+import com.github.kvr000.zbynekvideoutils.videotool.subtitle.Subtitles;
+import com.github.kvr000.zbynekvideoutils.videotool.sync.SubtitleSynchronizer;
+import com.github.kvr000.zbynekvideoutils.videotool.sync.VoiceActivityReader;
+import com.github.kvr000.zbynekvideoutils.videotool.util.TimeFormat;
+import com.google.common.collect.ImmutableMap;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import net.dryuf.cmdline.command.AbstractCommand;
+import net.dryuf.cmdline.command.CommandContext;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Finds delays of subtitles against video audio, printing them as --delay-file for subtitle-convert.
+ */
+@Log4j2
+@RequiredArgsConstructor(onConstructor = @__(@Inject))
+public class SubtitleSyncCommand extends AbstractCommand
+{
+	/** Name of standard output. */
+	private static final String STDIO = "-";
+
+	private final ZbynekVideoTool.Options mainOptions;
+
+	private final FrameIndexService frameIndexService;
+
+	private final VoiceActivityReader voiceActivityReader;
+
+	private Options options = new Options();
+
+	protected boolean parseOption(CommandContext context, String arg, ListIterator<String> args) throws Exception
+	{
+		switch (arg) {
+		case "-i":
+		case "--input":
+			options.input = needArgsParam(options.input, args);
+			return true;
+
+		case "-o":
+		case "--output":
+			options.output = needArgsParam(options.output, args);
+			return true;
+
+		case "--max-offset":
+			options.maxOffset = TimeFormat.strToUsTime(needArgsParam(options.maxOffset, args));
+			return true;
+
+		case "--window":
+			options.window = TimeFormat.strToUsTime(needArgsParam(options.window, args));
+			return true;
+
+		case "--max-drift":
+			options.maxDrift = TimeFormat.strToUsTime(needArgsParam(options.maxDrift, args));
+			return true;
+
+		case "-j":
+		case "--jobs":
+			options.jobs = Integer.parseInt(needArgsParam(options.jobs, args));
+			if (options.jobs < 1) {
+				throw new IllegalArgumentException("jobs must be positive");
+			}
+			return true;
+		}
+		return super.parseOption(context, arg, args);
+	}
+
+	@Override
+	protected int parseNonOptions(CommandContext context, ListIterator<String> args) throws Exception
+	{
+		if (args.hasNext()) {
+			options.input = needArgsParam(options.input, args);
+		}
+		return super.parseNonOptions(context, args);
+	}
+
+	@Override
+	protected int validateOptions(CommandContext context, ListIterator<String> args) throws Exception
+	{
+		if (options.input == null) {
+			return usage(context, "-i input argument is mandatory");
+		}
+		if (mainOptions.getVideoInput() == null) {
+			return usage(context, "--vi video-input is mandatory");
+		}
+		try {
+			SubtitleFormat.fromPath(Paths.get(options.input));
+		}
+		catch (IllegalArgumentException ex) {
+			return usage(context, ex.getMessage());
+		}
+		if (options.output == null) {
+			options.output = STDIO;
+		}
+		if (options.maxOffset == null) {
+			options.maxOffset = 60_000_000L;
+		}
+		if (options.window == null) {
+			options.window = 300_000_000L;
+		}
+		if (options.maxDrift == null) {
+			options.maxDrift = 5_000_000L;
+		}
+		if (options.maxOffset <= 0 || options.window < 0 || options.maxDrift <= 0) {
+			return usage(context, "--max-offset and --max-drift must be positive, --window must not be negative");
+		}
+		if (options.jobs == null) {
+			options.jobs = Runtime.getRuntime().availableProcessors();
+		}
+		return EXIT_CONTINUE;
+	}
+
+	@Override
+	public int execute() throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(options.jobs);
+		try {
+			// decoding audio takes most of the time, read subtitles meanwhile:
+			Future<float[]> voiceFuture = executor.submit(() -> voiceActivityReader.readActivity(Paths.get(mainOptions.getVideoInput())));
+			double[] timeline = SubtitleSynchronizer.timeline(readSubtitles());
+			SubtitleSynchronizer synchronizer = new SubtitleSynchronizer(voiceFuture.get());
+
+			SubtitleSynchronizer.Anchor offset = synchronizer.findOffset(timeline, options.maxOffset);
+			List<SubtitleSynchronizer.Anchor> anchors = new ArrayList<>();
+			if (options.window != 0) {
+				// without global offset, which happens with large drift, the windows search the whole range:
+				anchors = offset != null ?
+					synchronizer.findAnchors(timeline, options.window, offset.getDelay(), options.maxDrift, executor) :
+					synchronizer.findAnchors(timeline, options.window, 0, options.maxOffset, executor);
+			}
+			if (anchors.isEmpty()) {
+				if (offset == null) {
+					log.error("Failed to find subtitles delay, no significant match within --max-offset: input={}", options.input);
+					return EXIT_FAILURE;
+				}
+				anchors = List.of(offset);
+			}
+			write(offset, anchors);
+			if (!STDIO.equals(options.output)) {
+				log.info("Found subtitles delays: input={} output={} offset={} anchors={}",
+					options.input, options.output, offset == null ? "none" : TimeFormat.usToStr(offset.getDelay()), anchors.size());
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		return EXIT_SUCCESS;
+	}
+
+	private Subtitles readSubtitles() throws IOException
+	{
+		Subtitles subtitles = SubtitleFormat.fromPath(Paths.get(options.input)).read(Paths.get(options.input));
+		if (subtitles.getRangeType() == RangeType.FRAME) {
+			if (subtitles.getFrameRate() != null) {
+				subtitles.framesToTimes(subtitles.getFrameRate());
+			}
+			else {
+				subtitles.framesToTimes(frameIndexService.obtainIndex(Paths.get(mainOptions.getVideoInput()), mainOptions.getFrameIndex()));
+			}
+		}
+		return subtitles;
+	}
+
+	/**
+	 * Writes the anchors in --delay-file format, the scores as comments.
+	 *
+	 * @param offset
+	 * 	global offset, null if not found
+	 */
+	private void write(SubtitleSynchronizer.Anchor offset, List<SubtitleSynchronizer.Anchor> anchors) throws IOException
+	{
+		StringBuilder content = new StringBuilder();
+		content.append("# offset=").append(offset == null ? "none" : TimeFormat.usToStr(offset.getDelay()))
+			.append(" score=").append(offset == null ? "none" : String.format("%.1f", offset.getScore())).append("\n");
+		for (SubtitleSynchronizer.Anchor anchor: anchors) {
+			content.append(TimeFormat.usToStr(anchor.getTime())).append("=").append(TimeFormat.usToStr(anchor.getDelay()))
+				.append(" # score=").append(String.format("%.1f", anchor.getScore())).append("\n");
+		}
+		if (STDIO.equals(options.output)) {
+			PrintStream output = System.out;
+			output.print(content);
+			output.flush();
+		}
+		else {
+			Files.writeString(Paths.get(options.output), content, StandardCharsets.UTF_8);
+		}
+	}
+
+	@Override
+	protected Map<String, String> configParametersDescription(CommandContext context)
+	{
+		return ImmutableMap.of(
+			"input", "input subtitles file"
+		);
+	}
+
+	@Override
+	protected Map<String, String> configOptionsDescription(CommandContext context)
+	{
+		return ImmutableMap.of(
+			"-i input", "input subtitles file, --vi video-input provides the audio",
+			"-o output", "output delay file for subtitle-convert --delay-file, default - for standard output",
+			"--max-offset seconds", "maximum searched offset of subtitles (default 60)",
+			"--window seconds", "length of window for piecewise retiming anchors, 0 for single offset (default 300)",
+			"--max-drift seconds", "maximum difference of window delay from the global offset (default 5)",
+			"-j count", "number of windows correlated in parallel (default number of cores)"
+		);
+	}
+
+	public static class Options
+	{
+		String input;
+
+		String output;
+
+		Long maxOffset;
+
+		Long window;
+
+		Long maxDrift;
+
+		Integer jobs;
+	}
+}
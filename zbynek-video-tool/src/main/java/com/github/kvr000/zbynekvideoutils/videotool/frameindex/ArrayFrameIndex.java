@@ -0,0 +1,165 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.function.LongUnaryOperator;
+
+
+/**
+ * Frame index stored as primitive array of frame times, array position being the frame id.
+ */
+public class ArrayFrameIndex implements FrameIndex
+{
+	private long[] times;
+
+	private int size;
+
+	public ArrayFrameIndex()
+	{
+		this(1024);
+	}
+
+	public ArrayFrameIndex(int capacity)
+	{
+		this.times = new long[Math.max(capacity, 16)];
+	}
+
+	/**
+	 * Appends next frame.
+	 *
+	 * @param timeUs
+	 * 	frame time in microseconds
+	 *
+	 * @return
+	 * 	id of the added frame
+	 */
+	public int add(long timeUs)
+	{
+		if (size == times.length) {
+			times = Arrays.copyOf(times, times.length*2);
+		}
+		times[size] = timeUs;
+		return size++;
+	}
+
+	/**
+	 * Appends all frames of other index.
+	 *
+	 * @param other
+	 * 	index to append
+	 *
+	 * @return
+	 * 	this
+	 */
+	public ArrayFrameIndex addAll(ArrayFrameIndex other)
+	{
+		if (size+other.size > times.length) {
+			times = Arrays.copyOf(times, Math.max(size+other.size, times.length*2));
+		}
+		System.arraycopy(other.times, 0, times, size, other.size);
+		size += other.size;
+		return this;
+	}
+
+	/**
+	 * Sorts the frames by time, converting decode order to presentation order.
+	 *
+	 * @return
+	 * 	this
+	 */
+	public ArrayFrameIndex sort()
+	{
+		Arrays.sort(times, 0, size);
+		return this;
+	}
+
+	/**
+	 * Converts all frame times, such as from container ticks to microseconds.
+	 *
+	 * @param function
+	 * 	conversion function
+	 *
+	 * @return
+	 * 	this
+	 */
+	public ArrayFrameIndex transform(LongUnaryOperator function)
+	{
+		for (int i = 0; i < size; ++i) {
+			times[i] = function.applyAsLong(times[i]);
+		}
+		return this;
+	}
+
+	/**
+	 * Releases unused capacity.
+	 *
+	 * @return
+	 * 	this
+	 */
+	public ArrayFrameIndex trim()
+	{
+		if (size != times.length) {
+			times = Arrays.copyOf(times, size);
+		}
+		return this;
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public long frameTime(int frameId)
+	{
+		if (frameId < 0 || frameId >= size) {
+			throw new IndexOutOfBoundsException("Frame not found in video: frame="+frameId+" size="+size);
+		}
+		return times[frameId];
+	}
+
+	@Override
+	public int lowestFrameByTime(long timeUs)
+	{
+		if (size == 0 || timeUs > times[size-1]) {
+			return NO_FRAME;
+		}
+		int i = 0;
+		int j = size-1;
+		while (i < j) {
+			int mid = (i+j) >>> 1;
+			if (timeUs > times[mid]) {
+				i = mid+1;
+			}
+			else {
+				j = mid;
+			}
+		}
+		return i;
+	}
+
+	@Override
+	public int[] lowestFramesByTimes(long[] timesUs)
+	{
+		return FrameTimeSearch.lowestFramesByTimes(LongBuffer.wrap(times, 0, size), size, timesUs);
+	}
+}
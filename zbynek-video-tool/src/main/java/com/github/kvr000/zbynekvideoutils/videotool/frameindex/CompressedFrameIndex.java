@@ -0,0 +1,331 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+
+/**
+ * Frame index compressed into blocks of varint encoded timestamp deltas.
+ *
+ * Each block of {@link #BLOCK_SIZE} frames stores absolute time of its first frame in skip table and the following
+ * frames as zigzag varint of difference between consecutive deltas, which is close to zero for regular frame rate
+ * and typically takes single byte per frame.  Lookups binary search the skip table and decode single block only.
+ * Batch lookups merge the sorted times against the index, galloping over the skip table and decoding each touched
+ * block once.
+ */
+public class CompressedFrameIndex implements FrameIndex
+{
+	public static final int BLOCK_SHIFT = 8;
+
+	public static final int BLOCK_SIZE = 1<<BLOCK_SHIFT;
+
+	private final int size;
+
+	private final LongBuffer blockTimes;
+
+	private final IntBuffer blockOffsets;
+
+	private final ByteBuffer data;
+
+	private final long lastTime;
+
+	/**
+	 * Creates the index from its encoded form.
+	 *
+	 * @param size
+	 * 	number of frames
+	 * @param blockTimes
+	 * 	time of first frame of each block
+	 * @param blockOffsets
+	 * 	offset of each block in data, followed by end of data
+	 * @param data
+	 * 	encoded deltas
+	 */
+	public CompressedFrameIndex(int size, LongBuffer blockTimes, IntBuffer blockOffsets, ByteBuffer data)
+	{
+		if (blockTimes.remaining() != blockCount(size) || blockOffsets.remaining() != blockCount(size)+1) {
+			throw new IllegalArgumentException("Invalid number of blocks for frames: frames="+size+" blocks="+blockTimes.remaining());
+		}
+		this.size = size;
+		this.blockTimes = blockTimes;
+		this.blockOffsets = blockOffsets;
+		this.data = data;
+		this.lastTime = size == 0 ? Long.MIN_VALUE : frameTime(size-1);
+	}
+
+	/**
+	 * Compresses the frame index.
+	 *
+	 * @param index
+	 * 	index to compress
+	 *
+	 * @return
+	 * 	compressed index
+	 */
+	public static CompressedFrameIndex compress(FrameIndex index)
+	{
+		int size = index.size();
+		int blocks = blockCount(size);
+		long[] times = new long[blocks];
+		int[] offsets = new int[blocks+1];
+		byte[] data = new byte[size+size/4+16];
+		int length = 0;
+		long previous = 0;
+		long previousDelta = 0;
+		for (int i = 0; i < size; ++i) {
+			long time = index.frameTime(i);
+			if ((i&(BLOCK_SIZE-1)) == 0) {
+				times[i>>>BLOCK_SHIFT] = time;
+				offsets[i>>>BLOCK_SHIFT] = length;
+				previousDelta = 0;
+			}
+			else {
+				if (length+10 > data.length) {
+					data = Arrays.copyOf(data, data.length*2);
+				}
+				long delta = time-previous;
+				long value = delta-previousDelta;
+				long zigzag = (value<<1)^(value>>63);
+				while ((zigzag&~0x7fL) != 0) {
+					data[length++] = (byte) (zigzag|0x80);
+					zigzag >>>= 7;
+				}
+				data[length++] = (byte) zigzag;
+				previousDelta = delta;
+			}
+			previous = time;
+		}
+		offsets[blocks] = length;
+		return new CompressedFrameIndex(size, LongBuffer.wrap(times), IntBuffer.wrap(offsets), ByteBuffer.wrap(Arrays.copyOf(data, length)));
+	}
+
+	/**
+	 * Gets number of blocks for number of frames.
+	 */
+	public static int blockCount(int size)
+	{
+		return (size+BLOCK_SIZE-1)>>>BLOCK_SHIFT;
+	}
+
+	/**
+	 * Gets skip table of block first frame times.
+	 */
+	public LongBuffer getBlockTimes()
+	{
+		return blockTimes.duplicate();
+	}
+
+	/**
+	 * Gets block offsets in data, followed by end of data.
+	 */
+	public IntBuffer getBlockOffsets()
+	{
+		return blockOffsets.duplicate();
+	}
+
+	/**
+	 * Gets encoded data.
+	 */
+	public ByteBuffer getData()
+	{
+		return data.duplicate();
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public long frameTime(int frameId)
+	{
+		if (frameId < 0 || frameId >= size) {
+			throw new IndexOutOfBoundsException("Frame not found in video: frame="+frameId+" size="+size);
+		}
+		int block = frameId>>>BLOCK_SHIFT;
+		long time = blockTimes.get(block);
+		long delta = 0;
+		int position = blockOffsets.get(block);
+		for (int i = frameId&(BLOCK_SIZE-1); i > 0; --i) {
+			long zigzag = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = data.get(position++);
+				zigzag |= (long) (b&0x7f)<<shift;
+				if (b >= 0) {
+					break;
+				}
+			}
+			delta += (zigzag>>>1)^-(zigzag&1);
+			time += delta;
+		}
+		return time;
+	}
+
+	@Override
+	public int lowestFrameByTime(long timeUs)
+	{
+		if (timeUs > lastTime) {
+			return NO_FRAME;
+		}
+		// first block starting at or after the time:
+		int low = 0;
+		int high = blockTimes.remaining();
+		while (low < high) {
+			int mid = (low+high)>>>1;
+			if (blockTimes.get(mid) < timeUs) {
+				low = mid+1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		if (low == 0) {
+			return 0;
+		}
+		int block = low-1;
+		int first = block<<BLOCK_SHIFT;
+		int count = Math.min(BLOCK_SIZE, size-first);
+		long time = blockTimes.get(block);
+		long delta = 0;
+		int position = blockOffsets.get(block);
+		for (int i = 1; i < count; ++i) {
+			long zigzag = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = data.get(position++);
+				zigzag |= (long) (b&0x7f)<<shift;
+				if (b >= 0) {
+					break;
+				}
+			}
+			delta += (zigzag>>>1)^-(zigzag&1);
+			time += delta;
+			if (time >= timeUs) {
+				return first+i;
+			}
+		}
+		return low<<BLOCK_SHIFT;
+	}
+
+	@Override
+	public int[] lowestFramesByTimes(long[] timesUs)
+	{
+		if (FrameTimeSearch.isSorted(timesUs)) {
+			return lowestFramesBySortedTimes(timesUs);
+		}
+		long[] sorted = timesUs.clone();
+		Arrays.sort(sorted);
+		int[] sortedFrames = lowestFramesBySortedTimes(sorted);
+		int[] frames = new int[timesUs.length];
+		for (int i = 0; i < timesUs.length; ++i) {
+			frames[i] = sortedFrames[Arrays.binarySearch(sorted, timesUs[i])];
+		}
+		return frames;
+	}
+
+	private int[] lowestFramesBySortedTimes(long[] timesUs)
+	{
+		int[] frames = new int[timesUs.length];
+		long[] times = new long[BLOCK_SIZE];
+		int blocks = blockTimes.remaining();
+		int block = 0;
+		for (int i = 0; i < timesUs.length; ) {
+			long time = timesUs[i];
+			if (time > lastTime) {
+				Arrays.fill(frames, i, timesUs.length, NO_FRAME);
+				break;
+			}
+			int next = firstBlockNotBefore(time, block);
+			if (next == 0) {
+				frames[i++] = 0;
+				continue;
+			}
+			// all the times up to next block start resolve within this block or to the first frame of next one:
+			block = next-1;
+			int first = block<<BLOCK_SHIFT;
+			int count = decodeBlock(block, times);
+			long limit = next < blocks ? blockTimes.get(next) : lastTime;
+			int position = 0;
+			for (; i < timesUs.length && (time = timesUs[i]) <= limit; ++i) {
+				while (position < count && times[position] < time) {
+					++position;
+				}
+				frames[i] = position < count ? first+position : next<<BLOCK_SHIFT;
+			}
+		}
+		return frames;
+	}
+
+	/**
+	 * Finds the first block starting at or after the time, galloping from the block known to start before it.
+	 */
+	private int firstBlockNotBefore(long time, int from)
+	{
+		int blocks = blockTimes.remaining();
+		int low = from;
+		int high = from;
+		for (int step = 1; high < blocks && blockTimes.get(high) < time; step <<= 1) {
+			low = high+1;
+			high = (int) Math.min(blocks, (long) high+step);
+		}
+		while (low < high) {
+			int mid = (low+high)>>>1;
+			if (blockTimes.get(mid) < time) {
+				low = mid+1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Decodes frame times of the block.
+	 *
+	 * @return
+	 * 	number of frames in the block
+	 */
+	private int decodeBlock(int block, long[] times)
+	{
+		int count = Math.min(BLOCK_SIZE, size-(block<<BLOCK_SHIFT));
+		long time = blockTimes.get(block);
+		long delta = 0;
+		int position = blockOffsets.get(block);
+		times[0] = time;
+		for (int i = 1; i < count; ++i) {
+			long zigzag = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = data.get(position++);
+				zigzag |= (long) (b&0x7f)<<shift;
+				if (b >= 0) {
+					break;
+				}
+			}
+			delta += (zigzag>>>1)^-(zigzag&1);
+			time += delta;
+			times[i] = time;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import com.github.kvr000.zbynekvideoutils.videotool.util.Rational;
+
+
+/**
+ * Frame index of constant frame rate video, calculating frame times arithmetically.
+ *
+ * Frame timestamps are expected to be start plus frame id multiplied by frame duration, rounded to time base ticks,
+ * the same way muxers store them.
+ */
+public class ConstantRateFrameIndex implements FrameIndex
+{
+	private final long startTicks;
+
+	private final Rational timeBase;
+
+	private final Rational frameDuration;
+
+	private final Rational framesPerUs;
+
+	private final int size;
+
+	/**
+	 * Creates the index.
+	 *
+	 * @param startTicks
+	 * 	first frame timestamp in time base ticks
+	 * @param timeBase
+	 * 	stream time base
+	 * @param frameRate
+	 * 	frame rate in frames per second
+	 * @param size
+	 * 	number of frames
+	 */
+	public ConstantRateFrameIndex(long startTicks, Rational timeBase, Rational frameRate, int size)
+	{
+		this.startTicks = startTicks;
+		this.timeBase = timeBase;
+		this.frameDuration = new Rational(timeBase.getDen()*frameRate.getDen(), timeBase.getNum()*frameRate.getNum());
+		this.framesPerUs = new Rational(frameRate.getNum(), frameRate.getDen()*1_000_000L);
+		this.size = size;
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public long frameTime(int frameId)
+	{
+		if (frameId < 0 || frameId >= size) {
+			throw new IndexOutOfBoundsException("Frame not found in video: frame="+frameId+" size="+size);
+		}
+		return time(frameId);
+	}
+
+	@Override
+	public int lowestFrameByTime(long timeUs)
+	{
+		if (size == 0) {
+			return NO_FRAME;
+		}
+		long id = Math.max(0, Math.min(size-1, framesPerUs.multiply(timeUs-time(0))));
+		while (id < size && time(id) < timeUs) {
+			++id;
+		}
+		while (id > 0 && time(id-1) >= timeUs) {
+			--id;
+		}
+		return id >= size ? NO_FRAME : (int) id;
+	}
+
+	private long time(long frameId)
+	{
+		return timeBase.ticksToUs(startTicks+frameDuration.multiply(frameId));
+	}
+}
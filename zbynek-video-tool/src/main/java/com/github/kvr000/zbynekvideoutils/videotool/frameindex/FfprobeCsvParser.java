@@ -0,0 +1,161 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongConsumer;
+
+
+/**
+ * Streaming parser of ffprobe csv output, extracting first integer field of lines of single section.
+ *
+ * The parser works on bytes and does not allocate per line.  Lines of other sections and fields which are not
+ * integer (such as N/A) are skipped.
+ */
+public class FfprobeCsvParser
+{
+	private static final int STATE_PREFIX = 0;
+
+	private static final int STATE_SIGN = 1;
+
+	private static final int STATE_NUMBER = 2;
+
+	private static final int STATE_SKIP = 3;
+
+	private final byte[] prefix;
+
+	private final byte[] buffer = new byte[65536];
+
+	private long skipped;
+
+	/**
+	 * Creates parser.
+	 *
+	 * @param section
+	 * 	section name, such as frame or packet
+	 */
+	public FfprobeCsvParser(String section)
+	{
+		this.prefix = (section+",").getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Gets number of section lines skipped because the value was not integer.
+	 */
+	public long getSkipped()
+	{
+		return skipped;
+	}
+
+	/**
+	 * Parses the input until end.
+	 *
+	 * @param input
+	 * 	ffprobe output
+	 * @param consumer
+	 * 	consumer of parsed values
+	 *
+	 * @return
+	 * 	number of parsed values
+	 */
+	public long parse(InputStream input, LongConsumer consumer) throws IOException
+	{
+		final byte[] prefix = this.prefix;
+		final byte[] buffer = this.buffer;
+		long count = 0;
+		skipped = 0;
+		int state = STATE_PREFIX;
+		int matched = 0;
+		boolean negative = false;
+		long value = 0;
+		for (int read; (read = input.read(buffer)) > 0; ) {
+			for (int i = 0; i < read; ++i) {
+				byte c = buffer[i];
+				if (c == '\n') {
+					if (state == STATE_NUMBER) {
+						consumer.accept(negative ? -value : value);
+						++count;
+					}
+					else if (state == STATE_SIGN) {
+						++skipped;
+					}
+					state = STATE_PREFIX;
+					matched = 0;
+					continue;
+				}
+				switch (state) {
+				case STATE_PREFIX:
+					if (c == prefix[matched]) {
+						if (++matched == prefix.length) {
+							state = STATE_SIGN;
+							negative = false;
+							value = 0;
+						}
+					}
+					else {
+						state = STATE_SKIP;
+					}
+					break;
+
+				case STATE_SIGN:
+					if (c == '-' && !negative) {
+						negative = true;
+					}
+					else if (c >= '0' && c <= '9') {
+						value = c-'0';
+						state = STATE_NUMBER;
+					}
+					else {
+						++skipped;
+						state = STATE_SKIP;
+					}
+					break;
+
+				case STATE_NUMBER:
+					if (c >= '0' && c <= '9') {
+						value = value*10+(c-'0');
+					}
+					else if (c == ',' || c == '\r') {
+						consumer.accept(negative ? -value : value);
+						++count;
+						state = STATE_SKIP;
+					}
+					else {
+						++skipped;
+						state = STATE_SKIP;
+					}
+					break;
+
+				default:
+					break;
+				}
+			}
+		}
+		if (state == STATE_NUMBER) {
+			consumer.accept(negative ? -value : value);
+			++count;
+		}
+		else if (state == STATE_SIGN) {
+			++skipped;
+		}
+		return count;
+	}
+}
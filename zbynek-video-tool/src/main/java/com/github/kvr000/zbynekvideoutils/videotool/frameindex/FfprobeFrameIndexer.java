@@ -0,0 +1,444 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import com.github.kvr000.zbynekvideoutils.videotool.util.Rational;
+import com.github.kvr000.zbynekvideoutils.videotool.video.VideoInfo;
+import com.github.kvr000.zbynekvideoutils.videotool.video.VideoInfoReader;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Builds {@link FrameIndex} by reading timestamps of the first video stream via ffprobe.
+ *
+ * Only the timestamps are requested, in compact csv form, and converted using stream time base.  In
+ * {@link FrameIndexConfig.IndexMode#FRAMES} mode, the frames are decoded and their best effort timestamps are used.
+ * In {@link FrameIndexConfig.IndexMode#PACKETS} mode, the file is only demuxed and packet presentation timestamps
+ * are sorted into presentation order, falling back to frames mode if the container does not provide them.
+ *
+ * Long videos are split into segments starting at keyframes and indexed by parallel ffprobe processes.  Each
+ * segment is read slightly past its end, so frames decoded after the next keyframe but presented before it are
+ * not lost, and only frames within the segment are kept.
+ */
+@Log4j2
+@RequiredArgsConstructor(onConstructor = @__(@Inject))
+public class FfprobeFrameIndexer
+{
+	/** Minimal duration of segment indexed by single process. */
+	private static final long MIN_SEGMENT_US = 120_000_000L;
+
+	/** Additional time read after segment end. */
+	private static final long SEGMENT_OVERLAP_US = 5_000_000L;
+
+	/** Number of places sampled for constant frame rate detection. */
+	private static final int CFR_SAMPLES = 8;
+
+	/** Number of packets read at each sampled place. */
+	private static final int CFR_SAMPLE_PACKETS = 64;
+
+	/**
+	 * Number of frames trimmed from both ends of sampled place, as the decode order window misses frames reordered
+	 * out of it.
+	 */
+	private static final int CFR_REORDER_TRIM = 8;
+
+	/** Time base keeping the ticks unconverted. */
+	private static final Rational RAW_TICKS = new Rational(1, 1_000_000);
+
+	private final VideoInfoReader videoInfoReader;
+
+	public ArrayFrameIndex buildIndex(Path video, FrameIndexConfig config) throws IOException
+	{
+		VideoInfo info = videoInfoReader.readVideoInfo(video);
+		VideoInfo.Stream stream = info.firstVideoStream();
+		if (stream == null) {
+			throw new IOException("No video stream found in file: "+video);
+		}
+		Rational timeBase = Rational.parse(stream.getTimeBase());
+
+		ExecutorService executor = Executors.newFixedThreadPool(config.getWorkers());
+		try {
+			long[] boundaries = findSegmentBoundaries(executor, video, info, timeBase, config.getWorkers());
+
+			if (config.getIndexMode() == FrameIndexConfig.IndexMode.PACKETS) {
+				log.info("Obtaining video packets index: file={} segments={}", video, boundaries.length+1);
+				Segment[] segments = indexSegments(executor, video, "packet", timeBase, boundaries, List.of(
+					"-show_entries", "packet=pts"
+				));
+				long skipped = 0;
+				for (Segment segment: segments) {
+					skipped += segment.skipped;
+					segment.index.sort();
+				}
+				if (skipped == 0) {
+					ArrayFrameIndex index = mergeSegments(segments);
+					if (index.size() != 0) {
+						return index;
+					}
+				}
+				log.info("Packets miss presentation timestamps, falling back to frames index: file={} missing={}", video, skipped);
+			}
+
+			log.info("Obtaining video frames index, it may take few minutes: file={} segments={}", video, boundaries.length+1);
+			Segment[] segments = indexSegments(executor, video, "frame", timeBase, boundaries, List.of(
+				"-threads", String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors()/(boundaries.length+1))),
+				"-show_entries", "frame=best_effort_timestamp"
+			));
+			long skipped = Arrays.stream(segments).mapToLong(segment -> segment.skipped).sum();
+			if (skipped != 0) {
+				// counted in overlaps of segments too, so it is upper bound:
+				log.warn("Frames miss timestamps and are left out of index, frame ids after them are shifted: file={} missing={}", video, skipped);
+			}
+			return mergeSegments(segments);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Creates frame time lookup which reads only the windows around looked up times.
+	 *
+	 * @param video
+	 * 	video file
+	 * @param config
+	 * 	frame index configuration
+	 *
+	 * @return
+	 * 	lazy frame time lookup
+	 */
+	public LazyFrameTimeIndex createLazyIndex(Path video, FrameIndexConfig config) throws IOException
+	{
+		VideoInfo info = videoInfoReader.readVideoInfo(video);
+		VideoInfo.Stream stream = info.firstVideoStream();
+		if (stream == null) {
+			throw new IOException("No video stream found in file: "+video);
+		}
+		long durationUs;
+		try {
+			durationUs = new BigDecimal(info.getFormat().getDuration()).movePointRight(6).longValue();
+		}
+		catch (NullPointerException|NumberFormatException ex) {
+			durationUs = Long.MAX_VALUE;
+		}
+		return new LazyFrameTimeIndex(this, video, Rational.parse(stream.getTimeBase()), durationUs, config);
+	}
+
+	/**
+	 * Reads timestamps of frames presented within the time range.
+	 *
+	 * @param section
+	 * 	either packet, reading demuxed packets, or frame, decoding the frames
+	 * @param from
+	 * 	start of range, inclusive, {@link Long#MIN_VALUE} for beginning of video
+	 * @param to
+	 * 	end of range, exclusive, {@link Long#MAX_VALUE} for end of video
+	 *
+	 * @return
+	 * 	number of section entries without timestamp
+	 */
+	long readRange(Path video, String section, Rational timeBase, ArrayFrameIndex index, long from, long to) throws IOException
+	{
+		String interval = (from <= 0 ? "" : formatSeconds(from))+"%"+(to == Long.MAX_VALUE ? "" : formatSeconds(to+SEGMENT_OVERLAP_US));
+		return runFfprobe(video, section, timeBase, index, List.of(
+			"-read_intervals", interval,
+			"-show_entries", section.equals("packet") ? "packet=pts" : "frame=best_effort_timestamp"
+		), from, to);
+	}
+
+	/**
+	 * Detects constant frame rate video, by comparing real and average frame rate and checking sampled packet
+	 * timestamps.
+	 *
+	 * @return
+	 * 	constant rate frame index or null if the video is not constant frame rate
+	 */
+	public ConstantRateFrameIndex detectConstantRate(Path video) throws IOException
+	{
+		VideoInfo info = videoInfoReader.readVideoInfo(video);
+		VideoInfo.Stream stream = info.firstVideoStream();
+		if (stream == null || stream.getRFrameRate() == null || stream.getAvgFrameRate() == null) {
+			return null;
+		}
+		Rational timeBase;
+		Rational frameRate;
+		Rational avgFrameRate;
+		long durationUs;
+		try {
+			timeBase = Rational.parse(stream.getTimeBase());
+			frameRate = Rational.parse(stream.getRFrameRate());
+			avgFrameRate = Rational.parse(stream.getAvgFrameRate());
+			durationUs = new BigDecimal(stream.getDuration() != null ? stream.getDuration() : info.getFormat().getDuration())
+				.movePointRight(6).longValue();
+		}
+		catch (IllegalArgumentException|NullPointerException ex) {
+			return null;
+		}
+		if (frameRate.getNum() <= 0 || frameRate.getNum()*avgFrameRate.getDen() != avgFrameRate.getNum()*frameRate.getDen()) {
+			return null;
+		}
+
+		// each place is read separately, so the holes left by frame reordering can be told apart:
+		ArrayFrameIndex[] windows = new ArrayFrameIndex[CFR_SAMPLES];
+		ExecutorService executor = Executors.newFixedThreadPool(CFR_SAMPLES);
+		try {
+			List<Future<ArrayFrameIndex>> futures = new ArrayList<>();
+			for (int i = 0; i < CFR_SAMPLES; ++i) {
+				String interval = formatSeconds(durationUs/CFR_SAMPLES*i)+"%+#"+CFR_SAMPLE_PACKETS;
+				futures.add(executor.submit(() -> {
+					ArrayFrameIndex window = new ArrayFrameIndex(CFR_SAMPLE_PACKETS);
+					long skipped = runFfprobe(video, "packet", RAW_TICKS, window, List.of(
+						"-read_intervals", interval, "-show_entries", "packet=pts"
+					), Long.MIN_VALUE, Long.MAX_VALUE);
+					return skipped != 0 ? null : window.sort();
+				}));
+			}
+			for (int i = 0; i < CFR_SAMPLES; ++i) {
+				if ((windows[i] = waitFuture(futures.get(i))) == null) {
+					return null;
+				}
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		if (windows[0].size() < 2) {
+			return null;
+		}
+
+		long start = windows[0].frameTime(0);
+		long previous = findGridEnd(windows, timeBase, frameRate);
+		if (previous < 0) {
+			return null;
+		}
+
+		long count;
+		try {
+			count = Long.parseLong(stream.getNbFrames());
+		}
+		catch (NumberFormatException ex) {
+			count = new Rational(frameRate.getNum(), frameRate.getDen()*1_000_000L).multiply(durationUs-timeBase.ticksToUs(start));
+		}
+		if (count <= previous || count > Integer.MAX_VALUE) {
+			return null;
+		}
+		log.info("Detected constant frame rate video: file={} frameRate={} frames={}", video, frameRate, count);
+		return new ConstantRateFrameIndex(start, timeBase, frameRate, (int) count);
+	}
+
+	/**
+	 * Checks that sampled packet times lie on the frame grid starting at the first sample, consecutive within each
+	 * place once the reordered ends are trimmed.
+	 *
+	 * @param windows
+	 * 	sorted packet times of sampled places, in ticks
+	 * @param timeBase
+	 * 	stream time base
+	 * @param frameRate
+	 * 	stream frame rate
+	 *
+	 * @return
+	 * 	highest frame id found or -1 if the samples are not on the grid
+	 */
+	static long findGridEnd(ArrayFrameIndex[] windows, Rational timeBase, Rational frameRate)
+	{
+		Rational frameDuration = new Rational(timeBase.getDen()*frameRate.getDen(), timeBase.getNum()*frameRate.getNum());
+		Rational frameTicks = new Rational(frameDuration.getDen(), frameDuration.getNum());
+		long start = windows[0].frameTime(0);
+		long previous = -1;
+		int checked = 0;
+		for (ArrayFrameIndex window: windows) {
+			long last = -1;
+			for (int i = 0; i < window.size(); ++i) {
+				long offset = window.frameTime(i)-start;
+				long id = frameTicks.multiply(offset);
+				if (offset < 0 || frameDuration.multiply(id) != offset || id == last) {
+					return -1;
+				}
+				if (i > CFR_REORDER_TRIM && i < window.size()-CFR_REORDER_TRIM && id != last+1) {
+					return -1;
+				}
+				last = id;
+			}
+			if (window.size() > 2*CFR_REORDER_TRIM+1) {
+				++checked;
+			}
+			previous = Math.max(previous, last);
+		}
+		return checked == 0 ? -1 : previous;
+	}
+
+	/**
+	 * Finds keyframes splitting the video into segments.
+	 *
+	 * @return
+	 * 	sorted unique keyframe times in microseconds, empty if the video is not split
+	 */
+	private long[] findSegmentBoundaries(ExecutorService executor, Path video, VideoInfo info, Rational timeBase, int workers) throws IOException
+	{
+		long durationUs;
+		try {
+			durationUs = new BigDecimal(info.getFormat().getDuration()).movePointRight(6).longValue();
+		}
+		catch (NullPointerException|NumberFormatException ex) {
+			return new long[0];
+		}
+		int count = (int) Math.min(workers, durationUs/MIN_SEGMENT_US);
+		if (count <= 1) {
+			return new long[0];
+		}
+		List<Future<Long>> keyframes = new ArrayList<>();
+		for (int i = 1; i < count; ++i) {
+			long split = durationUs/count*i;
+			keyframes.add(executor.submit(() -> {
+				ArrayFrameIndex first = new ArrayFrameIndex(16);
+				runFfprobe(video, "packet", timeBase, first, List.of(
+					"-read_intervals", formatSeconds(split)+"%+#1", "-show_entries", "packet=pts"
+				), Long.MIN_VALUE, Long.MAX_VALUE);
+				return first.size() == 0 ? null : first.frameTime(0);
+			}));
+		}
+		TreeSet<Long> boundaries = new TreeSet<>();
+		for (Future<Long> keyframe: keyframes) {
+			Long time = waitFuture(keyframe);
+			if (time != null) {
+				boundaries.add(time);
+			}
+		}
+		return boundaries.stream().mapToLong(Long::longValue).toArray();
+	}
+
+	private Segment[] indexSegments(ExecutorService executor, Path video, String section, Rational timeBase, long[] boundaries, List<String> entriesArgs) throws IOException
+	{
+		List<Future<Segment>> futures = new ArrayList<>();
+		for (int i = 0; i <= boundaries.length; ++i) {
+			long from = i == 0 ? Long.MIN_VALUE : boundaries[i-1];
+			long to = i == boundaries.length ? Long.MAX_VALUE : boundaries[i];
+			List<String> args = new ArrayList<>(entriesArgs);
+			if (boundaries.length != 0) {
+				args.add("-read_intervals");
+				args.add((from == Long.MIN_VALUE ? "" : formatSeconds(from))+"%"+(to == Long.MAX_VALUE ? "" : formatSeconds(to+SEGMENT_OVERLAP_US)));
+			}
+			futures.add(executor.submit(() -> {
+				Segment segment = new Segment();
+				segment.skipped = runFfprobe(video, section, timeBase, segment.index, args, from, to);
+				return segment;
+			}));
+		}
+		Segment[] segments = new Segment[futures.size()];
+		for (int i = 0; i < segments.length; ++i) {
+			segments[i] = waitFuture(futures.get(i));
+		}
+		return segments;
+	}
+
+	private static ArrayFrameIndex mergeSegments(Segment[] segments)
+	{
+		if (segments.length == 1) {
+			return segments[0].index.trim();
+		}
+		ArrayFrameIndex index = new ArrayFrameIndex(Arrays.stream(segments).mapToInt(s -> s.index.size()).sum());
+		for (Segment segment: segments) {
+			index.addAll(segment.index);
+		}
+		return index.trim();
+	}
+
+	/**
+	 * Runs ffprobe and adds the timestamps of requested section within the range to index.
+	 *
+	 * @return
+	 * 	number of section entries without timestamp
+	 */
+	private long runFfprobe(Path video, String section, Rational timeBase, ArrayFrameIndex index, List<String> entriesArgs, long from, long to) throws IOException
+	{
+		List<String> command = new ArrayList<>(List.of(
+			"ffprobe", "-hide_banner", "-loglevel", "fatal", "-show_error", "-select_streams", "v:0"
+		));
+		command.addAll(entriesArgs);
+		command.addAll(List.of("-of", "csv", "--", video.toString()));
+		Process process = new ProcessBuilder(command)
+			.redirectError(ProcessBuilder.Redirect.INHERIT)
+			.start();
+		process.getOutputStream().close();
+		FfprobeCsvParser parser = new FfprobeCsvParser(section);
+		try (InputStream input = process.getInputStream()) {
+			parser.parse(input, (ticks) -> {
+				long time = timeBase.ticksToUs(ticks);
+				if (time < from || time >= to) {
+					return;
+				}
+				int id = index.add(time);
+				if ((id+1)%100000 == 0) {
+					log.info("Obtaining video {}s index, progress={} hours={}", section, id+1, String.format("%.6f", time/3600_000_000.0));
+				}
+			});
+		}
+		catch (Throwable ex) {
+			process.destroy();
+			throw ex;
+		}
+		VideoInfoReader.waitForProcess(process, "ffprobe");
+		return parser.getSkipped();
+	}
+
+	private static String formatSeconds(long us)
+	{
+		return BigDecimal.valueOf(us, 6).toPlainString();
+	}
+
+	private static <T> T waitFuture(Future<T> future) throws IOException
+	{
+		try {
+			return future.get();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for ffprobe", ex);
+		}
+		catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+			throw new IOException(ex.getCause());
+		}
+	}
+
+	private static class Segment
+	{
+		final ArrayFrameIndex index = new ArrayFrameIndex();
+
+		long skipped;
+	}
+}
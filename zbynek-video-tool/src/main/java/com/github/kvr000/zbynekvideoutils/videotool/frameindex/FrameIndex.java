@@ -0,0 +1,145 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+
+/**
+ * Index of video frames, mapping frame id to presentation time in microseconds and back.
+ *
+ * Frame ids are consecutive, starting at zero, times are monotonically non-decreasing.
+ */
+public interface FrameIndex extends FrameTimeLookup
+{
+	/** Returned when no frame matches the lookup. */
+	int NO_FRAME = -1;
+
+	/**
+	 * Gets number of frames.
+	 */
+	int size();
+
+	/**
+	 * Gets time of frame.
+	 *
+	 * @param frameId
+	 * 	frame id
+	 *
+	 * @return
+	 * 	frame time in microseconds
+	 *
+	 * @throws IndexOutOfBoundsException
+	 * 	if the frame does not exist
+	 */
+	long frameTime(int frameId);
+
+	/**
+	 * Finds the lowest frame with time greater or equal to requested time.
+	 *
+	 * @param timeUs
+	 * 	time in microseconds
+	 *
+	 * @return
+	 * 	frame id or {@link #NO_FRAME} if the time is past the last frame
+	 */
+	int lowestFrameByTime(long timeUs);
+
+	/**
+	 * Finds the lowest frames with time greater or equal to each of requested times.
+	 *
+	 * Implementations resolve time sorted requests, the typical case for subtitles, in single pass.
+	 *
+	 * @param timesUs
+	 * 	times in microseconds, preferably sorted
+	 *
+	 * @return
+	 * 	frame ids or {@link #NO_FRAME}, in the order of requested times
+	 */
+	default int[] lowestFramesByTimes(long[] timesUs)
+	{
+		int[] frames = new int[timesUs.length];
+		for (int i = 0; i < timesUs.length; ++i) {
+			frames[i] = lowestFrameByTime(timesUs[i]);
+		}
+		return frames;
+	}
+
+	@Override
+	default long ceilingFrameTime(long timeUs)
+	{
+		int frame = lowestFrameByTime(timeUs);
+		return frame == NO_FRAME ? NO_TIME : frameTime(frame);
+	}
+
+	@Override
+	default long floorFrameTime(long timeUs)
+	{
+		if (timeUs == Long.MAX_VALUE) {
+			return size() == 0 ? NO_TIME : frameTime(size()-1);
+		}
+		int next = lowestFrameByTime(timeUs+1);
+		int frame = (next == NO_FRAME ? size() : next)-1;
+		return frame < 0 ? NO_TIME : frameTime(frame);
+	}
+
+	/**
+	 * Finds frame by either frame id or time.
+	 *
+	 * @return
+	 * 	frame id or {@link #NO_FRAME} if not found
+	 */
+	default int frameByRangeType(RangeType rangeType, long value)
+	{
+		switch (rangeType) {
+		case TIME:
+			return lowestFrameByTime(value);
+
+		case FRAME:
+			return value >= 0 && value < size() ? (int) value : NO_FRAME;
+
+		default:
+			throw new UnsupportedOperationException("Unsupported rangeType (supported time,frame): "+rangeType);
+		}
+	}
+
+	/**
+	 * Converts either frame id or time to time.
+	 *
+	 * @return
+	 * 	time in microseconds
+	 *
+	 * @throws IndexOutOfBoundsException
+	 * 	if the value is frame id which does not exist
+	 */
+	default long timeByRangeType(RangeType rangeType, long value)
+	{
+		switch (rangeType) {
+		case TIME:
+			return value;
+
+		case FRAME:
+			if (value < 0 || value >= size()) {
+				throw new IndexOutOfBoundsException("Frame not found in video: frame="+value+" size="+size());
+			}
+			return frameTime((int) value);
+
+		default:
+			throw new UnsupportedOperationException("Unsupported rangeType (supported time,frame): "+rangeType);
+		}
+	}
+}
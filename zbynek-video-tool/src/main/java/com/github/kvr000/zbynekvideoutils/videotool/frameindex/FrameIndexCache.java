@@ -0,0 +1,336 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+
+/**
+ * Persistent frame index cache, storing the index into binary file either next to video or into cache directory.
+ *
+ * The file is validated against video path, size, modification time, hash of sampled content and index mode it
+ * was built with.  The frame times are stored compressed, see {@link CompressedFrameIndex}, and accessed directly
+ * from memory mapped file.  Files of older versions do not record the index mode and are rebuilt.
+ *
+ * Format (little endian):
+ * <pre>
+ * 0	magic "ZVTFIDX1"
+ * 8	int version (3)
+ * 12	int frame count
+ * 16	long video size
+ * 24	long video modification time in milliseconds
+ * 32	16 bytes sampled content hash
+ * 48	int path length
+ * 52	int data offset
+ * 56	int index mode, ordinal of {@link FrameIndexConfig.IndexMode}
+ * 60	int reserved (0)
+ * 64	path in UTF-8, padded to 8 bytes
+ * ...	long[block count] block first frame times in microseconds
+ * ...	int[block count+1] block data offsets, padded to 8 bytes
+ * ...	byte[] block data
+ * </pre>
+ */
+@Log4j2
+public class FrameIndexCache
+{
+	public static final String SIDECAR_SUFFIX = ".frameindex";
+
+	private static final long MAGIC = 0x315844494654565aL; // "ZVTFIDX1" little endian
+
+	private static final int VERSION = 3;
+
+	private static final int HEADER_SIZE = 64;
+
+	private static final int SAMPLE_COUNT = 16;
+
+	private static final int SAMPLE_SIZE = 65536;
+
+	/**
+	 * Loads the index from cache.
+	 *
+	 * @param video
+	 * 	video file
+	 * @param config
+	 * 	frame index configuration
+	 *
+	 * @return
+	 * 	the cached index or null if cache does not exist or is invalid
+	 */
+	public FrameIndex load(Path video, FrameIndexConfig config) throws IOException
+	{
+		Path cacheFile = cachePath(video, config);
+		if (cacheFile == null) {
+			return null;
+		}
+		CacheKey key = CacheKey.of(video);
+		try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+			long length = channel.size();
+			if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+				log.warn("Ignoring invalid frame index cache: file={}", cacheFile);
+				return null;
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			if (mapped.getLong(0) != MAGIC) {
+				log.warn("Ignoring invalid frame index cache: file={}", cacheFile);
+				return null;
+			}
+			if (mapped.getInt(8) != VERSION) {
+				log.info("Frame index cache outdated: file={} version={}", cacheFile, mapped.getInt(8));
+				return null;
+			}
+			int frames = mapped.getInt(12);
+			int pathLength = mapped.getInt(48);
+			int dataOffset = mapped.getInt(52);
+			if (dataOffset < HEADER_SIZE || dataOffset > length || frames < 0 ||
+				pathLength < 0 || (long) HEADER_SIZE+pathLength > dataOffset) {
+				log.warn("Ignoring invalid frame index cache: file={}", cacheFile);
+				return null;
+			}
+			byte[] path = new byte[pathLength];
+			mapped.get(HEADER_SIZE, path);
+			byte[] hash = new byte[16];
+			mapped.get(32, hash);
+			if (mapped.getLong(16) != key.size || mapped.getLong(24) != key.mtime ||
+				mapped.getInt(56) != config.getIndexMode().ordinal() ||
+				!Arrays.equals(path, key.path) || !Arrays.equals(hash, key.hash())) {
+				log.info("Frame index cache outdated: file={}", cacheFile);
+				return null;
+			}
+			mapped.position(dataOffset);
+			ByteBuffer data = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+			int blocks = CompressedFrameIndex.blockCount(frames);
+			int offsetsStart = blocks*Long.BYTES;
+			int deltasStart = (offsetsStart+(blocks+1)*Integer.BYTES+7)&~7;
+			if (deltasStart > data.remaining() ||
+				data.getInt(offsetsStart) != 0 || data.getInt(offsetsStart+blocks*Integer.BYTES) != data.remaining()-deltasStart) {
+				log.warn("Ignoring invalid frame index cache: file={}", cacheFile);
+				return null;
+			}
+			LongBuffer blockTimes = data.slice(0, offsetsStart).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+			IntBuffer blockOffsets = data.slice(offsetsStart, (blocks+1)*Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			if (!isValidBlockTable(blockTimes, blockOffsets)) {
+				log.warn("Ignoring invalid frame index cache: file={}", cacheFile);
+				return null;
+			}
+			// decodes the last block, catching corrupt deltas running past the data:
+			return new CompressedFrameIndex(frames, blockTimes, blockOffsets, data.slice(deltasStart, data.remaining()-deltasStart));
+		}
+		catch (NoSuchFileException ex) {
+			return null;
+		}
+		catch (RuntimeException ex) {
+			log.warn("Ignoring invalid frame index cache: file={} error={}", cacheFile, ex.toString());
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the index into cache.  Failures are only logged, as the cache is optional.
+	 *
+	 * @param video
+	 * 	video file
+	 * @param config
+	 * 	frame index configuration
+	 * @param index
+	 * 	index to store
+	 */
+	public void store(Path video, FrameIndexConfig config, FrameIndex index)
+	{
+		Path cacheFile = cachePath(video, config);
+		if (cacheFile == null) {
+			return;
+		}
+		Path temp = null;
+		try {
+			CacheKey key = CacheKey.of(video);
+			Files.createDirectories(cacheFile.toAbsolutePath().getParent());
+			temp = Files.createTempFile(cacheFile.toAbsolutePath().getParent(), cacheFile.getFileName().toString(), ".tmp");
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				int dataOffset = (HEADER_SIZE+key.path.length+7)&~7;
+				ByteBuffer header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+				header.putLong(MAGIC)
+					.putInt(VERSION)
+					.putInt(index.size())
+					.putLong(key.size)
+					.putLong(key.mtime)
+					.put(key.hash())
+					.putInt(key.path.length)
+					.putInt(dataOffset)
+					.putInt(config.getIndexMode().ordinal())
+					.putInt(0)
+					.put(key.path);
+				header.position(0);
+				writeFully(channel, header);
+				CompressedFrameIndex compressed = index instanceof CompressedFrameIndex ?
+					(CompressedFrameIndex) index : CompressedFrameIndex.compress(index);
+				LongBuffer blockTimes = compressed.getBlockTimes();
+				IntBuffer blockOffsets = compressed.getBlockOffsets();
+				int offsetsStart = blockTimes.remaining()*Long.BYTES;
+				ByteBuffer table = ByteBuffer.allocate((offsetsStart+blockOffsets.remaining()*Integer.BYTES+7)&~7)
+					.order(ByteOrder.LITTLE_ENDIAN);
+				table.asLongBuffer().put(blockTimes);
+				table.position(offsetsStart);
+				table.asIntBuffer().put(blockOffsets);
+				table.position(0);
+				writeFully(channel, table);
+				writeFully(channel, compressed.getData());
+			}
+			Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			temp = null;
+		}
+		catch (IOException ex) {
+			log.warn("Failed to store frame index cache: file={} error={}", cacheFile, ex.toString());
+		}
+		finally {
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				}
+				catch (IOException ex) {
+					// ignore, nothing more to do
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets location of cache file for the video.
+	 *
+	 * @return
+	 * 	cache file path or null if cache is disabled
+	 */
+	public Path cachePath(Path video, FrameIndexConfig config)
+	{
+		switch (config.getCacheLocation()) {
+		case FrameIndexConfig.CACHE_NONE:
+			return null;
+
+		case FrameIndexConfig.CACHE_SIDECAR:
+			return video.resolveSibling(video.getFileName()+SIDECAR_SUFFIX);
+
+		default:
+			String name = Hashing.sha256()
+				.hashString(video.toAbsolutePath().normalize().toString(), StandardCharsets.UTF_8)
+				.toString().substring(0, 32);
+			return Paths.get(config.getCacheLocation()).resolve(name+SIDECAR_SUFFIX);
+		}
+	}
+
+	/**
+	 * Checks that block times and data offsets do not decrease, the first and last offsets were checked against the
+	 * data size already.
+	 */
+	private static boolean isValidBlockTable(LongBuffer blockTimes, IntBuffer blockOffsets)
+	{
+		for (int i = 1; i < blockTimes.remaining(); ++i) {
+			if (blockTimes.get(i) < blockTimes.get(i-1)) {
+				return false;
+			}
+		}
+		for (int i = 1; i < blockOffsets.remaining(); ++i) {
+			if (blockOffsets.get(i) < blockOffsets.get(i-1)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static class CacheKey
+	{
+		final Path video;
+
+		final byte[] path;
+
+		final long size;
+
+		final long mtime;
+
+		byte[] hash;
+
+		private CacheKey(Path video) throws IOException
+		{
+			BasicFileAttributes attributes = Files.readAttributes(video, BasicFileAttributes.class);
+			this.video = video;
+			this.path = video.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8);
+			this.size = attributes.size();
+			this.mtime = attributes.lastModifiedTime().toMillis();
+		}
+
+		static CacheKey of(Path video) throws IOException
+		{
+			return new CacheKey(video);
+		}
+
+		/**
+		 * Calculates hash of content sampled at evenly spaced positions, lazily as it requires reading the
+		 * video.
+		 */
+		byte[] hash() throws IOException
+		{
+			if (hash == null) {
+				Hasher hasher = Hashing.murmur3_128().newHasher();
+				ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_SIZE);
+				try (FileChannel channel = FileChannel.open(video, StandardOpenOption.READ)) {
+					long step = Math.max(0, size-SAMPLE_SIZE)/(SAMPLE_COUNT-1);
+					for (int i = 0; i < SAMPLE_COUNT; ++i) {
+						buffer.clear();
+						for (long position = i*step; buffer.hasRemaining(); ) {
+							int read = channel.read(buffer, position+buffer.position());
+							if (read < 0) {
+								break;
+							}
+						}
+						buffer.flip();
+						hasher.putBytes(buffer);
+					}
+				}
+				hasher.putLong(size);
+				hash = hasher.hash().asBytes();
+			}
+			return hash;
+		}
+	}
+}
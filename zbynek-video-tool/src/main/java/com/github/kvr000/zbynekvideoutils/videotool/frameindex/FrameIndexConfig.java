@@ -0,0 +1,54 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import lombok.Data;
+
+
+/**
+ * Configuration of frame index building and caching.
+ */
+@Data
+public class FrameIndexConfig
+{
+	/** Cache location value disabling the cache. */
+	public static final String CACHE_NONE = "none";
+
+	/** Cache location value storing the index next to video file. */
+	public static final String CACHE_SIDECAR = "sidecar";
+
+	/** Cache location, either {@link #CACHE_NONE}, {@link #CACHE_SIDECAR} or cache directory. */
+	String cacheLocation = CACHE_SIDECAR;
+
+	/** Source of frame timestamps. */
+	IndexMode indexMode = IndexMode.AUTO;
+
+	/** Number of parallel ffprobe processes, each indexing a segment of video. */
+	int workers = Runtime.getRuntime().availableProcessors();
+
+	public enum IndexMode
+	{
+		/** Reads container metadata natively if supported, detects constant frame rate, otherwise falls back to frames. */
+		AUTO,
+		/** Decodes all frames, reading their best effort timestamps. */
+		FRAMES,
+		/** Only demuxes, reading packet presentation timestamps. */
+		PACKETS,
+	}
+}
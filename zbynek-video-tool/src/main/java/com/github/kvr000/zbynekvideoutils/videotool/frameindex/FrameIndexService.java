@@ -0,0 +1,162 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+
+/**
+ * Provides frame index for video, either from cache or by building it.
+ */
+@Log4j2
+@RequiredArgsConstructor(onConstructor = @__(@Inject))
+public class FrameIndexService
+{
+	/** Minimal number of frames for which in-memory index is compressed. */
+	private static final int COMPRESS_MIN_FRAMES = 65536;
+
+	private final FfprobeFrameIndexer frameIndexer;
+
+	private final FrameIndexCache frameIndexCache;
+
+	private final Mp4FrameIndexReader mp4FrameIndexReader;
+
+	private final MatroskaFrameIndexReader matroskaFrameIndexReader;
+
+	/**
+	 * Obtains frame index for video, reusing cached one if still valid.
+	 *
+	 * @param video
+	 * 	video file
+	 * @param config
+	 * 	frame index configuration
+	 *
+	 * @return
+	 * 	frame index
+	 */
+	public FrameIndex obtainIndex(Path video, FrameIndexConfig config) throws IOException
+	{
+		FrameIndex cached = frameIndexCache.load(video, config);
+		if (cached != null) {
+			log.debug("Using cached frame index: file={} frames={}", video, cached.size());
+			return cached;
+		}
+		FrameIndex index = null;
+		if (config.getIndexMode() == FrameIndexConfig.IndexMode.AUTO) {
+			index = readNativeIndex(video);
+			if (index == null) {
+				// cheap to detect again, not cached:
+				FrameIndex constantRate = frameIndexer.detectConstantRate(video);
+				if (constantRate != null) {
+					return constantRate;
+				}
+			}
+		}
+		if (index == null) {
+			index = frameIndexer.buildIndex(video, config);
+		}
+		index = compact(index);
+		frameIndexCache.store(video, config, index);
+		return index;
+	}
+
+	/**
+	 * Obtains frame time lookup for video, reading only the parts of video needed for the lookups when there is no
+	 * cheaper full index.
+	 *
+	 * @param video
+	 * 	video file
+	 * @param config
+	 * 	frame index configuration
+	 *
+	 * @return
+	 * 	frame time lookup
+	 */
+	public FrameTimeLookup obtainTimeLookup(Path video, FrameIndexConfig config) throws IOException
+	{
+		FrameIndex cached = frameIndexCache.load(video, config);
+		if (cached != null) {
+			log.debug("Using cached frame index: file={} frames={}", video, cached.size());
+			return cached;
+		}
+		if (config.getIndexMode() == FrameIndexConfig.IndexMode.AUTO) {
+			FrameIndex index = readNativeIndex(video);
+			if (index != null) {
+				index = compact(index);
+				frameIndexCache.store(video, config, index);
+				return index;
+			}
+			FrameIndex constantRate = frameIndexer.detectConstantRate(video);
+			if (constantRate != null) {
+				return constantRate;
+			}
+		}
+		log.info("Using lazy frame index: file={}", video);
+		return frameIndexer.createLazyIndex(video, config);
+	}
+
+	/**
+	 * Compresses large index, so it takes less memory while kept resident.
+	 */
+	private FrameIndex compact(FrameIndex index)
+	{
+		if (index.size() < COMPRESS_MIN_FRAMES) {
+			return index;
+		}
+		CompressedFrameIndex compressed = CompressedFrameIndex.compress(index);
+		log.debug("Compressed frame index: frames={} bytes={}", index.size(), compressed.getData().remaining());
+		return compressed;
+	}
+
+	/**
+	 * Reads frame index from container metadata.
+	 *
+	 * @return
+	 * 	frame index or null if the container is not supported or cannot be read
+	 */
+	private FrameIndex readNativeIndex(Path video) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(video, StandardOpenOption.READ)) {
+			for (NativeFrameIndexReader reader: List.of(mp4FrameIndexReader, matroskaFrameIndexReader)) {
+				ArrayFrameIndex index;
+				try {
+					index = reader.readIndex(channel);
+				}
+				catch (RuntimeException ex) {
+					// corrupt container, ffprobe may still cope with it:
+					log.warn("Failed to read frame index from container: file={} reader={} error={}", video, reader.getClass().getSimpleName(), ex.toString());
+					continue;
+				}
+				if (index != null) {
+					log.info("Read frame index from container: file={} reader={} frames={}", video, reader.getClass().getSimpleName(), index.size());
+					return index;
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+
+/**
+ * Lookup of frame presentation times, snapping arbitrary times to frame boundaries.
+ *
+ * Unlike {@link FrameIndex}, it does not require knowing all frames of the video, so it can be resolved lazily.
+ */
+public interface FrameTimeLookup
+{
+	/** Returned when no frame matches the lookup. */
+	long NO_TIME = Long.MIN_VALUE;
+
+	/**
+	 * Finds time of the lowest frame with time greater or equal to requested time.
+	 *
+	 * @param timeUs
+	 * 	time in microseconds
+	 *
+	 * @return
+	 * 	frame time in microseconds or {@link #NO_TIME} if the time is past the last frame
+	 */
+	long ceilingFrameTime(long timeUs);
+
+	/**
+	 * Finds time of the highest frame with time lower or equal to requested time.
+	 *
+	 * @param timeUs
+	 * 	time in microseconds
+	 *
+	 * @return
+	 * 	frame time in microseconds or {@link #NO_TIME} if the time is before the first frame
+	 */
+	long floorFrameTime(long timeUs);
+
+	/**
+	 * Announces times which are going to be looked up, so they can be resolved together.
+	 *
+	 * @param timesUs
+	 * 	times in microseconds, in any order
+	 */
+	default void prefetch(long[] timesUs)
+	{
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import java.nio.LongBuffer;
+
+
+/**
+ * Batch lookups of frames by times over sorted frame times.
+ *
+ * Sorted queries are resolved by single merge pass, galloping over the frames when the queries are sparse.  Unsorted
+ * queries are resolved by binary search over Eytzinger (breadth first) layout of the frame times, which keeps the
+ * top levels of the search tree in few cache lines.
+ */
+final class FrameTimeSearch
+{
+	/** Minimal number of unsorted queries for which Eytzinger layout is built, relative to number of frames. */
+	private static final int EYTZINGER_FRAMES_PER_QUERY = 16;
+
+	private FrameTimeSearch()
+	{
+	}
+
+	/**
+	 * Finds the lowest frames with time greater or equal to requested times.
+	 *
+	 * @param times
+	 * 	sorted frame times, starting at index zero
+	 * @param size
+	 * 	number of frames
+	 * @param timesUs
+	 * 	requested times
+	 *
+	 * @return
+	 * 	frame ids or {@link FrameIndex#NO_FRAME}, in the order of requested times
+	 */
+	static int[] lowestFramesByTimes(LongBuffer times, int size, long[] timesUs)
+	{
+		int[] frames = new int[timesUs.length];
+		if (isSorted(timesUs)) {
+			mergeLowestFrames(times, size, timesUs, frames);
+		}
+		else if ((long) timesUs.length*EYTZINGER_FRAMES_PER_QUERY >= size) {
+			eytzingerLowestFrames(times, size, timesUs, frames);
+		}
+		else {
+			for (int i = 0; i < timesUs.length; ++i) {
+				frames[i] = lowestFrame(times, size, timesUs[i]);
+			}
+		}
+		return frames;
+	}
+
+	/**
+	 * Finds the lowest frame with time greater or equal to requested time, by binary search.
+	 */
+	static int lowestFrame(LongBuffer times, int size, long timeUs)
+	{
+		if (size == 0 || timeUs > times.get(size-1)) {
+			return FrameIndex.NO_FRAME;
+		}
+		int i = 0;
+		int j = size-1;
+		while (i < j) {
+			int mid = (i+j) >>> 1;
+			if (timeUs > times.get(mid)) {
+				i = mid+1;
+			}
+			else {
+				j = mid;
+			}
+		}
+		return i;
+	}
+
+	private static void mergeLowestFrames(LongBuffer times, int size, long[] timesUs, int[] frames)
+	{
+		int position = 0;
+		for (int i = 0; i < timesUs.length; ++i) {
+			long time = timesUs[i];
+			if (position < size && times.get(position) < time) {
+				// gallop until passing the time, keeping times[low] < time <= times[high]:
+				int low = position;
+				int high = position+1;
+				for (int step = 1; high < size && times.get(high) < time; step <<= 1) {
+					low = high;
+					high = (int) Math.min(size, (long) low+step);
+				}
+				while (high-low > 1) {
+					int mid = (low+high) >>> 1;
+					if (times.get(mid) < time) {
+						low = mid;
+					}
+					else {
+						high = mid;
+					}
+				}
+				position = high;
+			}
+			frames[i] = position < size ? position : FrameIndex.NO_FRAME;
+		}
+	}
+
+	private static void eytzingerLowestFrames(LongBuffer times, int size, long[] timesUs, int[] frames)
+	{
+		long[] layout = new long[size+1];
+		int[] ids = new int[size+1];
+		buildEytzinger(times, size, layout, ids, 0, 1);
+		for (int i = 0; i < timesUs.length; ++i) {
+			long time = timesUs[i];
+			int k = 1;
+			while (k <= size) {
+				k = 2*k+(layout[k] < time ? 1 : 0);
+			}
+			// strip the right turns taken after the last left turn, which was the answer:
+			k >>>= Integer.numberOfTrailingZeros(~k)+1;
+			frames[i] = k == 0 ? FrameIndex.NO_FRAME : ids[k];
+		}
+	}
+
+	/**
+	 * Fills Eytzinger layout by in-order traversal of the implicit tree.
+	 *
+	 * @return
+	 * 	next frame id to be placed
+	 */
+	private static int buildEytzinger(LongBuffer times, int size, long[] layout, int[] ids, int id, int k)
+	{
+		if (k <= size) {
+			id = buildEytzinger(times, size, layout, ids, id, 2*k);
+			layout[k] = times.get(id);
+			ids[k] = id++;
+			id = buildEytzinger(times, size, layout, ids, id, 2*k+1);
+		}
+		return id;
+	}
+
+	static boolean isSorted(long[] values)
+	{
+		for (int i = 1; i < values.length; ++i) {
+			if (values[i] < values[i-1]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
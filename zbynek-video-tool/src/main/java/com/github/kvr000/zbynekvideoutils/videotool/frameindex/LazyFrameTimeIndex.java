@@ -0,0 +1,288 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import com.github.kvr000.zbynekvideoutils.videotool.util.Rational;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Frame time lookup resolving only windows of video around looked up times, via ffprobe read intervals.
+ *
+ * Resolved windows are kept and reused by subsequent lookups, so a short subtitle file against a long video reads only
+ * a small fraction of it.  When a window does not contain the requested frame, the lookup continues with adjacent
+ * window of doubled length.  Lookups are synchronized, failures of ffprobe are thrown as {@link UncheckedIOException}.
+ */
+@Log4j2
+public class LazyFrameTimeIndex implements FrameTimeLookup
+{
+	/** Length of window resolved for single lookup. */
+	private static final long WINDOW_US = 10_000_000L;
+
+	/** Length of window resolved before prefetched time, for floor lookups. */
+	private static final long PREFETCH_BEFORE_US = 2_000_000L;
+
+	/** Number of window length doublings after which the rest of video is read. */
+	private static final int MAX_WINDOW_DOUBLINGS = 8;
+
+	private final FfprobeFrameIndexer frameIndexer;
+
+	private final Path video;
+
+	private final Rational timeBase;
+
+	private final long durationUs;
+
+	private final int workers;
+
+	/** Resolved windows, disjoint, keyed by their start. */
+	private final TreeMap<Long, Window> windows = new TreeMap<>();
+
+	private boolean packets;
+
+	/**
+	 * Creates the index.
+	 *
+	 * @param frameIndexer
+	 * 	indexer reading the windows
+	 * @param video
+	 * 	video file
+	 * @param timeBase
+	 * 	time base of video stream
+	 * @param durationUs
+	 * 	duration of video, {@link Long#MAX_VALUE} if unknown
+	 * @param config
+	 * 	frame index configuration
+	 */
+	public LazyFrameTimeIndex(FfprobeFrameIndexer frameIndexer, Path video, Rational timeBase, long durationUs, FrameIndexConfig config)
+	{
+		this.frameIndexer = frameIndexer;
+		this.video = video;
+		this.timeBase = timeBase;
+		this.durationUs = durationUs;
+		this.workers = config.getWorkers();
+		this.packets = config.getIndexMode() != FrameIndexConfig.IndexMode.FRAMES;
+	}
+
+	@Override
+	public synchronized long ceilingFrameTime(long timeUs)
+	{
+		long position = timeUs;
+		for (int doubling = 0; ; ++doubling) {
+			Map.Entry<Long, Window> entry = windows.floorEntry(position);
+			Window window = entry == null ? null : entry.getValue();
+			if (window == null || window.to <= position) {
+				long span = doubling >= MAX_WINDOW_DOUBLINGS ? Long.MAX_VALUE : WINDOW_US<<doubling;
+				Map.Entry<Long, Window> next = windows.higherEntry(position);
+				window = resolveWindow(position, Math.min(saturatedAdd(position, span), next == null ? Long.MAX_VALUE : next.getKey()));
+			}
+			int frame = window.index.lowestFrameByTime(position);
+			if (frame != FrameIndex.NO_FRAME) {
+				return window.index.frameTime(frame);
+			}
+			if (window.to == Long.MAX_VALUE) {
+				return NO_TIME;
+			}
+			position = window.to;
+		}
+	}
+
+	@Override
+	public synchronized long floorFrameTime(long timeUs)
+	{
+		long position = timeUs;
+		for (int doubling = 0; ; ++doubling) {
+			Map.Entry<Long, Window> entry = windows.floorEntry(position);
+			Window window = entry == null ? null : entry.getValue();
+			if (window == null || window.to <= position) {
+				long span = doubling >= MAX_WINDOW_DOUBLINGS ? Long.MAX_VALUE : WINDOW_US<<doubling;
+				window = resolveWindow(Math.max(saturatedAdd(position, -span), window == null ? Long.MIN_VALUE : window.to), saturatedAdd(position, 1));
+			}
+			long time = window.index.floorFrameTime(position);
+			if (time != NO_TIME) {
+				return time;
+			}
+			if (window.from == Long.MIN_VALUE) {
+				return NO_TIME;
+			}
+			position = window.from-1;
+		}
+	}
+
+	@Override
+	public synchronized void prefetch(long[] timesUs)
+	{
+		long[] sorted = timesUs.clone();
+		Arrays.sort(sorted);
+		List<long[]> missing = new ArrayList<>();
+		for (long time: sorted) {
+			addMissing(missing, saturatedAdd(time, -PREFETCH_BEFORE_US), saturatedAdd(time, WINDOW_US));
+		}
+		if (missing.isEmpty()) {
+			return;
+		}
+		log.info("Resolving frame index windows: file={} windows={}", video, missing.size());
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(workers, missing.size()));
+		try {
+			boolean readPackets = packets;
+			List<Future<Window>> futures = new ArrayList<>();
+			for (long[] range: missing) {
+				futures.add(executor.submit(() -> readWindow(range[0], range[1], readPackets)));
+			}
+			for (Future<Window> future: futures) {
+				Window window = future.get();
+				packets &= window.packets;
+				windows.put(window.from, window);
+			}
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new UncheckedIOException(new IOException("Interrupted waiting for ffprobe", ex));
+		}
+		catch (ExecutionException ex) {
+			if (ex.getCause() instanceof UncheckedIOException) {
+				throw (UncheckedIOException) ex.getCause();
+			}
+			throw new UncheckedIOException(new IOException(ex.getCause()));
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Adds parts of range which are not resolved yet, merging with the last missing range if they touch.
+	 */
+	private void addMissing(List<long[]> missing, long from, long to)
+	{
+		from = normalizeFrom(from);
+		to = normalizeTo(to);
+		long position = from;
+		Map.Entry<Long, Window> previous = windows.floorEntry(position);
+		if (previous != null && previous.getValue().to > position) {
+			position = previous.getValue().to;
+		}
+		if (position >= to) {
+			return;
+		}
+		for (Window window: windows.subMap(position, true, to, false).values()) {
+			if (window.from > position) {
+				addMissingRange(missing, position, window.from);
+			}
+			position = Math.max(position, window.to);
+		}
+		if (position < to) {
+			addMissingRange(missing, position, to);
+		}
+	}
+
+	private static void addMissingRange(List<long[]> missing, long from, long to)
+	{
+		long[] last = missing.isEmpty() ? null : missing.get(missing.size()-1);
+		if (last != null && last[1] >= from) {
+			last[1] = Math.max(last[1], to);
+		}
+		else {
+			missing.add(new long[]{ from, to });
+		}
+	}
+
+	/**
+	 * Reads and registers window, the start must not be covered by any resolved window.
+	 */
+	private Window resolveWindow(long from, long to)
+	{
+		// normalized range must not reach the neighbour windows:
+		Map.Entry<Long, Window> previous = windows.floorEntry(from);
+		Map.Entry<Long, Window> next = windows.ceilingEntry(from);
+		from = Math.max(normalizeFrom(from), previous == null ? Long.MIN_VALUE : previous.getValue().to);
+		to = Math.min(normalizeTo(to), next == null ? Long.MAX_VALUE : next.getKey());
+		Window window = readWindow(from, to, packets);
+		packets &= window.packets;
+		windows.put(window.from, window);
+		return window;
+	}
+
+	private Window readWindow(long from, long to, boolean readPackets)
+	{
+		try {
+			ArrayFrameIndex index = new ArrayFrameIndex(256);
+			if (readPackets) {
+				if (frameIndexer.readRange(video, "packet", timeBase, index, from, to) == 0) {
+					return new Window(from, to, index.sort().trim(), true);
+				}
+				log.info("Packets miss presentation timestamps, falling back to frames: file={}", video);
+				index = new ArrayFrameIndex(256);
+			}
+			frameIndexer.readRange(video, "frame", timeBase, index, from, to);
+			return new Window(from, to, index.sort().trim(), false);
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private long normalizeFrom(long from)
+	{
+		return from <= 0 ? Long.MIN_VALUE : from;
+	}
+
+	private long normalizeTo(long to)
+	{
+		return to >= durationUs ? Long.MAX_VALUE : to;
+	}
+
+	private static long saturatedAdd(long a, long b)
+	{
+		long result = a+b;
+		return ((a^result)&(b^result)) < 0 ? (b < 0 ? Long.MIN_VALUE : Long.MAX_VALUE) : result;
+	}
+
+	private static class Window
+	{
+		final long from;
+
+		final long to;
+
+		final ArrayFrameIndex index;
+
+		final boolean packets;
+
+		Window(long from, long to, ArrayFrameIndex index, boolean packets)
+		{
+			this.from = from;
+			this.to = to;
+			this.index = index;
+			this.packets = packets;
+		}
+	}
+}
@@ -0,0 +1,346 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Builds frame index of Matroska/WebM file from block timestamps of the first video track.
+ *
+ * The reader walks Segment, Cluster, SimpleBlock and BlockGroup elements using positional reads of element headers
+ * only, block payloads are skipped without reading.  Laced video blocks are not supported.
+ */
+@Log4j2
+public class MatroskaFrameIndexReader implements NativeFrameIndexReader
+{
+	private static final int EBML = 0x1A45DFA3;
+	private static final int SEGMENT = 0x18538067;
+	private static final int INFO = 0x1549A966;
+	private static final int TIMESTAMP_SCALE = 0x2AD7B1;
+	private static final int TRACKS = 0x1654AE6B;
+	private static final int TRACK_ENTRY = 0xAE;
+	private static final int TRACK_NUMBER = 0xD7;
+	private static final int TRACK_TYPE = 0x83;
+	private static final int CLUSTER = 0x1F43B675;
+	private static final int CLUSTER_TIMESTAMP = 0xE7;
+	private static final int SIMPLE_BLOCK = 0xA3;
+	private static final int BLOCK_GROUP = 0xA0;
+	private static final int BLOCK = 0xA1;
+	private static final int SEEK_HEAD = 0x114D9B74;
+	private static final int CUES = 0x1C53BB6B;
+	private static final int ATTACHMENTS = 0x1941A469;
+	private static final int CHAPTERS = 0x1043A770;
+	private static final int TAGS = 0x1254C367;
+
+	private static final int TRACK_TYPE_VIDEO = 1;
+
+	private static final long UNKNOWN_SIZE = -1;
+
+	@Override
+	public ArrayFrameIndex readIndex(FileChannel channel) throws IOException
+	{
+		Reader reader = new Reader(channel);
+		if (!reader.readHeader(0) || reader.id != EBML) {
+			return null;
+		}
+		long position = reader.dataEnd();
+		for (;;) {
+			if (!reader.readHeader(position)) {
+				return null;
+			}
+			if (reader.id == SEGMENT) {
+				break;
+			}
+			position = reader.dataEnd();
+		}
+		return readSegment(reader, reader.dataStart, reader.dataEnd());
+	}
+
+	private ArrayFrameIndex readSegment(Reader reader, long start, long end) throws IOException
+	{
+		long timestampScale = 1_000_000;
+		long videoTrack = -1;
+		ArrayFrameIndex index = new ArrayFrameIndex();
+		for (long position = start; position < end && reader.readHeader(position); ) {
+			long dataStart = reader.dataStart;
+			long dataEnd = reader.dataEnd();
+			switch (reader.id) {
+			case INFO:
+				long scale = findUnsigned(reader, dataStart, dataEnd, TIMESTAMP_SCALE);
+				if (scale > 0) {
+					timestampScale = scale;
+				}
+				break;
+
+			case TRACKS:
+				videoTrack = findVideoTrack(reader, dataStart, dataEnd);
+				break;
+
+			case CLUSTER:
+				if (videoTrack < 0) {
+					log.debug("Matroska clusters before video track definition not supported by native reader");
+					return null;
+				}
+				dataEnd = readCluster(reader, dataStart, dataEnd, videoTrack, index);
+				if (dataEnd < 0) {
+					return null;
+				}
+				break;
+
+			default:
+				if (reader.size == UNKNOWN_SIZE) {
+					return null;
+				}
+			}
+			position = dataEnd;
+		}
+		if (index.size() == 0) {
+			return null;
+		}
+		long nsPerTick = timestampScale;
+		return index.sort().transform(ticks -> Math.floorDiv(ticks*nsPerTick+500, 1000)).trim();
+	}
+
+	private long findVideoTrack(Reader reader, long start, long end) throws IOException
+	{
+		for (long position = start; position < end && reader.readHeader(position); ) {
+			long dataStart = reader.dataStart;
+			long dataEnd = reader.dataEnd();
+			if (reader.id == TRACK_ENTRY && findUnsigned(reader, dataStart, dataEnd, TRACK_TYPE) == TRACK_TYPE_VIDEO) {
+				return findUnsigned(reader, dataStart, dataEnd, TRACK_NUMBER);
+			}
+			position = dataEnd;
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads cluster block timestamps of the video track.
+	 *
+	 * @return
+	 * 	end of cluster, -1 if the cluster contains unsupported structures
+	 */
+	private long readCluster(Reader reader, long start, long end, long videoTrack, ArrayFrameIndex index) throws IOException
+	{
+		long clusterTimestamp = 0;
+		boolean unknownSize = end == Long.MAX_VALUE;
+		long position = start;
+		while (position < end && reader.readHeader(position)) {
+			long dataStart = reader.dataStart;
+			long dataEnd = reader.dataEnd();
+			switch (reader.id) {
+			case CLUSTER_TIMESTAMP:
+				clusterTimestamp = reader.readUnsigned(dataStart, (int) reader.size);
+				break;
+
+			case SIMPLE_BLOCK:
+				if (!readBlock(reader, dataStart, clusterTimestamp, videoTrack, index)) {
+					return -1;
+				}
+				break;
+
+			case BLOCK_GROUP:
+				for (long child = dataStart; child < dataEnd && reader.readHeader(child); child = reader.dataEnd()) {
+					if (reader.id == BLOCK) {
+						if (!readBlock(reader, reader.dataStart, clusterTimestamp, videoTrack, index)) {
+							return -1;
+						}
+					}
+				}
+				break;
+
+			default:
+				if (unknownSize && isTopLevel(reader.id)) {
+					// cluster of unknown size ends with next top level element:
+					return position;
+				}
+				if (reader.size == UNKNOWN_SIZE) {
+					return -1;
+				}
+			}
+			position = dataEnd;
+		}
+		return position;
+	}
+
+	private boolean readBlock(Reader reader, long start, long clusterTimestamp, long videoTrack, ArrayFrameIndex index) throws IOException
+	{
+		ByteBuffer header = reader.read(start, 12);
+		int p = header.position();
+		int first = header.get(p)&0xff;
+		int length = Integer.numberOfLeadingZeros(first)-23;
+		if (length < 1 || length > 8 || header.remaining() < length+3) {
+			return false;
+		}
+		long track = first&(0xff>>length);
+		for (int i = 1; i < length; ++i) {
+			track = (track<<8)|(header.get(p+i)&0xff);
+		}
+		if (track != videoTrack) {
+			return true;
+		}
+		short relative = header.getShort(p+length);
+		int flags = header.get(p+length+2)&0xff;
+		if ((flags&0x06) != 0) {
+			log.debug("Laced Matroska video blocks not supported by native reader");
+			return false;
+		}
+		index.add(clusterTimestamp+relative);
+		return true;
+	}
+
+	private long findUnsigned(Reader reader, long start, long end, int id) throws IOException
+	{
+		for (long position = start; position < end && reader.readHeader(position); position = reader.dataEnd()) {
+			if (reader.id == id) {
+				return reader.readUnsigned(reader.dataStart, (int) reader.size);
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isTopLevel(int id)
+	{
+		return id == CLUSTER || id == INFO || id == TRACKS || id == CUES || id == SEEK_HEAD ||
+			id == ATTACHMENTS || id == CHAPTERS || id == TAGS || id == SEGMENT || id == EBML;
+	}
+
+	/**
+	 * Reader of element headers, caching small window of file to reduce number of reads.  After skipping larger
+	 * payload only the header is read.  When the position follows shortly after the previous window, where small
+	 * elements such as audio blocks are dense, the window is filled up to the page boundary, not pulling in more
+	 * pages than the system reads anyway.
+	 */
+	private static class Reader
+	{
+		private static final int WINDOW_SIZE = 4096;
+
+		/** Size read after skipping payload, covering element header and block header. */
+		private static final int HEADER_READ_SIZE = 32;
+
+		private final FileChannel channel;
+
+		private final long fileSize;
+
+		private final ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE);
+
+		private long windowStart = -1;
+
+		/** Current element id. */
+		int id;
+
+		/** Current element data size or {@link #UNKNOWN_SIZE}. */
+		long size;
+
+		/** Current element data start. */
+		long dataStart;
+
+		Reader(FileChannel channel) throws IOException
+		{
+			this.channel = channel;
+			this.fileSize = channel.size();
+		}
+
+		/**
+		 * Gets end of current element data, end of file for unknown size.
+		 */
+		long dataEnd()
+		{
+			return size == UNKNOWN_SIZE ? Long.MAX_VALUE : dataStart+size;
+		}
+
+		/**
+		 * Reads element header.
+		 *
+		 * @return
+		 * 	true if the header was read, false on end of file or invalid header
+		 */
+		boolean readHeader(long position) throws IOException
+		{
+			if (position >= fileSize) {
+				return false;
+			}
+			ByteBuffer buffer = read(position, 12);
+			int p = buffer.position();
+			int available = buffer.remaining();
+			int first = buffer.get(p)&0xff;
+			int idLength = Integer.numberOfLeadingZeros(first)-23;
+			if (idLength < 1 || idLength > 4 || available < idLength+1) {
+				return false;
+			}
+			int id = first;
+			for (int i = 1; i < idLength; ++i) {
+				id = (id<<8)|(buffer.get(p+i)&0xff);
+			}
+			int sizeFirst = buffer.get(p+idLength)&0xff;
+			int sizeLength = Integer.numberOfLeadingZeros(sizeFirst)-23;
+			if (sizeLength < 1 || sizeLength > 8 || available < idLength+sizeLength) {
+				return false;
+			}
+			long mask = (1L<<(7*sizeLength))-1;
+			long size = sizeFirst&(0xff>>sizeLength);
+			for (int i = 1; i < sizeLength; ++i) {
+				size = (size<<8)|(buffer.get(p+idLength+i)&0xff);
+			}
+			this.id = id;
+			this.size = size == mask ? UNKNOWN_SIZE : size;
+			this.dataStart = position+idLength+sizeLength;
+			return true;
+		}
+
+		long readUnsigned(long position, int length) throws IOException
+		{
+			if (length > 8) {
+				return -1;
+			}
+			ByteBuffer buffer = read(position, length);
+			long value = 0;
+			for (int i = 0; i < length; ++i) {
+				value = (value<<8)|(buffer.get(buffer.position()+i)&0xff);
+			}
+			return value;
+		}
+
+		/**
+		 * Gets buffer containing up to length bytes at position, starting at buffer position.
+		 */
+		ByteBuffer read(long position, int length) throws IOException
+		{
+			if (windowStart < 0 || position < windowStart || position+length > windowStart+window.limit()) {
+				boolean dense = windowStart >= 0 && position >= windowStart && position < windowStart+window.limit()+WINDOW_SIZE;
+				int pageRemaining = WINDOW_SIZE-(int) (position%WINDOW_SIZE);
+				window.clear().limit(Math.max(length, dense ? Math.max(pageRemaining, HEADER_READ_SIZE) : HEADER_READ_SIZE));
+				while (window.hasRemaining()) {
+					if (channel.read(window, position+window.position()) < 0) {
+						break;
+					}
+				}
+				window.flip();
+				windowStart = position;
+			}
+			window.position((int) (position-windowStart));
+			return window;
+		}
+	}
+}
@@ -0,0 +1,326 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import com.github.kvr000.zbynekvideoutils.videotool.util.Rational;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Builds frame index of MP4/MOV (ISO-BMFF) file from sample tables of the first video track.
+ *
+ * Only the top level box headers and the moov box are read, the moov box being memory mapped.  Decode times come
+ * from stts, composition offsets from ctts and the presentation start is adjusted according to elst, the same way
+ * ffmpeg does.  Fragmented files and complex edit lists are not supported.  Fields and table entry counts are
+ * checked against their box ends, so corrupt file is reported as not supported instead of failing.
+ */
+@Log4j2
+public class Mp4FrameIndexReader implements NativeFrameIndexReader
+{
+	private static final int FTYP = fourcc("ftyp");
+	private static final int MOOV = fourcc("moov");
+	private static final int MVHD = fourcc("mvhd");
+	private static final int MVEX = fourcc("mvex");
+	private static final int TRAK = fourcc("trak");
+	private static final int EDTS = fourcc("edts");
+	private static final int ELST = fourcc("elst");
+	private static final int MDIA = fourcc("mdia");
+	private static final int MDHD = fourcc("mdhd");
+	private static final int HDLR = fourcc("hdlr");
+	private static final int MINF = fourcc("minf");
+	private static final int STBL = fourcc("stbl");
+	private static final int STTS = fourcc("stts");
+	private static final int CTTS = fourcc("ctts");
+	private static final int VIDE = fourcc("vide");
+
+	/** Maximum size of moov box which is mapped. */
+	private static final long MAX_MOOV_SIZE = 1L<<30;
+
+	@Override
+	public ArrayFrameIndex readIndex(FileChannel channel) throws IOException
+	{
+		long fileSize = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(16);
+		boolean first = true;
+		for (long position = 0; position+8 <= fileSize; ) {
+			header.clear();
+			readFully(channel, header, position);
+			int type = header.getInt(4);
+			long size = Integer.toUnsignedLong(header.getInt(0));
+			int headerSize = 8;
+			if (size == 1) {
+				if (header.limit() < 16) {
+					return null;
+				}
+				size = header.getLong(8);
+				headerSize = 16;
+			}
+			else if (size == 0) {
+				size = fileSize-position;
+			}
+			if (first && !isKnownTopLevel(type)) {
+				return null;
+			}
+			first = false;
+			if (size < headerSize || size > fileSize-position) {
+				return null;
+			}
+			if (type == MOOV) {
+				if (size > MAX_MOOV_SIZE) {
+					return null;
+				}
+				ByteBuffer moov = channel.map(FileChannel.MapMode.READ_ONLY, position+headerSize, size-headerSize);
+				return readMoov(moov, fileSize);
+			}
+			position += size;
+		}
+		return null;
+	}
+
+	private ArrayFrameIndex readMoov(ByteBuffer moov, long fileSize)
+	{
+		int limit = moov.limit();
+		if (findBox(moov, 0, limit, MVEX) >= 0) {
+			log.debug("Fragmented MP4 not supported by native reader");
+			return null;
+		}
+		int mvhd = findBox(moov, 0, limit, MVHD);
+		if (mvhd < 0) {
+			return null;
+		}
+		int mvhdTimescale = fits(moov, mvhd, 0, 1) ? (moov.get(payload(moov, mvhd)) == 1 ? 20 : 12) : -1;
+		if (mvhdTimescale < 0 || !fits(moov, mvhd, mvhdTimescale, 4)) {
+			return null;
+		}
+		long movieTimescale = Integer.toUnsignedLong(moov.getInt(payload(moov, mvhd)+mvhdTimescale));
+
+		for (int trak = findBox(moov, 0, limit, TRAK); trak >= 0; trak = findBox(moov, end(moov, trak), limit, TRAK)) {
+			int mdia = findPath(moov, trak, MDIA);
+			if (mdia < 0) {
+				continue;
+			}
+			int hdlr = findPath(moov, mdia, HDLR);
+			if (hdlr < 0 || !fits(moov, hdlr, 8, 4) || moov.getInt(payload(moov, hdlr)+8) != VIDE) {
+				continue;
+			}
+			int mdhd = findPath(moov, mdia, MDHD);
+			int stbl = findPath(moov, mdia, MINF, STBL);
+			if (mdhd < 0 || stbl < 0) {
+				return null;
+			}
+			int mdhdTimescale = fits(moov, mdhd, 0, 1) ? (moov.get(payload(moov, mdhd)) == 1 ? 20 : 12) : -1;
+			if (mdhdTimescale < 0 || !fits(moov, mdhd, mdhdTimescale, 4)) {
+				return null;
+			}
+			long timescale = Integer.toUnsignedLong(moov.getInt(payload(moov, mdhd)+mdhdTimescale));
+			return readTrack(moov, trak, stbl, timescale, movieTimescale, fileSize);
+		}
+		return null;
+	}
+
+	private ArrayFrameIndex readTrack(ByteBuffer moov, int trak, int stbl, long timescale, long movieTimescale, long fileSize)
+	{
+		int stts = findPath(moov, stbl, STTS);
+		int ctts = findPath(moov, stbl, CTTS);
+		if (stts < 0 || timescale == 0 || movieTimescale == 0) {
+			return null;
+		}
+		Rational timeBase = new Rational(1, timescale);
+
+		// edit list, only leading empty edits and single media edit are supported:
+		long emptyDuration = 0;
+		long mediaTime = 0;
+		long mediaDuration = 0;
+		int elst = findPath(moov, trak, EDTS, ELST);
+		if (elst >= 0) {
+			if (!fits(moov, elst, 0, 8)) {
+				return null;
+			}
+			int elstPayload = payload(moov, elst);
+			boolean v1 = moov.get(elstPayload) == 1;
+			long count = Integer.toUnsignedLong(moov.getInt(elstPayload+4));
+			if (!fits(moov, elst, 8, count*(v1 ? 20 : 12))) {
+				return null;
+			}
+			int entry = elstPayload+8;
+			int mediaEdits = 0;
+			for (int i = 0; i < count; ++i) {
+				long segmentDuration = v1 ? moov.getLong(entry) : Integer.toUnsignedLong(moov.getInt(entry));
+				long time = v1 ? moov.getLong(entry+8) : moov.getInt(entry+4);
+				int rate = moov.getShort(entry+(v1 ? 16 : 8));
+				entry += v1 ? 20 : 12;
+				if (time == -1) {
+					if (mediaEdits != 0) {
+						return null;
+					}
+					emptyDuration += segmentDuration;
+				}
+				else {
+					if (++mediaEdits > 1 || rate != 1) {
+						return null;
+					}
+					mediaTime = time;
+					mediaDuration = Math.floorDiv(segmentDuration*timescale, movieTimescale);
+				}
+			}
+		}
+		long presentationStart = Math.floorDiv(emptyDuration*timescale, movieTimescale);
+		long presentationEnd = mediaDuration == 0 ? Long.MAX_VALUE : presentationStart+mediaDuration;
+
+		if (!fits(moov, stts, 0, 8) || (ctts >= 0 && !fits(moov, ctts, 0, 8))) {
+			return null;
+		}
+		int sttsPayload = payload(moov, stts);
+		long sttsCount = Integer.toUnsignedLong(moov.getInt(sttsPayload+4));
+		long cttsCount = ctts < 0 ? 0 : Integer.toUnsignedLong(moov.getInt(payload(moov, ctts)+4));
+		if (!fits(moov, stts, 8, sttsCount*8) || (ctts >= 0 && !fits(moov, ctts, 8, cttsCount*8))) {
+			return null;
+		}
+		long samples = 0;
+		for (int i = 0; i < sttsCount; ++i) {
+			samples += Integer.toUnsignedLong(moov.getInt(sttsPayload+8+i*8));
+		}
+		// each sample takes at least a byte of the file, so corrupt counts are not allocated:
+		if (samples >= Integer.MAX_VALUE || samples > fileSize) {
+			return null;
+		}
+		int cttsEntry = ctts < 0 ? 0 : payload(moov, ctts)+8;
+		int cttsRemaining = 0;
+		int cttsOffset = 0;
+		long dts = 0;
+		ArrayFrameIndex index = new ArrayFrameIndex();
+		for (int i = 0, sttsEntry = sttsPayload+8; i < sttsCount; ++i, sttsEntry += 8) {
+			long count = Integer.toUnsignedLong(moov.getInt(sttsEntry));
+			long delta = Integer.toUnsignedLong(moov.getInt(sttsEntry+4));
+			for (long j = 0; j < count; ++j) {
+				if (cttsRemaining == 0 && cttsCount > 0) {
+					cttsRemaining = moov.getInt(cttsEntry);
+					cttsOffset = moov.getInt(cttsEntry+4);
+					cttsEntry += 8;
+					--cttsCount;
+				}
+				--cttsRemaining;
+				long pts = dts+cttsOffset-mediaTime+presentationStart;
+				if (elst < 0 || (pts >= presentationStart && pts < presentationEnd)) {
+					index.add(timeBase.ticksToUs(pts));
+				}
+				dts += delta;
+			}
+		}
+		if (index.size() == 0) {
+			return null;
+		}
+		return index.sort().trim();
+	}
+
+	private static boolean isKnownTopLevel(int type)
+	{
+		return type == FTYP || type == MOOV || type == fourcc("free") || type == fourcc("skip") ||
+			type == fourcc("wide") || type == fourcc("mdat") || type == fourcc("pnot");
+	}
+
+	/**
+	 * Finds box by path of nested box types.
+	 *
+	 * @return
+	 * 	position of box header or -1 if not found
+	 */
+	private static int findPath(ByteBuffer buffer, int box, int... types)
+	{
+		for (int type: types) {
+			box = findBox(buffer, payload(buffer, box), end(buffer, box), type);
+			if (box < 0) {
+				return -1;
+			}
+		}
+		return box;
+	}
+
+	/**
+	 * Finds first box of given type within the range.
+	 *
+	 * @return
+	 * 	position of box header or -1 if not found
+	 */
+	private static int findBox(ByteBuffer buffer, int start, int end, int type)
+	{
+		for (int position = start; position+8 <= end; ) {
+			int boxEnd = end(buffer, position);
+			if (boxEnd < position+8 || boxEnd > end) {
+				return -1;
+			}
+			if (buffer.getInt(position+4) == type) {
+				return position;
+			}
+			position = boxEnd;
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks whether the range relative to box payload lies within the box.
+	 */
+	private static boolean fits(ByteBuffer buffer, int box, long offset, long length)
+	{
+		int end = end(buffer, box);
+		return end >= 0 && payload(buffer, box)+offset+length <= end;
+	}
+
+	/**
+	 * Gets position of box payload, skipping the header.
+	 */
+	private static int payload(ByteBuffer buffer, int box)
+	{
+		return box+(buffer.getInt(box) == 1 ? 16 : 8);
+	}
+
+	/**
+	 * Gets end position of box, -1 if the size does not fit.
+	 */
+	private static int end(ByteBuffer buffer, int box)
+	{
+		long size = Integer.toUnsignedLong(buffer.getInt(box));
+		if (size == 1) {
+			size = box+16 <= buffer.limit() ? buffer.getLong(box+8) : -1;
+		}
+		else if (size == 0) {
+			return buffer.limit();
+		}
+		return size < 8 || size > buffer.limit()-box ? -1 : (int) (box+size);
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position+buffer.position()) < 0) {
+				break;
+			}
+		}
+		buffer.flip();
+	}
+
+	private static int fourcc(String name)
+	{
+		return (name.charAt(0)<<24)|(name.charAt(1)<<16)|(name.charAt(2)<<8)|name.charAt(3);
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Reader of Advanced SubStation Alpha (ass) and SubStation Alpha (ssa) subtitles.
+ *
+ * Only Dialogue lines of the Events section are read, the field positions come from its Format line.  The section
+ * and Format are carried across chunks by {@link #newStreamReader() stream reader}, the shared instance expects
+ * chunks after the first one to be within the Events section, using the standard Format of ten fields with Start and
+ * End being the second and third, unless they contain their own Format line.  Within the text, \N and \n break
+ * lines and \h is a space, override blocks are removed except the italic, bold and underline switches, which are
+ * converted to i, b and u tags.
+ */
+public class AssSubtitleReader implements SubtitleReader
+{
+	private static final ByteBuffer SPACE = constant(" ");
+
+	private static final ByteBuffer[] TAGS = {
+		constant("</i>"), constant("<i>"),
+		constant("</b>"), constant("<b>"),
+		constant("</u>"), constant("<u>"),
+	};
+
+	/** State of stream, null for the shared stateless instance. */
+	private final Layout layout;
+
+	public AssSubtitleReader()
+	{
+		this(null);
+	}
+
+	private AssSubtitleReader(Layout layout)
+	{
+		this.layout = layout;
+	}
+
+	@Override
+	public SubtitleReader newStreamReader()
+	{
+		return new AssSubtitleReader(new Layout());
+	}
+
+	@Override
+	public void readChunk(ByteBuffer buffer, SubtitleSink sink, boolean first) throws IOException
+	{
+		Layout layout = this.layout != null ? this.layout : new Layout();
+		if (first) {
+			layout.events = false;
+		}
+		new Scanner(buffer, first ? SubtitleReader.skipBom(buffer) : buffer.position(), layout).read(sink);
+	}
+
+	private static ByteBuffer constant(String value)
+	{
+		return ByteBuffer.wrap(value.getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Current section and Events field layout, carried across chunks.
+	 */
+	private static class Layout
+	{
+		boolean events = true;
+
+		int startField = 1;
+
+		int endField = 2;
+
+		int fieldCount = 10;
+	}
+
+	private static class Scanner extends LineScanner
+	{
+		private final Layout layout;
+
+		Scanner(ByteBuffer buffer, int position, Layout layout)
+		{
+			super(buffer, position);
+			this.layout = layout;
+		}
+
+		void read(SubtitleSink sink) throws IOException
+		{
+			while (nextLine()) {
+				skipSpaces();
+				if (position == lineEnd) {
+					continue;
+				}
+				if (buffer.get(position) == '[') {
+					layout.events = startsWith(position, "[Events]");
+				}
+				else if (layout.events && skipKey("Format:")) {
+					readFormat();
+				}
+				else if (layout.events && skipKey("Dialogue:")) {
+					readDialogue(sink);
+				}
+			}
+		}
+
+		private boolean skipKey(String key)
+		{
+			if (!startsWith(position, key)) {
+				return false;
+			}
+			position += key.length();
+			skipSpaces();
+			return true;
+		}
+
+		private void readFormat()
+		{
+			int start = -1;
+			int end = -1;
+			int count = 0;
+			for (int p = position; p <= lineEnd; ++count) {
+				int fieldEnd = find(p, (byte) ',');
+				while (p < fieldEnd && buffer.get(p) == ' ') {
+					++p;
+				}
+				int nameEnd = fieldEnd;
+				while (nameEnd > p && buffer.get(nameEnd-1) == ' ') {
+					--nameEnd;
+				}
+				if (nameEnd-p == 5 && startsWith(p, "Start")) {
+					start = count;
+				}
+				else if (nameEnd-p == 3 && startsWith(p, "End")) {
+					end = count;
+				}
+				p = fieldEnd+1;
+			}
+			if (start < 0 || end < 0) {
+				// styles format, when the chunk does not start in the Events section:
+				return;
+			}
+			layout.startField = start;
+			layout.endField = end;
+			layout.fieldCount = count;
+		}
+
+		private void readDialogue(SubtitleSink sink) throws IOException
+		{
+			long start = NO_TIME;
+			long end = NO_TIME;
+			int p = position;
+			for (int field = 0; field < layout.fieldCount-1; ++field) {
+				int fieldEnd = find(p, (byte) ',');
+				if (fieldEnd == lineEnd) {
+					throw new IOException("Expected "+layout.fieldCount+" fields in ass Dialogue at line "+lineNumber);
+				}
+				if (field == layout.startField || field == layout.endField) {
+					position = p;
+					skipSpaces();
+					long time = parseTime(fieldEnd);
+					if (time == NO_TIME) {
+						throw new IOException("Expected time in ass Dialogue at line "+lineNumber);
+					}
+					if (field == layout.startField) {
+						start = time;
+					}
+					else {
+						end = time;
+					}
+				}
+				p = fieldEnd+1;
+			}
+			sink.startEntry(RangeType.TIME, start, end);
+			readText(sink, p);
+		}
+
+		/**
+		 * Passes text, splitting lines and converting override blocks.
+		 */
+		private void readText(SubtitleSink sink, int p)
+		{
+			sink.addLine(buffer, p, p);
+			int span = p;
+			while (p < lineEnd) {
+				byte c = buffer.get(p);
+				if (c == '\\' && p+1 < lineEnd && (buffer.get(p+1) == 'N' || buffer.get(p+1) == 'n' || buffer.get(p+1) == 'h')) {
+					sink.appendLine(buffer, span, p);
+					if (buffer.get(p+1) == 'h') {
+						sink.appendLine(SPACE, 0, 1);
+					}
+					else {
+						sink.addLine(buffer, p, p);
+					}
+					p += 2;
+					span = p;
+				}
+				else if (c == '{') {
+					int close = find(p, (byte) '}');
+					if (close == lineEnd) {
+						++p;
+						continue;
+					}
+					sink.appendLine(buffer, span, p);
+					readOverride(sink, p+1, close);
+					p = close+1;
+					span = p;
+				}
+				else {
+					++p;
+				}
+			}
+			sink.appendLine(buffer, span, lineEnd);
+		}
+
+		/**
+		 * Converts italic, bold and underline switches of override block to tags, ignoring everything else.
+		 */
+		private void readOverride(SubtitleSink sink, int p, int end)
+		{
+			for (; p+2 < end; ++p) {
+				if (buffer.get(p) != '\\') {
+					continue;
+				}
+				int tag;
+				switch (buffer.get(p+1)) {
+				case 'i':
+					tag = 0;
+					break;
+				case 'b':
+					tag = 2;
+					break;
+				case 'u':
+					tag = 4;
+					break;
+				default:
+					continue;
+				}
+				int digits = p+2;
+				while (digits < end && buffer.get(digits) >= '0' && buffer.get(digits) <= '9') {
+					++digits;
+				}
+				if (digits == p+2 || (digits < end && buffer.get(digits) != '\\')) {
+					continue;
+				}
+				// \b may carry font weight, anything non-zero is bold:
+				boolean on = false;
+				for (int d = p+2; d < digits; ++d) {
+					on |= buffer.get(d) != '0';
+				}
+				ByteBuffer constant = TAGS[tag+(on ? 1 : 0)];
+				sink.appendLine(constant, 0, constant.limit());
+			}
+		}
+	}
+}
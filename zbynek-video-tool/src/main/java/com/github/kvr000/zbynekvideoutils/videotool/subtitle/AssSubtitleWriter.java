@@ -0,0 +1,152 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Writer of Advanced SubStation Alpha (ass) or SubStation Alpha (ssa) subtitles, with single Default style.
+ *
+ * Times are truncated to centiseconds, negative times are written as zero.  Lines are joined by \N, the i, b and u
+ * tags are converted to override switches.
+ */
+public class AssSubtitleWriter implements SubtitleWriter
+{
+	private static final byte[] ASS_HEADER = (
+		"[Script Info]\n" +
+		"ScriptType: v4.00+\n" +
+		"WrapStyle: 0\n" +
+		"ScaledBorderAndShadow: yes\n" +
+		"PlayResX: 384\n" +
+		"PlayResY: 288\n" +
+		"\n" +
+		"[V4+ Styles]\n" +
+		"Format: Name, Fontname, Fontsize, PrimaryColour, SecondaryColour, OutlineColour, BackColour, Bold, Italic, Underline, StrikeOut, ScaleX, ScaleY, Spacing, Angle, BorderStyle, Outline, Shadow, Alignment, MarginL, MarginR, MarginV, Encoding\n" +
+		"Style: Default,Arial,16,&Hffffff,&Hffffff,&H0,&H0,0,0,0,0,100,100,0,0,1,1,0,2,10,10,10,0\n" +
+		"\n" +
+		"[Events]\n" +
+		"Format: Layer, Start, End, Style, Name, MarginL, MarginR, MarginV, Effect, Text\n"
+	).getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] SSA_HEADER = (
+		"[Script Info]\n" +
+		"ScriptType: v4.00\n" +
+		"PlayResX: 384\n" +
+		"PlayResY: 288\n" +
+		"\n" +
+		"[V4 Styles]\n" +
+		"Format: Name, Fontname, Fontsize, PrimaryColour, SecondaryColour, TertiaryColour, BackColour, Bold, Italic, BorderStyle, Outline, Shadow, Alignment, MarginL, MarginR, MarginV, AlphaLevel, Encoding\n" +
+		"Style: Default,Arial,16,16777215,16777215,16777215,0,0,0,1,1,0,2,10,10,10,0,0\n" +
+		"\n" +
+		"[Events]\n" +
+		"Format: Marked, Start, End, Style, Name, MarginL, MarginR, MarginV, Effect, Text\n"
+	).getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] ASS_DIALOGUE = "Dialogue: 0,".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] SSA_DIALOGUE = "Dialogue: Marked=0,".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] STYLE = ",Default,,0,0,0,,".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] LINE_BREAK = "\\N".getBytes(StandardCharsets.US_ASCII);
+
+	private final boolean ssa;
+
+	/**
+	 * Creates the writer.
+	 *
+	 * @param ssa
+	 * 	whether to write SubStation Alpha v4 instead of Advanced SubStation Alpha
+	 */
+	public AssSubtitleWriter(boolean ssa)
+	{
+		this.ssa = ssa;
+	}
+
+	@Override
+	public void writeHeader(SubtitleOutput output) throws IOException
+	{
+		output.write(ssa ? SSA_HEADER : ASS_HEADER);
+	}
+
+	@Override
+	public void writeChunk(Subtitles subtitles, long firstEntry, SubtitleOutput output) throws IOException
+	{
+		if (subtitles.getRangeType() != RangeType.TIME) {
+			throw new IllegalArgumentException((ssa ? "ssa" : "ass")+" requires subtitles in time range type, got: "+subtitles.getRangeType());
+		}
+		byte[] text = subtitles.text;
+		for (int i = 0; i < subtitles.size(); ++i) {
+			output.write(ssa ? SSA_DIALOGUE : ASS_DIALOGUE);
+			output.writeTime(subtitles.starts[i], 1, (byte) '.', 2);
+			output.write((byte) ',');
+			output.writeTime(subtitles.ends[i], 1, (byte) '.', 2);
+			output.write(STYLE);
+			int span = subtitles.textOffsets[i];
+			int end = subtitles.textOffsets[i+1];
+			for (int p = span; p < end; ) {
+				byte c = text[p];
+				if (c == '\n') {
+					output.write(text, span, p-span);
+					output.write(LINE_BREAK);
+					span = ++p;
+				}
+				else if (c == '<') {
+					int tagEnd = tagEnd(text, p, end);
+					if (tagEnd < 0) {
+						++p;
+						continue;
+					}
+					output.write(text, span, p-span);
+					output.write((byte) '{');
+					output.write((byte) '\\');
+					output.write((byte) (text[tagEnd-2]|0x20));
+					output.write((byte) (text[p+1] == '/' ? '0' : '1'));
+					output.write((byte) '}');
+					span = p = tagEnd;
+				}
+				else {
+					++p;
+				}
+			}
+			output.write(text, span, end-span);
+			output.write((byte) '\n');
+		}
+	}
+
+	/**
+	 * Checks for i, b or u opening or closing tag at position.
+	 *
+	 * @return
+	 * 	position after the tag or -1 if there is no such tag
+	 */
+	private static int tagEnd(byte[] text, int p, int end)
+	{
+		int name = text[p+1 < end ? p+1 : p] == '/' ? p+2 : p+1;
+		if (name+1 >= end || text[name+1] != '>') {
+			return -1;
+		}
+		int c = text[name]|0x20;
+		return c == 'i' || c == 'b' || c == 'u' ? name+2 : -1;
+	}
+}
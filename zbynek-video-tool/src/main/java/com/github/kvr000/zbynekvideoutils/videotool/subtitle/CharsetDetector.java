@@ -0,0 +1,172 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Detector of subtitles charset from bounded prefix of content.
+ *
+ * Byte order mark decides first, then content which is valid UTF-8 is UTF-8, including plain ASCII.  Otherwise the
+ * legacy single byte candidates are scored by their high bytes: decoding to a letter scores, decoding to a control
+ * character or nothing is penalized, as those do not appear in text.  This separates windows-1250, which has
+ * letters in 0x80-0x9f, from ISO-8859-2 having controls there and letters at different positions in 0xa0-0xbf.  Tie
+ * goes to the first candidate.
+ */
+public class CharsetDetector
+{
+	/** Size of prefix which is enough for detection. */
+	public static final int PREFIX_SIZE = 65536;
+
+	public static final Charset WINDOWS_1250 = Charset.forName("windows-1250");
+
+	public static final Charset ISO_8859_2 = Charset.forName("ISO-8859-2");
+
+	private static final Charset[] CANDIDATES = { WINDOWS_1250, ISO_8859_2 };
+
+	/** Scores of high bytes for each candidate. */
+	private static final int[][] SCORES = new int[CANDIDATES.length][];
+
+	static {
+		for (int i = 0; i < CANDIDATES.length; ++i) {
+			CharsetDecoder decoder = CANDIDATES[i].newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+			SCORES[i] = new int[128];
+			for (int b = 0; b < 128; ++b) {
+				int score;
+				try {
+					char c = decoder.reset().decode(ByteBuffer.wrap(new byte[]{ (byte) (b+128) })).get();
+					score = Character.isLetter(c) ? 1 : Character.isISOControl(c) ? -4 : 0;
+				}
+				catch (CharacterCodingException ex) {
+					score = -4;
+				}
+				SCORES[i][b] = score;
+			}
+		}
+	}
+
+	/**
+	 * Detects charset of content.
+	 *
+	 * @param prefix
+	 * 	beginning of content, from position to limit, {@link #PREFIX_SIZE} bytes are enough
+	 *
+	 * @return
+	 * 	detected charset
+	 */
+	public static Charset detect(ByteBuffer prefix)
+	{
+		int start = prefix.position();
+		int end = Math.min(prefix.limit(), start+PREFIX_SIZE);
+		if (end-start >= 3 && (prefix.get(start)&0xff) == 0xef && (prefix.get(start+1)&0xff) == 0xbb && (prefix.get(start+2)&0xff) == 0xbf) {
+			return StandardCharsets.UTF_8;
+		}
+		if (end-start >= 2 && (prefix.get(start)&0xff) == 0xfe && (prefix.get(start+1)&0xff) == 0xff) {
+			return StandardCharsets.UTF_16BE;
+		}
+		if (end-start >= 2 && (prefix.get(start)&0xff) == 0xff && (prefix.get(start+1)&0xff) == 0xfe) {
+			return StandardCharsets.UTF_16LE;
+		}
+		if (isUtf8(prefix, start, end)) {
+			return StandardCharsets.UTF_8;
+		}
+		int best = 0;
+		int bestScore = Integer.MIN_VALUE;
+		for (int i = 0; i < CANDIDATES.length; ++i) {
+			int[] scores = SCORES[i];
+			int score = 0;
+			for (int p = start; p < end; ++p) {
+				int b = prefix.get(p);
+				if (b < 0) {
+					score += scores[b+128];
+				}
+			}
+			if (score > bestScore) {
+				best = i;
+				bestScore = score;
+			}
+		}
+		return CANDIDATES[best];
+	}
+
+	/**
+	 * Checks whether the content is strictly valid UTF-8.  Incomplete sequence at the end is accepted, as the prefix
+	 * may cut it.
+	 */
+	private static boolean isUtf8(ByteBuffer buffer, int start, int end)
+	{
+		for (int p = start; p < end; ) {
+			int b = buffer.get(p)&0xff;
+			if (b < 0x80) {
+				++p;
+				continue;
+			}
+			int length;
+			int min;
+			if (b >= 0xc2 && b <= 0xdf) {
+				length = 2;
+				min = 0x80;
+			}
+			else if (b >= 0xe0 && b <= 0xef) {
+				length = 3;
+				min = 0x800;
+			}
+			else if (b >= 0xf0 && b <= 0xf4) {
+				length = 4;
+				min = 0x10000;
+			}
+			else {
+				return false;
+			}
+			if (p+length > end) {
+				return true;
+			}
+			int code = b&(0x3f>>(length-1));
+			for (int i = 1; i < length; ++i) {
+				int c = buffer.get(p+i)&0xff;
+				if ((c&0xc0) != 0x80) {
+					return false;
+				}
+				code = (code<<6)|(c&0x3f);
+			}
+			if (code < min || code > 0x10ffff || (code >= 0xd800 && code <= 0xdfff)) {
+				return false;
+			}
+			p += length;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether charset encodes ASCII as single bytes, so the subtitle readers can parse it directly.
+	 */
+	public static boolean isAsciiCompatible(Charset charset)
+	{
+		byte[] encoded = "{1}|-->\n".getBytes(charset);
+		return new String(encoded, StandardCharsets.US_ASCII).equals("{1}|-->\n");
+	}
+}
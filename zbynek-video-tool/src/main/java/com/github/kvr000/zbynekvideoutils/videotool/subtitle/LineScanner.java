@@ -0,0 +1,223 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Line oriented scanner of subtitles content in byte buffer, the common core of text format readers.
+ *
+ * Lines are tracked as positions within the buffer, CRLF line ends are handled.  Numbers and timestamps are parsed by
+ * direct digit arithmetic from current position, nothing is allocated.
+ */
+class LineScanner
+{
+	/** Returned by {@link #parseTime(int)} if the time does not match. */
+	static final long NO_TIME = Long.MIN_VALUE;
+
+	final ByteBuffer buffer;
+
+	final int limit;
+
+	/** Current position within current line. */
+	int position;
+
+	/** End of current line content, excluding line end. */
+	int lineEnd;
+
+	/** Start of next line. */
+	int next;
+
+	/** Number of current line, starting with one. */
+	int lineNumber;
+
+	LineScanner(ByteBuffer buffer, int position)
+	{
+		this.buffer = buffer;
+		this.limit = buffer.limit();
+		this.next = position;
+	}
+
+	/**
+	 * Moves to next line.
+	 *
+	 * @return
+	 * 	false on end of input
+	 */
+	boolean nextLine()
+	{
+		if (next >= limit) {
+			return false;
+		}
+		int p = next;
+		while (p < limit && buffer.get(p) != '\n') {
+			++p;
+		}
+		position = next;
+		next = p+1;
+		lineEnd = p > position && buffer.get(p-1) == '\r' ? p-1 : p;
+		++lineNumber;
+		return true;
+	}
+
+	/**
+	 * Checks whether current line is empty or contains only whitespace.
+	 */
+	boolean isBlank()
+	{
+		for (int p = position; p < lineEnd; ++p) {
+			if ((buffer.get(p)&0xff) > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether the text at position starts with the string, comparing ASCII letters case insensitively.
+	 */
+	boolean startsWith(int at, String expected)
+	{
+		int length = expected.length();
+		if (lineEnd-at < length) {
+			return false;
+		}
+		for (int i = 0; i < length; ++i) {
+			int c = buffer.get(at+i);
+			int e = expected.charAt(i);
+			if (c != e && ((c|0x20) != (e|0x20) || (e|0x20) < 'a' || (e|0x20) > 'z')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Skips the string at current position, case sensitively.
+	 *
+	 * @return
+	 * 	true if the string matched and was skipped
+	 */
+	boolean skip(String expected)
+	{
+		int length = expected.length();
+		if (lineEnd-position < length) {
+			return false;
+		}
+		for (int i = 0; i < length; ++i) {
+			if (buffer.get(position+i) != expected.charAt(i)) {
+				return false;
+			}
+		}
+		position += length;
+		return true;
+	}
+
+	/**
+	 * Skips spaces and tabs.
+	 */
+	void skipSpaces()
+	{
+		while (position < lineEnd && (buffer.get(position) == ' ' || buffer.get(position) == '\t')) {
+			++position;
+		}
+	}
+
+	/**
+	 * Finds byte in current line.
+	 *
+	 * @return
+	 * 	position of the byte or line end if not found
+	 */
+	int find(int from, byte value)
+	{
+		for (int p = from; p < lineEnd; ++p) {
+			if (buffer.get(p) == value) {
+				return p;
+			}
+		}
+		return lineEnd;
+	}
+
+	/**
+	 * Parses [[hh:]mm:]ss[.,fff] timestamp at position, with any number of fraction digits.
+	 *
+	 * @param end
+	 * 	end of the timestamp area
+	 *
+	 * @return
+	 * 	time in microseconds or {@link #NO_TIME} if it does not match
+	 */
+	long parseTime(int end)
+	{
+		long value = 0;
+		for (int components = 0; ; ) {
+			long number = parseDigits(end);
+			if (number < 0) {
+				return NO_TIME;
+			}
+			value = value*60+number;
+			if (++components < 3 && position < end && buffer.get(position) == ':') {
+				++position;
+			}
+			else {
+				break;
+			}
+		}
+		long fraction = 0;
+		if (position < end && (buffer.get(position) == ',' || buffer.get(position) == '.')) {
+			++position;
+			long scale = 100_000;
+			int digits = 0;
+			for (; position < end; ++position, ++digits) {
+				int digit = buffer.get(position)-'0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				fraction += digit*scale;
+				scale /= 10;
+			}
+			if (digits == 0) {
+				return NO_TIME;
+			}
+		}
+		return value*1_000_000L+fraction;
+	}
+
+	/**
+	 * Parses up to ten decimal digits at position.
+	 *
+	 * @return
+	 * 	parsed number or -1 if there is no digit
+	 */
+	long parseDigits(int end)
+	{
+		long value = 0;
+		int start = position;
+		for (; position < end && position-start < 10; ++position) {
+			int digit = buffer.get(position)-'0';
+			if (digit < 0 || digit > 9) {
+				break;
+			}
+			value = value*10+digit;
+		}
+		return position == start ? -1 : value;
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+import com.github.kvr000.zbynekvideoutils.videotool.util.Rational;
+import lombok.extern.log4j.Log4j2;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Reader of MicroDVD (sub) subtitles, lines in {start}{end}text|text format with frame numbers.
+ *
+ * The content is scanned in single pass, text lines separated by | are passed as spans of the source buffer.  The
+ * optional first entry {1}{1}fps declares the frame rate, rates close to NTSC ones, like 23.976, are converted to
+ * exact n*1000/1001 form.  Lines not matching the format are logged and skipped.
+ */
+@Log4j2
+public class MicroDvdSubtitleReader implements SubtitleReader
+{
+	@Override
+	public void readChunk(ByteBuffer buffer, SubtitleSink sink, boolean first)
+	{
+		new Scanner(buffer).read(sink, first);
+	}
+
+	private static class Scanner
+	{
+		private final ByteBuffer buffer;
+
+		/** Value of the last frame parsed by {@link #parseFrame(int, int)}. */
+		private long frameValue;
+
+		Scanner(ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		void read(SubtitleSink sink, boolean first)
+		{
+			int limit = buffer.limit();
+			int lineNumber = 0;
+			for (int next = first ? SubtitleReader.skipBom(buffer) : buffer.position(); next < limit; ) {
+				int position = next;
+				int end = position;
+				while (end < limit && buffer.get(end) != '\n') {
+					++end;
+				}
+				next = end+1;
+				++lineNumber;
+				// strip trailing whitespace, including CR:
+				while (end > position && (buffer.get(end-1)&0xff) <= ' ') {
+					--end;
+				}
+				if (end == position) {
+					continue;
+				}
+
+				long start = -1;
+				long stop = -1;
+				int textStart = -1;
+				if (buffer.get(position) == '{') {
+					int p = parseFrame(position, end);
+					if (p >= 0) {
+						start = frameValue;
+						p = parseFrame(p, end);
+						if (p >= 0) {
+							stop = frameValue;
+							textStart = p;
+						}
+					}
+				}
+				if (textStart < 0) {
+					log.warn("Failed to match line in subtitles: line={}", lineNumber);
+					continue;
+				}
+				if (first && lineNumber == 1 && start == 1 && stop == 1) {
+					Rational frameRate = parseFrameRate(textStart, end);
+					if (frameRate != null) {
+						sink.setFrameRate(frameRate);
+						continue;
+					}
+				}
+				sink.startEntry(RangeType.FRAME, start, stop);
+				for (int p = textStart; ; ++p) {
+					if (p == end || buffer.get(p) == '|') {
+						sink.addLine(buffer, textStart, p);
+						if (p == end) {
+							break;
+						}
+						textStart = p+1;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Parses {number} at position.
+		 *
+		 * @return
+		 * 	position after the closing brace or -1 if not matching
+		 */
+		private int parseFrame(int position, int end)
+		{
+			if (position >= end || buffer.get(position) != '{') {
+				return -1;
+			}
+			long value = 0;
+			int p = position+1;
+			for (; p < end && p-position <= 18; ++p) {
+				int digit = buffer.get(p)-'0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				value = value*10+digit;
+			}
+			if (p == position+1 || p >= end || buffer.get(p) != '}') {
+				return -1;
+			}
+			frameValue = value;
+			return p+1;
+		}
+
+		/**
+		 * Parses decimal frame rate.
+		 *
+		 * @return
+		 * 	frame rate or null if the text is not a positive decimal number
+		 */
+		private Rational parseFrameRate(int position, int end)
+		{
+			long num = 0;
+			long den = 1;
+			boolean fraction = false;
+			for (int p = position; p < end; ++p) {
+				byte c = buffer.get(p);
+				if (c == '.' && !fraction) {
+					fraction = true;
+				}
+				else if (c >= '0' && c <= '9' && den < 1_000_000_000L) {
+					num = num*10+(c-'0');
+					if (fraction) {
+						den *= 10;
+					}
+				}
+				else {
+					return null;
+				}
+			}
+			if (num == 0) {
+				return null;
+			}
+			double ntsc = (double) num*1001/1000/den;
+			if (den != 1 && Math.abs(ntsc-Math.rint(ntsc)) < 0.001) {
+				return new Rational((long) Math.rint(ntsc)*1000, 1001);
+			}
+			return new Rational(num, den);
+		}
+	}
+}
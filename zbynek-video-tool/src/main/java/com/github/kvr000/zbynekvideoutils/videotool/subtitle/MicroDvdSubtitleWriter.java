@@ -0,0 +1,80 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+import com.github.kvr000.zbynekvideoutils.videotool.util.Rational;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Writer of MicroDVD (sub) subtitles.  Missing frames are written as 999999999, lines are joined by |.  Frame rate,
+ * if known, is written as the first {1}{1}fps entry.
+ */
+public class MicroDvdSubtitleWriter implements SubtitleWriter
+{
+	/** Frame written for times past the end of video. */
+	public static final long MISSING_FRAME = 999999999;
+
+	private static final byte[] BRACES = "}{".getBytes(StandardCharsets.US_ASCII);
+
+	@Override
+	public void writeChunk(Subtitles subtitles, long firstEntry, SubtitleOutput output) throws IOException
+	{
+		if (subtitles.getRangeType() != RangeType.FRAME) {
+			throw new IllegalArgumentException("sub requires subtitles in frame range type, got: "+subtitles.getRangeType());
+		}
+		if (firstEntry == 0 && subtitles.getFrameRate() != null) {
+			Rational frameRate = subtitles.getFrameRate();
+			output.write(("{1}{1}"+BigDecimal.valueOf(frameRate.getNum())
+				.divide(BigDecimal.valueOf(frameRate.getDen()), 3, RoundingMode.HALF_UP)
+				.stripTrailingZeros().toPlainString()+"\n").getBytes(StandardCharsets.UTF_8));
+		}
+		byte[] text = subtitles.text;
+		for (int i = 0; i < subtitles.size(); ++i) {
+			output.write((byte) '{');
+			output.writeDecimal(frame(subtitles.starts[i]), 1);
+			output.write(BRACES);
+			output.writeDecimal(frame(subtitles.ends[i]), 1);
+			output.write((byte) '}');
+			// copy lines in bulk, replacing line separators:
+			for (int p = subtitles.textOffsets[i], end = subtitles.textOffsets[i+1]; p < end; ) {
+				int line = p;
+				while (p < end && text[p] != '\n') {
+					++p;
+				}
+				output.write(text, line, p-line);
+				if (p < end) {
+					output.write((byte) '|');
+					++p;
+				}
+			}
+			output.write((byte) '\n');
+		}
+	}
+
+	private static long frame(long frame)
+	{
+		return frame < 0 ? MISSING_FRAME : frame;
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import com.github.kvr000.zbynekvideoutils.videotool.util.LinearKernel;
+import com.github.kvr000.zbynekvideoutils.videotool.util.Rational;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Piecewise linear time mapping defined by anchors, each anchor delaying specific time by specific amount.
+ *
+ * Times between two anchors are interpolated linearly, times before the first or after the last anchor follow the
+ * closest segment.  Single anchor is a plain shift, two anchors are a single linear transformation.  Each segment
+ * keeps its origin and integer slope, so mapping is exact integer arithmetic.  Values are mapped in runs falling into
+ * the same segment, found by binary search, so sorted values take single pass with one search per segment, each run
+ * transformed by {@link LinearKernel}.
+ */
+public class Retiming
+{
+	/** Source times of segment starts, the first segment extends to minus infinity. */
+	private final long[] fromOrigins;
+
+	/** Target times of segment starts. */
+	private final long[] toOrigins;
+
+	/** Slopes of segments. */
+	private final Rational[] scales;
+
+	private Retiming(long[] fromOrigins, long[] toOrigins, Rational[] scales)
+	{
+		this.fromOrigins = fromOrigins;
+		this.toOrigins = toOrigins;
+		this.scales = scales;
+	}
+
+	/**
+	 * Creates the mapping from anchors.
+	 *
+	 * @param anchors
+	 * 	pairs of time and delay, in any order
+	 *
+	 * @return
+	 * 	mapping
+	 *
+	 * @throws IllegalArgumentException
+	 * 	if there is no anchor or two anchors have the same time
+	 */
+	public static Retiming fromDelays(List<long[]> anchors)
+	{
+		if (anchors.isEmpty()) {
+			throw new IllegalArgumentException("At least one delay anchor is required");
+		}
+		long[][] sorted = anchors.toArray(new long[0][]);
+		Arrays.sort(sorted, Comparator.comparingLong(anchor -> anchor[0]));
+		if (sorted.length == 1) {
+			return new Retiming(new long[]{ sorted[0][0] }, new long[]{ sorted[0][0]+sorted[0][1] }, new Rational[]{ new Rational(1, 1) });
+		}
+		int segments = sorted.length-1;
+		long[] fromOrigins = new long[segments];
+		long[] toOrigins = new long[segments];
+		Rational[] scales = new Rational[segments];
+		for (int i = 0; i < segments; ++i) {
+			long[] start = sorted[i];
+			long[] end = sorted[i+1];
+			if (start[0] == end[0]) {
+				throw new IllegalArgumentException("Delay anchors must have different times: "+start[0]);
+			}
+			fromOrigins[i] = start[0];
+			toOrigins[i] = start[0]+start[1];
+			scales[i] = reduce(end[0]+end[1]-start[0]-start[1], end[0]-start[0]);
+		}
+		return new Retiming(fromOrigins, toOrigins, scales);
+	}
+
+	/**
+	 * Gets number of linear segments.
+	 */
+	public int segments()
+	{
+		return scales.length;
+	}
+
+	/**
+	 * Maps single value, using binary search to find the segment.
+	 */
+	public long apply(long value)
+	{
+		return apply(segment(value), value);
+	}
+
+	/**
+	 * Maps values in place.
+	 *
+	 * @param values
+	 * 	values to map, typically sorted
+	 * @param size
+	 * 	number of values to map
+	 */
+	public void apply(long[] values, int size)
+	{
+		LinearKernel kernel = LinearKernel.getInstance();
+		int last = fromOrigins.length-1;
+		for (int i = 0; i < size; ) {
+			int segment = segment(values[i]);
+			long lower = segment == 0 ? Long.MIN_VALUE : fromOrigins[segment];
+			long upper = segment == last ? Long.MAX_VALUE : fromOrigins[segment+1];
+			int end = i+1;
+			while (end < size && values[end] >= lower && values[end] < upper) {
+				++end;
+			}
+			kernel.apply(values, i, end, fromOrigins[segment], scales[segment], toOrigins[segment]);
+			i = end;
+		}
+	}
+
+	private long apply(int segment, long value)
+	{
+		return toOrigins[segment]+scales[segment].multiply(value-fromOrigins[segment]);
+	}
+
+	private int segment(long value)
+	{
+		int found = Arrays.binarySearch(fromOrigins, value);
+		return Math.max(0, found >= 0 ? found : -found-2);
+	}
+
+	private static Rational reduce(long num, long den)
+	{
+		long gcd = gcd(Math.abs(num), den);
+		return new Rational(num/gcd, den/gcd);
+	}
+
+	private static long gcd(long a, long b)
+	{
+		while (b != 0) {
+			long t = a%b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Reader of SubRip (srt) subtitles.
+ *
+ * The content is scanned byte by byte, timestamps are parsed by direct digit arithmetic and the text lines are only
+ * passed as spans.  UTF-8 byte order mark and CRLF line ends are handled, the fraction of timestamp may be separated
+ * by either comma or dot and may have any number of digits.  Extra blank lines between entries are ignored.
+ */
+public class SrtSubtitleReader implements SubtitleReader
+{
+	@Override
+	public void readChunk(ByteBuffer buffer, SubtitleSink sink, boolean first) throws IOException
+	{
+		new Scanner(buffer, first ? SubtitleReader.skipBom(buffer) : buffer.position()).read(sink);
+	}
+
+	@Override
+	public int chunkEnd(ByteBuffer buffer)
+	{
+		return SubtitleReader.blankLineChunkEnd(buffer);
+	}
+
+	private static class Scanner extends LineScanner
+	{
+		Scanner(ByteBuffer buffer, int position)
+		{
+			super(buffer, position);
+		}
+
+		void read(SubtitleSink sink) throws IOException
+		{
+			for (;;) {
+				do {
+					if (!nextLine()) {
+						return;
+					}
+				} while (position == lineEnd);
+
+				for (int i = position; i < lineEnd; ++i) {
+					byte c = buffer.get(i);
+					if (c < '0' || c > '9') {
+						throw new IOException("Expected number on the first line of srt entry at line "+lineNumber);
+					}
+				}
+				if (!nextLine()) {
+					throw invalidTime();
+				}
+				long start = parseTime(lineEnd);
+				if (start == NO_TIME || !skip(" --> ")) {
+					throw invalidTime();
+				}
+				long end = parseTime(lineEnd);
+				if (end == NO_TIME) {
+					throw invalidTime();
+				}
+				sink.startEntry(RangeType.TIME, start, end);
+
+				while (nextLine() && position != lineEnd) {
+					sink.addLine(buffer, position, lineEnd);
+				}
+			}
+		}
+
+		private IOException invalidTime()
+		{
+			return new IOException("Expected time range on the second line of srt entry at line "+lineNumber);
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+
+/**
+ * Access to subtitles stored in ZIP archives, without extracting them.
+ *
+ * Archive entries are addressed as {@code archive.zip!/path/entry.srt}.  Each archive is opened once, keeping its
+ * central directory in memory, and reused for listing and reading its entries until the archive file changes, so
+ * batches reading many entries from the same archive do not parse it repeatedly.  Entries are decompressed while
+ * being read.
+ *
+ * The instance is thread safe, entries of the same archive may be read in parallel.  Archive instance replaced after
+ * the file changed is closed once the last stream opened from it is closed, or when the cache is closed.
+ */
+@Log4j2
+public class SubtitleArchiveCache implements Closeable
+{
+	public static final String ARCHIVE_EXTENSION = ".zip";
+
+	/** Separator of archive path and entry name. */
+	public static final String ENTRY_SEPARATOR = "!/";
+
+	private final Map<Path, CachedArchive> archives = new HashMap<>();
+
+	/** Replaced archives still having open streams. */
+	private final List<CachedArchive> staleArchives = new ArrayList<>();
+
+	/**
+	 * Checks whether the file is ZIP archive, by its extension.
+	 */
+	public static boolean isArchive(String file)
+	{
+		return file.regionMatches(true, file.length()-ARCHIVE_EXTENSION.length(), ARCHIVE_EXTENSION, 0, ARCHIVE_EXTENSION.length());
+	}
+
+	/**
+	 * Checks whether the name addresses archive entry.
+	 */
+	public static boolean isEntry(String name)
+	{
+		int separator = name.indexOf(ENTRY_SEPARATOR);
+		return separator >= 0 && isArchive(name.substring(0, separator));
+	}
+
+	/**
+	 * Gets archive path of archive entry name.
+	 */
+	public static Path archivePath(String entry)
+	{
+		return Paths.get(entry.substring(0, entry.indexOf(ENTRY_SEPARATOR)));
+	}
+
+	/**
+	 * Gets entry name within archive of archive entry name.
+	 */
+	public static String entryName(String entry)
+	{
+		return entry.substring(entry.indexOf(ENTRY_SEPARATOR)+ENTRY_SEPARATOR.length());
+	}
+
+	/**
+	 * Lists subtitles entries in archive, those having supported format extension, in archive order.
+	 *
+	 * @param archive
+	 * 	archive file
+	 *
+	 * @return
+	 * 	list of archive entry names, in form of archive!/entry
+	 */
+	public List<String> listSubtitles(Path archive) throws IOException
+	{
+		CachedArchive cached = acquire(archive);
+		try {
+			List<String> result = new ArrayList<>();
+			cached.zip.stream().forEach(entry -> {
+				if (!entry.isDirectory() && isSubtitles(entry.getName())) {
+					result.add(archive+ENTRY_SEPARATOR+entry.getName());
+				}
+			});
+			return result;
+		}
+		finally {
+			release(cached);
+		}
+	}
+
+	/**
+	 * Opens archive entry for reading, decompressing it on the fly.
+	 *
+	 * @param entry
+	 * 	archive entry name, in form of archive!/entry
+	 *
+	 * @return
+	 * 	stream of entry content, its closing releases the archive instance
+	 */
+	public InputStream openEntry(String entry) throws IOException
+	{
+		Path archive = archivePath(entry);
+		CachedArchive cached = acquire(archive);
+		try {
+			ZipEntry zipEntry = cached.zip.getEntry(entryName(entry));
+			if (zipEntry == null || zipEntry.isDirectory()) {
+				throw new NoSuchFileException(entry, null, "Entry not found in archive");
+			}
+			InputStream stream = cached.zip.getInputStream(zipEntry);
+			return new FilterInputStream(stream)
+			{
+				private boolean closed;
+
+				@Override
+				public void close() throws IOException
+				{
+					if (!closed) {
+						closed = true;
+						try {
+							super.close();
+						}
+						finally {
+							release(cached);
+						}
+					}
+				}
+			};
+		}
+		catch (IOException|RuntimeException ex) {
+			release(cached);
+			throw ex;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		for (CachedArchive cached: archives.values()) {
+			cached.zip.close();
+		}
+		archives.clear();
+		for (CachedArchive cached: staleArchives) {
+			cached.zip.close();
+		}
+		staleArchives.clear();
+	}
+
+	/**
+	 * Number of replaced archives not closed yet.
+	 */
+	synchronized int staleCount()
+	{
+		return staleArchives.size();
+	}
+
+	/**
+	 * Opens the archive or gets the cached instance, counting it as used until released.
+	 */
+	private synchronized CachedArchive acquire(Path archive) throws IOException
+	{
+		Path key = archive.toAbsolutePath().normalize();
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+			long mtime = attributes.lastModifiedTime().toMillis();
+			CachedArchive cached = archives.get(key);
+			if (cached != null) {
+				if (cached.size == attributes.size() && cached.mtime == mtime) {
+					++cached.users;
+					return cached;
+				}
+				log.debug("Archive changed, reopening: file={}", archive);
+				archives.remove(key);
+				if (cached.users == 0) {
+					cached.zip.close();
+				}
+				else {
+					// streams opened from the old instance may still be read, closed by the last one:
+					staleArchives.add(cached);
+				}
+			}
+			cached = new CachedArchive(new ZipFile(key.toFile()), attributes.size(), mtime);
+			archives.put(key, cached);
+			++cached.users;
+			return cached;
+		}
+		catch (IOException ex) {
+			throw new IOException("Failed to open archive: file="+archive+" : "+ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * Releases archive acquired by {@link #acquire(Path)}, closing it if it was replaced and this was its last user.
+	 */
+	private synchronized void release(CachedArchive cached) throws IOException
+	{
+		if (--cached.users == 0 && staleArchives.remove(cached)) {
+			cached.zip.close();
+		}
+	}
+
+	private static boolean isSubtitles(String name)
+	{
+		int dot = name.lastIndexOf('.');
+		if (dot < 0 || name.startsWith("__MACOSX/")) {
+			return false;
+		}
+		String extension = name.substring(dot+1);
+		for (SubtitleFormat format: SubtitleFormat.values()) {
+			if (format.getExtension().equalsIgnoreCase(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@RequiredArgsConstructor
+	private static class CachedArchive
+	{
+		final ZipFile zip;
+
+		final long size;
+
+		final long mtime;
+
+		/** Number of listings and streams using the instance. */
+		int users;
+	}
+}
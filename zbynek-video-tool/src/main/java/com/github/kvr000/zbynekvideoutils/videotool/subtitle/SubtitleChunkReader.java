@@ -0,0 +1,418 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import com.github.kvr000.zbynekvideoutils.videotool.util.Rational;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/**
+ * Reader of subtitles stream in chunks of complete entries.
+ *
+ * Memory stays bounded by the chunk size, the chunk buffer only grows if single entry does not fit into it.  The
+ * chunk is returned as soon as the input has no more data immediately available, so reading works for slow
+ * producers too.
+ *
+ * Input charset is detected, unless specified, from the bytes already buffered by the regular read, it never waits
+ * for more input.  Chunks of plain ASCII are equal in every ASCII compatible charset, so the detection is postponed
+ * until first chunk containing other bytes.  ASCII compatible input is parsed as is and only the text spans are
+ * transcoded, when the output charset differs.  Other input, UTF-16, is decoded to UTF-8 while streaming.
+ *
+ * Memory mapped input, such as regular file, is parsed in place, the chunks are slices of the mapping and nothing
+ * is copied into the chunk buffer, unless the input needs decoding.
+ */
+@Log4j2
+public class SubtitleChunkReader
+{
+	private final SubtitleFormat format;
+
+	private final SubtitleReader reader;
+
+	private final Charset outputCharset;
+
+	private InputStream input;
+
+	private ByteBuffer mapped;
+
+	private int chunkSize;
+
+	private Charset inputCharset;
+
+	private boolean charsetReady;
+
+	private Transcoder transcoder;
+
+	private byte[] buffer;
+
+	private int length;
+
+	private boolean eof;
+
+	private boolean first = true;
+
+	private Rational frameRate;
+
+	/**
+	 * Creates the reader.
+	 *
+	 * @param format
+	 * 	format of input
+	 * @param input
+	 * 	input stream
+	 * @param chunkSize
+	 * 	size of input chunk buffer
+	 * @param inputCharset
+	 * 	charset of input, null to detect
+	 * @param outputCharset
+	 * 	charset of the returned text, must be ASCII compatible
+	 */
+	public SubtitleChunkReader(SubtitleFormat format, InputStream input, int chunkSize, Charset inputCharset, Charset outputCharset)
+	{
+		this.format = format;
+		this.reader = format.getReader().newStreamReader();
+		this.input = input;
+		this.buffer = new byte[chunkSize];
+		this.chunkSize = chunkSize;
+		this.inputCharset = inputCharset;
+		this.outputCharset = outputCharset;
+	}
+
+	/**
+	 * Creates the reader of memory mapped input.
+	 *
+	 * @param format
+	 * 	format of input
+	 * @param mapped
+	 * 	input content, from position to limit
+	 * @param chunkSize
+	 * 	size of input chunk
+	 * @param inputCharset
+	 * 	charset of input, null to detect
+	 * @param outputCharset
+	 * 	charset of the returned text, must be ASCII compatible
+	 */
+	public SubtitleChunkReader(SubtitleFormat format, ByteBuffer mapped, int chunkSize, Charset inputCharset, Charset outputCharset)
+	{
+		this.format = format;
+		this.reader = format.getReader().newStreamReader();
+		this.mapped = mapped;
+		this.chunkSize = chunkSize;
+		this.inputCharset = inputCharset;
+		this.outputCharset = outputCharset;
+	}
+
+	/**
+	 * Reads next chunk of entries.
+	 *
+	 * @return
+	 * 	next non-empty chunk or null at the end of input
+	 */
+	public Subtitles next() throws IOException
+	{
+		if (mapped != null) {
+			Subtitles subtitles = nextMapped();
+			if (mapped != null) {
+				return subtitles;
+			}
+			// switched to decoding stream:
+		}
+		while (!eof || length > 0) {
+			if (!eof) {
+				if (length == buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length*2);
+				}
+				int read = input.read(buffer, length, buffer.length-length);
+				if (read < 0) {
+					eof = true;
+				}
+				else {
+					length += read;
+					if (length < buffer.length && input.available() > 0) {
+						continue;
+					}
+				}
+			}
+			if (!charsetReady && !setupCharset(ByteBuffer.wrap(buffer, 0, length), eof)) {
+				continue;
+			}
+			int end = eof ? length : reader.chunkEnd(ByteBuffer.wrap(buffer, 0, length));
+			if (end == 0) {
+				continue;
+			}
+
+			Subtitles subtitles = readChunk(ByteBuffer.wrap(buffer, 0, end));
+			System.arraycopy(buffer, end, buffer, 0, length-end);
+			length -= end;
+
+			if (subtitles.size() != 0) {
+				return subtitles;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads next chunk of entries from the mapped input, growing the chunk if single entry does not fit into it.
+	 *
+	 * @return
+	 * 	next non-empty chunk, null at the end of input or when the input was switched to decoding stream
+	 */
+	private Subtitles nextMapped() throws IOException
+	{
+		while (mapped.hasRemaining()) {
+			int position = mapped.position();
+			boolean complete = mapped.remaining() <= chunkSize;
+			ByteBuffer window = mapped.slice(position, complete ? mapped.remaining() : chunkSize);
+			if (!charsetReady && !setupCharset(window, complete)) {
+				return null;
+			}
+			int end = complete ? window.limit() : reader.chunkEnd(window);
+			if (end == 0) {
+				chunkSize = (int) Math.min(Integer.MAX_VALUE, 2L*chunkSize);
+				continue;
+			}
+
+			Subtitles subtitles = readChunk(mapped.slice(position, end));
+			mapped.position(position+end);
+
+			if (subtitles.size() != 0) {
+				return subtitles;
+			}
+		}
+		return null;
+	}
+
+	private Subtitles readChunk(ByteBuffer chunk) throws IOException
+	{
+		Subtitles.Builder builder = Subtitles.builder();
+		if (frameRate != null) {
+			builder.setFrameRate(frameRate);
+		}
+		reader.readChunk(chunk, transcoder == null ? builder : transcoder.wrap(builder), first);
+		Subtitles subtitles = builder.build(format.getRangeType());
+		frameRate = subtitles.getFrameRate();
+		first = false;
+		return subtitles;
+	}
+
+	/**
+	 * Sets up the charset conversion, detecting the charset from the available input if needed.  Input which is not
+	 * ASCII compatible is switched to decoding stream, including the bytes already available.
+	 *
+	 * @param available
+	 * 	input available so far, from position to limit
+	 * @param complete
+	 * 	whether the available input is complete
+	 *
+	 * @return
+	 * 	true if the available input can be parsed, false if more input is needed
+	 */
+	private boolean setupCharset(ByteBuffer available, boolean complete) throws IOException
+	{
+		if (inputCharset == null) {
+			if (isAscii(available)) {
+				// no difference among ASCII compatible charsets yet, postpone:
+				return available.hasRemaining() || complete;
+			}
+			if (available.remaining() < 4 && !complete) {
+				// let the byte order mark complete
+				return false;
+			}
+			inputCharset = CharsetDetector.detect(available);
+			log.debug("Detected subtitles charset: {}", inputCharset);
+		}
+		charsetReady = true;
+		boolean decoded = !CharsetDetector.isAsciiCompatible(inputCharset);
+		if (decoded) {
+			if (mapped != null) {
+				input = new DecodingInputStream(new ByteBufferInputStream(mapped), inputCharset);
+				mapped = null;
+				buffer = new byte[chunkSize];
+			}
+			else {
+				// buffered bytes go through the decoder too:
+				InputStream buffered = new ByteArrayInputStream(Arrays.copyOf(buffer, length));
+				input = new DecodingInputStream(eof ? buffered : new SequenceInputStream(buffered, input), inputCharset);
+			}
+			inputCharset = StandardCharsets.UTF_8;
+			length = 0;
+			eof = false;
+		}
+		transcoder = inputCharset.equals(outputCharset) ? null : new Transcoder(inputCharset, outputCharset);
+		return !decoded;
+	}
+
+	private static boolean isAscii(ByteBuffer buffer)
+	{
+		for (int i = buffer.position(); i < buffer.limit(); ++i) {
+			if (buffer.get(i) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stream over the remaining content of buffer.
+	 */
+	private static class ByteBufferInputStream extends InputStream
+	{
+		private final ByteBuffer buffer;
+
+		public ByteBufferInputStream(ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read()
+		{
+			return buffer.hasRemaining() ? buffer.get()&0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len)
+		{
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(len, buffer.remaining());
+			buffer.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public int available()
+		{
+			return buffer.remaining();
+		}
+	}
+
+	/**
+	 * Stream decoding input charset into UTF-8.  Unlike {@link java.io.InputStreamReader} based conversion, it returns
+	 * whatever is decoded from single read of underlying stream and reports it as available, so it does not delay
+	 * slow producers.
+	 */
+	private static class DecodingInputStream extends InputStream
+	{
+		private final InputStream input;
+
+		private final CharsetDecoder decoder;
+
+		private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+		private final ByteBuffer raw = ByteBuffer.allocate(8192).flip();
+
+		private final CharBuffer chars = CharBuffer.allocate(8192).flip();
+
+		private final ByteBuffer out = ByteBuffer.allocate(3*8192).flip();
+
+		private boolean eof;
+
+		public DecodingInputStream(InputStream input, Charset charset)
+		{
+			this.input = input;
+			this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0]&0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (len == 0) {
+				return 0;
+			}
+			while (!out.hasRemaining()) {
+				if (eof) {
+					return -1;
+				}
+				fill();
+			}
+			int count = Math.min(len, out.remaining());
+			out.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public int available() throws IOException
+		{
+			if (!out.hasRemaining() && !eof && input.available() > 0) {
+				fill();
+			}
+			return out.remaining();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			input.close();
+		}
+
+		private void fill() throws IOException
+		{
+			raw.compact();
+			int read = input.read(raw.array(), raw.position(), raw.remaining());
+			if (read < 0) {
+				eof = true;
+			}
+			else {
+				raw.position(raw.position()+read);
+			}
+			raw.flip();
+			chars.compact();
+			decoder.decode(raw, chars, eof);
+			if (eof) {
+				decoder.flush(chars);
+			}
+			chars.flip();
+			out.clear();
+			encoder.encode(chars, out, eof);
+			if (eof) {
+				encoder.flush(out);
+			}
+			out.flip();
+		}
+	}
+}
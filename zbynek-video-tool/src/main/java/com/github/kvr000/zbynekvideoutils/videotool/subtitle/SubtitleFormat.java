@@ -0,0 +1,178 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Supported subtitle formats, identified by file extension.
+ */
+@RequiredArgsConstructor
+@Getter
+public enum SubtitleFormat
+{
+	SRT("srt", RangeType.TIME, new SrtSubtitleReader(), new SrtSubtitleWriter()),
+	SUB("sub", RangeType.FRAME, new MicroDvdSubtitleReader(), new MicroDvdSubtitleWriter()),
+	VTT("vtt", RangeType.TIME, new WebVttSubtitleReader(), new WebVttSubtitleWriter()),
+	ASS("ass", RangeType.TIME, new AssSubtitleReader(), new AssSubtitleWriter(false)),
+	SSA("ssa", RangeType.TIME, new AssSubtitleReader(), new AssSubtitleWriter(true)),
+	;
+
+	private final String extension;
+
+	private final RangeType rangeType;
+
+	private final SubtitleReader reader;
+
+	private final SubtitleWriter writer;
+
+	/**
+	 * Finds format by type name, which is the extension.
+	 *
+	 * @throws IllegalArgumentException
+	 * 	if the format is not supported
+	 */
+	public static SubtitleFormat fromType(String type)
+	{
+		for (SubtitleFormat format: values()) {
+			if (format.extension.equalsIgnoreCase(type)) {
+				return format;
+			}
+		}
+		throw new IllegalArgumentException("Subtitles format not supported: "+type);
+	}
+
+	/**
+	 * Finds format by file extension.
+	 *
+	 * @throws IllegalArgumentException
+	 * 	if the format is not supported
+	 */
+	public static SubtitleFormat fromPath(Path file)
+	{
+		String name = file.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		if (dot < 0) {
+			throw new IllegalArgumentException("Subtitles format not recognized, missing extension: "+file);
+		}
+		return fromType(name.substring(dot+1));
+	}
+
+	/**
+	 * Detects format from the beginning of content.
+	 *
+	 * @param head
+	 * 	beginning of content
+	 * @param length
+	 * 	length of content in head
+	 *
+	 * @return
+	 * 	detected format or null if not recognized
+	 */
+	public static SubtitleFormat detect(byte[] head, int length)
+	{
+		for (int i = 0; i < length; ++i) {
+			int c = head[i]&0xff;
+			if (c == '{') {
+				return SUB;
+			}
+			else if (c == '[') {
+				return ASS;
+			}
+			else if (c == 'W' && startsWith(head, i, length, "WEBVTT")) {
+				return VTT;
+			}
+			else if (c >= '0' && c <= '9') {
+				return SRT;
+			}
+			else if (c > ' ' && !(i < 3 && (c == 0xef || c == 0xbb || c == 0xbf || c == 0xfe || c == 0xff))) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Checks whether head starts with expected ASCII string, skipping zero bytes to match UTF-16 too.
+	 */
+	private static boolean startsWith(byte[] head, int offset, int length, String expected)
+	{
+		for (int i = 0; i < expected.length(); ++offset) {
+			if (offset >= length) {
+				return false;
+			}
+			if (head[offset] != 0) {
+				if (head[offset] != expected.charAt(i++)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads whole subtitles file in this format, detecting its charset and converting the text to UTF-8.  The file is
+	 * memory mapped, for callers needing all the entries at once, streaming conversions use
+	 * {@link SubtitleChunkReader} instead.
+	 */
+	public Subtitles read(Path file) throws IOException
+	{
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		Charset charset = CharsetDetector.detect(buffer);
+		Subtitles.Builder builder = Subtitles.builder();
+		SubtitleSink sink = builder;
+		if (!CharsetDetector.isAsciiCompatible(charset)) {
+			buffer = StandardCharsets.UTF_8.encode(charset.decode(buffer));
+		}
+		else if (!charset.equals(StandardCharsets.UTF_8)) {
+			sink = new Transcoder(charset, StandardCharsets.UTF_8).wrap(builder);
+		}
+		try {
+			reader.read(buffer, sink);
+		}
+		catch (IOException ex) {
+			throw new IOException("Failed to read subtitles: file="+file+" : "+ex.getMessage(), ex);
+		}
+		return builder.build(rangeType);
+	}
+
+	/**
+	 * Writes subtitles file in this format.
+	 */
+	public void write(Subtitles subtitles, Path file) throws IOException
+	{
+		try (FileChannel output = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			writer.write(subtitles, output);
+		}
+	}
+}
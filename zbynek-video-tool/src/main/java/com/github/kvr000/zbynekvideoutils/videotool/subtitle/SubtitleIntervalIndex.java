@@ -0,0 +1,307 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+
+/**
+ * Interval index over subtitle entries, answering which entries are shown at given time or within given range.
+ *
+ * Entries are half-open ranges from start to end, so entries with end not after start never match.  The index is
+ * augmented sorted array: starts and ends sorted by start, seen as implicit balanced binary tree where the middle
+ * of each range is the subtree root, and maximum end of each subtree.  Queries run in O(log n + k), descending only
+ * to subtrees whose maximum end reaches the queried range, and scan small subtrees linearly.  No nodes are
+ * allocated, the index is three primitive arrays and entry order, which is omitted for subtitles already sorted.
+ *
+ * The index is immutable snapshot of entry ranges, later timing transforms of the subtitles are not reflected.
+ */
+public class SubtitleIntervalIndex
+{
+	/** Level of subtrees which are scanned linearly instead of descending. */
+	private static final int SCAN_LEVEL = 3;
+
+	private final int size;
+
+	/** Entry ids in the sorted order, null if identity. */
+	private final int[] order;
+
+	private final long[] starts;
+
+	private final long[] ends;
+
+	/** Maximum end within subtree rooted at the position. */
+	private final long[] maxEnds;
+
+	/** Level of root of the implicit tree. */
+	private final int rootLevel;
+
+	/**
+	 * Builds the index of subtitles entries.
+	 *
+	 * @param subtitles
+	 * 	subtitles to index
+	 */
+	public SubtitleIntervalIndex(Subtitles subtitles)
+	{
+		this.size = subtitles.size();
+		this.order = isSorted(subtitles.starts, size) ? null : sortOrder(subtitles.starts, size);
+		this.starts = new long[size];
+		this.ends = new long[size];
+		for (int i = 0; i < size; ++i) {
+			int entry = order == null ? i : order[i];
+			starts[i] = subtitles.starts[entry];
+			ends[i] = subtitles.ends[entry];
+		}
+		this.maxEnds = new long[size];
+		this.rootLevel = buildMaxEnds();
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Finds entries shown at the time.
+	 *
+	 * @param time
+	 * 	time or frame, in the subtitles range type
+	 * @param consumer
+	 * 	receiver of entry ids, in order of entry starts
+	 */
+	public void stab(long time, IntConsumer consumer)
+	{
+		query(time, time+1, consumer);
+	}
+
+	/**
+	 * Finds entries shown at the time.
+	 *
+	 * @return
+	 * 	entry ids, in order of entry starts
+	 */
+	public int[] stab(long time)
+	{
+		return query(time, time+1);
+	}
+
+	/**
+	 * Finds entries overlapping the range.
+	 *
+	 * @param from
+	 * 	range start, inclusive
+	 * @param to
+	 * 	range end, exclusive
+	 *
+	 * @return
+	 * 	entry ids, in order of entry starts
+	 */
+	public int[] query(long from, long to)
+	{
+		int[][] result = { new int[16] };
+		int[] count = { 0 };
+		query(from, to, entry -> {
+			if (count[0] == result[0].length) {
+				result[0] = Arrays.copyOf(result[0], count[0]*2);
+			}
+			result[0][count[0]++] = entry;
+		});
+		return Arrays.copyOf(result[0], count[0]);
+	}
+
+	/**
+	 * Finds entries overlapping the range.
+	 *
+	 * @param from
+	 * 	range start, inclusive
+	 * @param to
+	 * 	range end, exclusive
+	 * @param consumer
+	 * 	receiver of entry ids, in order of entry starts
+	 */
+	public void query(long from, long to, IntConsumer consumer)
+	{
+		if (size == 0 || from >= to) {
+			return;
+		}
+		// explicit stack of (node, level, left subtree done), at most two entries per level:
+		int[] nodes = new int[2*rootLevel+2];
+		int[] levels = new int[nodes.length];
+		boolean[] leftDone = new boolean[nodes.length];
+		int top = 0;
+		nodes[top] = (1<<rootLevel)-1;
+		levels[top] = rootLevel;
+		leftDone[top++] = false;
+		while (top > 0) {
+			int node = nodes[--top];
+			int level = levels[top];
+			if (level <= SCAN_LEVEL) {
+				int scanStart = node>>level<<level;
+				int scanEnd = Math.min(size, scanStart+(1<<(level+1))-1);
+				for (int i = scanStart; i < scanEnd && starts[i] < to; ++i) {
+					if (from < ends[i] && starts[i] < ends[i]) {
+						consumer.accept(entry(i));
+					}
+				}
+			}
+			else if (!leftDone[top]) {
+				int left = node-(1<<(level-1));
+				leftDone[top++] = true;
+				if (left >= size || maxEnds[left] > from) {
+					nodes[top] = left;
+					levels[top] = level-1;
+					leftDone[top++] = false;
+				}
+			}
+			else if (node < size && starts[node] < to) {
+				if (from < ends[node] && starts[node] < ends[node]) {
+					consumer.accept(entry(node));
+				}
+				nodes[top] = node+(1<<(level-1));
+				levels[top] = level-1;
+				leftDone[top++] = false;
+			}
+		}
+	}
+
+	/**
+	 * Finds overlapping entries in single pass over entries ordered by start.  Each entry overlapping any entry
+	 * starting earlier (or at the same time, but ordered before it) is reported once, together with the overlapped
+	 * entry lasting the longest.
+	 *
+	 * @param consumer
+	 * 	receiver of overlapping entries
+	 */
+	public void forEachOverlap(OverlapConsumer consumer)
+	{
+		long maxEnd = Long.MIN_VALUE;
+		int maxEntry = -1;
+		for (int i = 0; i < size; ++i) {
+			if (starts[i] >= ends[i]) {
+				continue;
+			}
+			if (starts[i] < maxEnd) {
+				consumer.accept(maxEntry, entry(i));
+			}
+			if (ends[i] > maxEnd) {
+				maxEnd = ends[i];
+				maxEntry = entry(i);
+			}
+		}
+	}
+
+	private int entry(int position)
+	{
+		return order == null ? position : order[position];
+	}
+
+	/**
+	 * Fills maximum ends of implicit tree nodes, bottom up.  Nodes of level k are at positions having k lowest bits
+	 * set, the last node of incomplete tree may miss its right subtree which is then represented by the maximum end of
+	 * the last complete part.
+	 *
+	 * @return
+	 * 	level of root
+	 */
+	private int buildMaxEnds()
+	{
+		if (size == 0) {
+			return 0;
+		}
+		int last = 0;
+		long lastMax = 0;
+		for (int i = 0; i < size; i += 2) {
+			last = i;
+			maxEnds[i] = ends[i];
+			lastMax = ends[i];
+		}
+		int level;
+		for (level = 1; (1<<level) <= size; ++level) {
+			int half = 1<<(level-1);
+			for (int i = (half<<1)-1; i < size; i += half<<2) {
+				long leftMax = maxEnds[i-half];
+				long rightMax = i+half < size ? maxEnds[i+half] : lastMax;
+				maxEnds[i] = Math.max(ends[i], Math.max(leftMax, rightMax));
+			}
+			last = ((last>>level)&1) != 0 ? last-half : last+half;
+			if (last < size && maxEnds[last] > lastMax) {
+				lastMax = maxEnds[last];
+			}
+		}
+		return level-1;
+	}
+
+	private static boolean isSorted(long[] starts, int size)
+	{
+		for (int i = 1; i < size; ++i) {
+			if (starts[i] < starts[i-1]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sorts entry ids by starts, stable merge sort.
+	 */
+	private static int[] sortOrder(long[] starts, int size)
+	{
+		int[] order = new int[size];
+		for (int i = 0; i < size; ++i) {
+			order[i] = i;
+		}
+		int[] temp = new int[size];
+		for (int width = 1; width < size; width *= 2) {
+			for (int lo = 0; lo < size; lo += 2*width) {
+				int mid = Math.min(lo+width, size);
+				int hi = Math.min(lo+2*width, size);
+				if (mid >= hi || starts[order[mid-1]] <= starts[order[mid]]) {
+					System.arraycopy(order, lo, temp, lo, hi-lo);
+					continue;
+				}
+				for (int i = lo, j = mid, k = lo; k < hi; ++k) {
+					temp[k] = j >= hi || (i < mid && starts[order[i]] <= starts[order[j]]) ? order[i++] : order[j++];
+				}
+			}
+			int[] swap = order;
+			order = temp;
+			temp = swap;
+		}
+		return order;
+	}
+
+	/**
+	 * Receiver of overlapping entries.
+	 */
+	@FunctionalInterface
+	public interface OverlapConsumer
+	{
+		/**
+		 * Accepts overlapping entries.
+		 *
+		 * @param earlier
+		 * 	entry starting earlier
+		 * @param later
+		 * 	entry overlapping the earlier one
+		 */
+		void accept(int earlier, int later);
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Merges multiple subtitles streams into single one, stacking entries shown at the same time.
+ *
+ * The merge is sweep over entry boundaries of all inputs: output entry is produced for each interval between two
+ * consecutive boundaries where any input entry is shown, its text being texts of the shown entries, in the order of
+ * inputs, so the first input is on top.  The inputs are read in chunks and the output written in batches, so memory
+ * stays bounded by the chunk sizes and entries overlapping the current time.  The inputs are expected ordered by
+ * start, entry starting before already processed time is shown from the current time only.
+ */
+public class SubtitleMerger
+{
+	/** Number of output entries written at once. */
+	private static final int OUTPUT_BATCH = 4096;
+
+	private final Cursor[] cursors;
+
+	private final SubtitleTransform inputTransform;
+
+	private final SubtitleTransform outputTransform;
+
+	private final SubtitleWriter writer;
+
+	/** Currently shown entries, ordered by input and start. */
+	private int activeCount;
+
+	private int[] activeInputs = new int[8];
+
+	private Subtitles[] activeChunks = new Subtitles[8];
+
+	private ByteBuffer[] activeTexts = new ByteBuffer[8];
+
+	private int[] activeEntries = new int[8];
+
+	private long[] activeEnds = new long[8];
+
+	/**
+	 * Creates the merger.
+	 *
+	 * @param inputs
+	 * 	input readers, in order of priority
+	 * @param inputTransform
+	 * 	transformation applied to each input chunk, converting it to times
+	 * @param outputTransform
+	 * 	transformation applied to each output batch, converting it to output format range type
+	 * @param writer
+	 * 	output format writer
+	 */
+	public SubtitleMerger(List<SubtitleChunkReader> inputs, SubtitleTransform inputTransform, SubtitleTransform outputTransform, SubtitleWriter writer)
+	{
+		this.cursors = inputs.stream().map(Cursor::new).toArray(Cursor[]::new);
+		this.inputTransform = inputTransform;
+		this.outputTransform = outputTransform;
+		this.writer = writer;
+	}
+
+	/**
+	 * Merges the inputs into output.
+	 *
+	 * @param output
+	 * 	output channel, written after each batch
+	 *
+	 * @return
+	 * 	number of written entries
+	 */
+	public long run(WritableByteChannel output) throws IOException
+	{
+		SubtitleOutput encoder = new SubtitleOutput(output);
+		writer.writeHeader(encoder);
+		Subtitles.Builder builder = Subtitles.builder();
+		int pending = 0;
+		long written = 0;
+		long position = Long.MIN_VALUE;
+		for (;;) {
+			long next = Long.MAX_VALUE;
+			for (Cursor cursor: cursors) {
+				next = Math.min(next, cursor.headStart());
+			}
+			for (int i = 0; i < activeCount; ++i) {
+				next = Math.min(next, activeEnds[i]);
+			}
+			if (next == Long.MAX_VALUE) {
+				break;
+			}
+			if (next > position) {
+				if (activeCount != 0) {
+					emit(builder, position, next);
+					if (++pending == OUTPUT_BATCH) {
+						written += writeBatch(builder, written, encoder);
+						builder = Subtitles.builder();
+						pending = 0;
+					}
+				}
+				position = next;
+			}
+			removeEnded(position);
+			for (int input = 0; input < cursors.length; ++input) {
+				Cursor cursor = cursors[input];
+				while (cursor.headStart() <= position) {
+					if (cursor.chunk.ends[cursor.entry] > position) {
+						addActive(input, cursor);
+					}
+					++cursor.entry;
+				}
+			}
+		}
+		if (pending != 0) {
+			written += writeBatch(builder, written, encoder);
+		}
+		encoder.flush();
+		return written;
+	}
+
+	private void emit(Subtitles.Builder builder, long start, long end)
+	{
+		builder.startEntry(RangeType.TIME, start, end);
+		for (int i = 0; i < activeCount; ++i) {
+			Subtitles chunk = activeChunks[i];
+			int entry = activeEntries[i];
+			int lineStart = chunk.textOffsets[entry];
+			int textEnd = chunk.textOffsets[entry+1];
+			if (lineStart == textEnd) {
+				continue;
+			}
+			for (int p = lineStart; p < textEnd; ++p) {
+				if (chunk.text[p] == '\n') {
+					builder.addLine(activeTexts[i], lineStart, p);
+					lineStart = p+1;
+				}
+			}
+			builder.addLine(activeTexts[i], lineStart, textEnd);
+		}
+	}
+
+	private long writeBatch(Subtitles.Builder builder, long written, SubtitleOutput encoder) throws IOException
+	{
+		Subtitles subtitles = outputTransform.apply(builder.build(RangeType.TIME));
+		writer.writeChunk(subtitles, written, encoder);
+		encoder.flush();
+		return subtitles.size();
+	}
+
+	private void removeEnded(long position)
+	{
+		int kept = 0;
+		for (int i = 0; i < activeCount; ++i) {
+			if (activeEnds[i] > position) {
+				activeInputs[kept] = activeInputs[i];
+				activeChunks[kept] = activeChunks[i];
+				activeTexts[kept] = activeTexts[i];
+				activeEntries[kept] = activeEntries[i];
+				activeEnds[kept] = activeEnds[i];
+				++kept;
+			}
+		}
+		Arrays.fill(activeChunks, kept, activeCount, null);
+		Arrays.fill(activeTexts, kept, activeCount, null);
+		activeCount = kept;
+	}
+
+	/**
+	 * Adds entry at cursor to shown entries, after the entries of the same or higher priority input.
+	 */
+	private void addActive(int input, Cursor cursor)
+	{
+		if (activeCount == activeInputs.length) {
+			int capacity = activeCount*2;
+			activeInputs = Arrays.copyOf(activeInputs, capacity);
+			activeChunks = Arrays.copyOf(activeChunks, capacity);
+			activeTexts = Arrays.copyOf(activeTexts, capacity);
+			activeEntries = Arrays.copyOf(activeEntries, capacity);
+			activeEnds = Arrays.copyOf(activeEnds, capacity);
+		}
+		int at = activeCount;
+		while (at > 0 && activeInputs[at-1] > input) {
+			--at;
+		}
+		int moved = activeCount-at;
+		System.arraycopy(activeInputs, at, activeInputs, at+1, moved);
+		System.arraycopy(activeChunks, at, activeChunks, at+1, moved);
+		System.arraycopy(activeTexts, at, activeTexts, at+1, moved);
+		System.arraycopy(activeEntries, at, activeEntries, at+1, moved);
+		System.arraycopy(activeEnds, at, activeEnds, at+1, moved);
+		activeInputs[at] = input;
+		activeChunks[at] = cursor.chunk;
+		activeTexts[at] = cursor.text;
+		activeEntries[at] = cursor.entry;
+		activeEnds[at] = cursor.chunk.ends[cursor.entry];
+		++activeCount;
+	}
+
+	/**
+	 * Position in input, holding the current chunk.
+	 */
+	private class Cursor
+	{
+		final SubtitleChunkReader reader;
+
+		Subtitles chunk;
+
+		ByteBuffer text;
+
+		int entry;
+
+		boolean eof;
+
+		Cursor(SubtitleChunkReader reader)
+		{
+			this.reader = reader;
+		}
+
+		/**
+		 * Gets start of the next entry, reading next chunk if needed.
+		 *
+		 * @return
+		 * 	start of next entry or Long.MAX_VALUE at the end of input
+		 */
+		long headStart() throws IOException
+		{
+			while (chunk == null || entry >= chunk.size()) {
+				if (eof) {
+					return Long.MAX_VALUE;
+				}
+				Subtitles next = reader.next();
+				if (next == null) {
+					eof = true;
+					chunk = null;
+					text = null;
+					return Long.MAX_VALUE;
+				}
+				chunk = inputTransform.apply(next);
+				text = ByteBuffer.wrap(chunk.text);
+				entry = 0;
+			}
+			return chunk.starts[entry];
+		}
+	}
+}
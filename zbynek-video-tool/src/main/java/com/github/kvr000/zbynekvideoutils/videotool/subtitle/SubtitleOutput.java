@@ -0,0 +1,175 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * Encoder of subtitles output, writing bytes and decimal numbers into reusable direct buffer which is written to the
+ * channel in large batches.  Nothing is allocated per written value.
+ *
+ * The instance is not thread safe, each output needs its own.
+ */
+public class SubtitleOutput implements Flushable
+{
+	public static final int DEFAULT_BUFFER_SIZE = 1<<20;
+
+	/** Maximum length of encoded long number. */
+	private static final int MAX_NUMBER_LENGTH = 20;
+
+	private final WritableByteChannel channel;
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * Creates the output with default buffer size.
+	 *
+	 * @param channel
+	 * 	target channel, not closed by this object
+	 */
+	public SubtitleOutput(WritableByteChannel channel)
+	{
+		this(channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates the output.
+	 *
+	 * @param channel
+	 * 	target channel, not closed by this object
+	 * @param bufferSize
+	 * 	size of buffer
+	 */
+	public SubtitleOutput(WritableByteChannel channel, int bufferSize)
+	{
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, MAX_NUMBER_LENGTH));
+	}
+
+	/**
+	 * Writes single byte.
+	 */
+	public void write(byte value) throws IOException
+	{
+		if (!buffer.hasRemaining()) {
+			drain();
+		}
+		buffer.put(value);
+	}
+
+	/**
+	 * Writes bytes, copying them in bulk.
+	 */
+	public void write(byte[] data, int offset, int length) throws IOException
+	{
+		while (length > 0) {
+			if (!buffer.hasRemaining()) {
+				drain();
+			}
+			int count = Math.min(length, buffer.remaining());
+			buffer.put(data, offset, count);
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * Writes whole array.
+	 */
+	public void write(byte[] data) throws IOException
+	{
+		write(data, 0, data.length);
+	}
+
+	/**
+	 * Writes non-negative decimal number, padded with zeros to minimal width.
+	 *
+	 * @param value
+	 * 	non-negative number
+	 * @param width
+	 * 	minimal number of digits, at most 20
+	 */
+	public void writeDecimal(long value, int width) throws IOException
+	{
+		if (buffer.remaining() < MAX_NUMBER_LENGTH) {
+			drain();
+		}
+		int digits = 1;
+		for (long rest = value/10; rest != 0; rest /= 10) {
+			++digits;
+		}
+		int length = Math.max(digits, width);
+		int position = buffer.position();
+		for (int p = position+length-1; p >= position; --p) {
+			buffer.put(p, (byte) ('0'+value%10));
+			value /= 10;
+		}
+		buffer.position(position+length);
+	}
+
+	/**
+	 * Writes time in h:mm:ss.f format, truncating to the fraction precision.  Negative times are written as zero.
+	 *
+	 * @param us
+	 * 	time in microseconds
+	 * @param hourDigits
+	 * 	minimal number of hour digits
+	 * @param separator
+	 * 	separator of fraction
+	 * @param fractionDigits
+	 * 	number of fraction digits, at most 6
+	 */
+	public void writeTime(long us, int hourDigits, byte separator, int fractionDigits) throws IOException
+	{
+		long seconds = Math.max(0, us)/1_000_000;
+		long fraction = Math.max(0, us)%1_000_000;
+		for (int i = fractionDigits; i < 6; ++i) {
+			fraction /= 10;
+		}
+		writeDecimal(seconds/3600, hourDigits);
+		write((byte) ':');
+		writeDecimal(seconds/60%60, 2);
+		write((byte) ':');
+		writeDecimal(seconds%60, 2);
+		write(separator);
+		writeDecimal(fraction, fractionDigits);
+	}
+
+	/**
+	 * Writes buffered content to channel.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		drain();
+	}
+
+	private void drain() throws IOException
+	{
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
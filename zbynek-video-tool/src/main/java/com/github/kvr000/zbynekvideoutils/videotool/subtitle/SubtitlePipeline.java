@@ -0,0 +1,132 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Streaming subtitles conversion, processing the input in chunks of complete entries.
+ *
+ * Each chunk is read by {@link SubtitleChunkReader}, transformed and written before the next one is read, so memory
+ * stays bounded by the chunk size and the output is produced while the input is still being read.  Regular files
+ * are memory mapped instead of read into the chunk buffer.
+ */
+public class SubtitlePipeline
+{
+	public static final int DEFAULT_CHUNK_SIZE = 1<<20;
+
+	private final SubtitleFormat inputFormat;
+
+	private final SubtitleFormat outputFormat;
+
+	private final SubtitleTransform transform;
+
+	private final int chunkSize;
+
+	private final Charset inputCharset;
+
+	private final Charset outputCharset;
+
+	/**
+	 * Creates the pipeline.
+	 *
+	 * @param inputFormat
+	 * 	format of input
+	 * @param outputFormat
+	 * 	format of output
+	 * @param transform
+	 * 	transformation applied to each chunk, converting it to output format range type
+	 * @param chunkSize
+	 * 	size of input chunk buffer
+	 * @param inputCharset
+	 * 	charset of input, null to detect
+	 * @param outputCharset
+	 * 	charset of output, must be ASCII compatible
+	 */
+	public SubtitlePipeline(SubtitleFormat inputFormat, SubtitleFormat outputFormat, SubtitleTransform transform, int chunkSize,
+				Charset inputCharset, Charset outputCharset)
+	{
+		this.inputFormat = inputFormat;
+		this.outputFormat = outputFormat;
+		this.transform = transform;
+		this.chunkSize = chunkSize;
+		this.inputCharset = inputCharset;
+		this.outputCharset = outputCharset;
+	}
+
+	/**
+	 * Converts the input into output.
+	 *
+	 * @param input
+	 * 	input stream
+	 * @param output
+	 * 	output channel, written after each chunk
+	 *
+	 * @return
+	 * 	number of converted entries
+	 */
+	public long run(InputStream input, WritableByteChannel output) throws IOException
+	{
+		return run(new SubtitleChunkReader(inputFormat, input, chunkSize, inputCharset, outputCharset), output);
+	}
+
+	/**
+	 * Converts the input file into output.  The file is memory mapped and parsed in place.
+	 *
+	 * @param input
+	 * 	input file
+	 * @param output
+	 * 	output channel, written after each chunk
+	 *
+	 * @return
+	 * 	number of converted entries
+	 */
+	public long run(Path input, WritableByteChannel output) throws IOException
+	{
+		ByteBuffer mapped;
+		try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		return run(new SubtitleChunkReader(inputFormat, mapped, chunkSize, inputCharset, outputCharset), output);
+	}
+
+	private long run(SubtitleChunkReader chunks, WritableByteChannel output) throws IOException
+	{
+		SubtitleWriter writer = outputFormat.getWriter();
+		SubtitleOutput encoder = new SubtitleOutput(output);
+		writer.writeHeader(encoder);
+		long written = 0;
+		for (Subtitles subtitles; (subtitles = chunks.next()) != null; ) {
+			subtitles = transform.apply(subtitles);
+			writer.writeChunk(subtitles, written, encoder);
+			written += subtitles.size();
+			encoder.flush();
+		}
+		encoder.flush();
+		return written;
+	}
+}
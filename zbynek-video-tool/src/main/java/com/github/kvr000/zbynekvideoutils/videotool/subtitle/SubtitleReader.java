@@ -0,0 +1,134 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Reader of subtitle format, parsing UTF-8 encoded content directly from byte buffer.
+ */
+public interface SubtitleReader
+{
+	/**
+	 * Reads subtitles from buffer.
+	 *
+	 * @param buffer
+	 * 	content, from position to limit
+	 * @param sink
+	 * 	receiver of entries
+	 *
+	 * @throws IOException
+	 * 	if the content does not match the format
+	 */
+	default void read(ByteBuffer buffer, SubtitleSink sink) throws IOException
+	{
+		readChunk(buffer, sink, true);
+	}
+
+	/**
+	 * Reads chunk of subtitles, containing complete entries only.
+	 *
+	 * @param buffer
+	 * 	content, from position to limit
+	 * @param sink
+	 * 	receiver of entries
+	 * @param first
+	 * 	whether this is the first chunk of file, possibly containing header
+	 *
+	 * @throws IOException
+	 * 	if the content does not match the format
+	 */
+	void readChunk(ByteBuffer buffer, SubtitleSink sink, boolean first) throws IOException;
+
+	/**
+	 * Creates reader of single stream, which keeps the state needed by following chunks, such as field layout
+	 * declared in header.  By default, the reader is stateless and returns itself.
+	 *
+	 * @return
+	 * 	reader to be used for all chunks of single stream
+	 */
+	default SubtitleReader newStreamReader()
+	{
+		return this;
+	}
+
+	/**
+	 * Finds end of the last complete entry in buffer, so the content can be read in chunks.  By default, entries are
+	 * single lines.
+	 *
+	 * @param buffer
+	 * 	content, from position to limit
+	 *
+	 * @return
+	 * 	position after the last complete entry, buffer position if there is none
+	 */
+	default int chunkEnd(ByteBuffer buffer)
+	{
+		for (int p = buffer.limit(); --p >= buffer.position(); ) {
+			if (buffer.get(p) == '\n') {
+				return p+1;
+			}
+		}
+		return buffer.position();
+	}
+
+	/**
+	 * Finds end of the last blank line, for formats with entries terminated by blank line.
+	 *
+	 * @param buffer
+	 * 	content, from position to limit
+	 *
+	 * @return
+	 * 	position after the last blank line, buffer position if there is none
+	 */
+	static int blankLineChunkEnd(ByteBuffer buffer)
+	{
+		int start = buffer.position();
+		for (int p = buffer.limit(); --p > start; ) {
+			if (buffer.get(p) == '\n') {
+				int previous = p-1;
+				if (buffer.get(previous) == '\r' && previous > start) {
+					--previous;
+				}
+				if (buffer.get(previous) == '\n') {
+					return p+1;
+				}
+			}
+		}
+		return start;
+	}
+
+	/**
+	 * Skips UTF-8 byte order mark if present.
+	 *
+	 * @return
+	 * 	position after the byte order mark
+	 */
+	static int skipBom(ByteBuffer buffer)
+	{
+		int position = buffer.position();
+		if (buffer.limit()-position >= 3 &&
+			buffer.get(position) == (byte) 0xef && buffer.get(position+1) == (byte) 0xbb && buffer.get(position+2) == (byte) 0xbf) {
+			return position+3;
+		}
+		return position;
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+import com.github.kvr000.zbynekvideoutils.videotool.util.Rational;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Receiver of subtitle entries produced by subtitle readers.
+ *
+ * Text is passed as spans of UTF-8 bytes in the source buffer, so the receiver decides whether and when to decode
+ * it.  The spans are valid only during the call unless the receiver copies them.
+ */
+public interface SubtitleSink
+{
+	/**
+	 * Starts new subtitle entry.
+	 *
+	 * @param rangeType
+	 * 	type of start and end values
+	 * @param start
+	 * 	start frame or time in microseconds
+	 * @param end
+	 * 	end frame or time in microseconds
+	 */
+	void startEntry(RangeType rangeType, long start, long end);
+
+	/**
+	 * Adds text line to the current entry.
+	 *
+	 * @param buffer
+	 * 	source buffer
+	 * @param start
+	 * 	start of line in buffer
+	 * @param end
+	 * 	end of line in buffer, exclusive
+	 */
+	void addLine(ByteBuffer buffer, int start, int end);
+
+	/**
+	 * Appends text to the last line of the current entry, starting the first line if there is none.  Used by formats
+	 * where line is assembled from several spans.
+	 *
+	 * @param buffer
+	 * 	source buffer
+	 * @param start
+	 * 	start of text in buffer
+	 * @param end
+	 * 	end of text in buffer, exclusive
+	 */
+	void appendLine(ByteBuffer buffer, int start, int end);
+
+	/**
+	 * Sets frame rate declared by the subtitles file, called before any entry.
+	 *
+	 * @param frameRate
+	 * 	frame rate in frames per second
+	 */
+	default void setFrameRate(Rational frameRate)
+	{
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * Writer of subtitle format, producing ASCII structure around the text lines, which are copied in their charset.
+ */
+public interface SubtitleWriter
+{
+	/**
+	 * Writes subtitles.
+	 *
+	 * @param subtitles
+	 * 	subtitles, in range type supported by the format
+	 * @param output
+	 * 	output channel
+	 *
+	 * @throws IllegalArgumentException
+	 * 	if the subtitles range type is not supported by the format
+	 */
+	default void write(Subtitles subtitles, WritableByteChannel output) throws IOException
+	{
+		SubtitleOutput encoder = new SubtitleOutput(output);
+		writeHeader(encoder);
+		writeChunk(subtitles, 0, encoder);
+		encoder.flush();
+	}
+
+	/**
+	 * Writes header of the format, before the first chunk, so the output is valid even when there are no entries.  The
+	 * content is left buffered in output.  By default, there is no header.
+	 *
+	 * @param output
+	 * 	output encoder
+	 */
+	default void writeHeader(SubtitleOutput output) throws IOException
+	{
+	}
+
+	/**
+	 * Writes chunk of subtitles, continuing previously written chunks.  The content is left buffered in output.
+	 *
+	 * @param subtitles
+	 * 	subtitles, in range type supported by the format
+	 * @param firstEntry
+	 * 	ordinal of the first entry in whole output, zero for the first chunk
+	 * @param output
+	 * 	output encoder
+	 *
+	 * @throws IllegalArgumentException
+	 * 	if the subtitles range type is not supported by the format
+	 */
+	void writeChunk(Subtitles subtitles, long firstEntry, SubtitleOutput output) throws IOException;
+}
@@ -0,0 +1,423 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.FrameIndex;
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.FrameTimeLookup;
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+import com.github.kvr000.zbynekvideoutils.videotool.util.LinearKernel;
+import com.github.kvr000.zbynekvideoutils.videotool.util.Rational;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Subtitles stored column-wise, as primitive arrays of entry starts and ends and single UTF-8 text buffer.
+ *
+ * Text of entry i spans text bytes from textOffsets[i] to textOffsets[i+1], lines separated by '\n'.  All entries
+ * share the same range type, either frame ids or times in microseconds.  Timing transforms modify the subtitles in
+ * place and run as plain loops over the arrays.
+ */
+public class Subtitles
+{
+	private RangeType rangeType;
+
+	private final int size;
+
+	final long[] starts;
+
+	final long[] ends;
+
+	final int[] textOffsets;
+
+	final byte[] text;
+
+	private Rational frameRate;
+
+	/**
+	 * Creates subtitles from columns.
+	 *
+	 * @param rangeType
+	 * 	type of start and end values
+	 * @param size
+	 * 	number of entries
+	 * @param starts
+	 * 	entry starts
+	 * @param ends
+	 * 	entry ends
+	 * @param textOffsets
+	 * 	offsets of entry texts, followed by end of text
+	 * @param text
+	 * 	UTF-8 text, lines separated by '\n'
+	 * @param frameRate
+	 * 	frame rate declared by the subtitles file, null if unknown
+	 */
+	public Subtitles(RangeType rangeType, int size, long[] starts, long[] ends, int[] textOffsets, byte[] text, Rational frameRate)
+	{
+		if (starts.length < size || ends.length < size || textOffsets.length < size+1) {
+			throw new IllegalArgumentException("Columns shorter than size: size="+size);
+		}
+		this.rangeType = rangeType;
+		this.size = size;
+		this.starts = starts;
+		this.ends = ends;
+		this.textOffsets = textOffsets;
+		this.text = text;
+		this.frameRate = frameRate;
+	}
+
+	/**
+	 * Creates builder, receiving entries from {@link SubtitleReader}.
+	 */
+	public static Builder builder()
+	{
+		return new Builder();
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public RangeType getRangeType()
+	{
+		return rangeType;
+	}
+
+	/**
+	 * Gets frame rate declared by the subtitles file.
+	 *
+	 * @return
+	 * 	frame rate or null if not declared
+	 */
+	public Rational getFrameRate()
+	{
+		return frameRate;
+	}
+
+	public long start(int entry)
+	{
+		return starts[entry];
+	}
+
+	public long end(int entry)
+	{
+		return ends[entry];
+	}
+
+	/**
+	 * Decodes text of entry, lines separated by '\n'.
+	 */
+	public String text(int entry)
+	{
+		return new String(text, textOffsets[entry], textOffsets[entry+1]-textOffsets[entry], StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Decodes text lines of entry.
+	 */
+	public List<String> lines(int entry)
+	{
+		List<String> lines = new ArrayList<>();
+		int start = textOffsets[entry];
+		int end = textOffsets[entry+1];
+		for (int p = start; ; ++p) {
+			if (p == end || text[p] == '\n') {
+				lines.add(new String(text, start, p-start, StandardCharsets.UTF_8));
+				if (p == end) {
+					return lines;
+				}
+				start = p+1;
+			}
+		}
+	}
+
+	/**
+	 * Shifts all starts and ends.
+	 *
+	 * @param delta
+	 * 	shift in current range type units
+	 *
+	 * @return
+	 * 	this
+	 */
+	public Subtitles shift(long delta)
+	{
+		for (int i = 0; i < size; ++i) {
+			starts[i] += delta;
+			ends[i] += delta;
+		}
+		return this;
+	}
+
+	/**
+	 * Transforms all starts and ends linearly, value becoming toOrigin+(value-fromOrigin)*scale.
+	 *
+	 * @return
+	 * 	this
+	 */
+	public Subtitles linear(long fromOrigin, Rational scale, long toOrigin)
+	{
+		LinearKernel kernel = LinearKernel.getInstance();
+		kernel.apply(starts, 0, size, fromOrigin, scale, toOrigin);
+		kernel.apply(ends, 0, size, fromOrigin, scale, toOrigin);
+		return this;
+	}
+
+	/**
+	 * Retimes all starts and ends by piecewise linear mapping.
+	 *
+	 * @return
+	 * 	this
+	 */
+	public Subtitles retime(Retiming retiming)
+	{
+		retiming.apply(starts, size);
+		retiming.apply(ends, size);
+		return this;
+	}
+
+	/**
+	 * Converts frame ids to different frame rate.
+	 *
+	 * @return
+	 * 	this
+	 */
+	public Subtitles changeFrameRate(Rational from, Rational to)
+	{
+		requireRangeType(RangeType.FRAME);
+		return linear(0, new Rational(to.getNum()*from.getDen(), to.getDen()*from.getNum()), 0);
+	}
+
+	/**
+	 * Converts frame ids to times, using frame index.
+	 *
+	 * @return
+	 * 	this
+	 *
+	 * @throws IndexOutOfBoundsException
+	 * 	if the frame does not exist in video
+	 */
+	public Subtitles framesToTimes(FrameIndex index)
+	{
+		requireRangeType(RangeType.FRAME);
+		for (int i = 0; i < size; ++i) {
+			starts[i] = index.timeByRangeType(RangeType.FRAME, starts[i]);
+			ends[i] = index.timeByRangeType(RangeType.FRAME, ends[i]);
+		}
+		rangeType = RangeType.TIME;
+		return this;
+	}
+
+	/**
+	 * Converts frame ids to times, using constant frame rate.
+	 *
+	 * @return
+	 * 	this
+	 */
+	public Subtitles framesToTimes(Rational frameRate)
+	{
+		requireRangeType(RangeType.FRAME);
+		linear(0, new Rational(frameRate.getDen()*1_000_000L, frameRate.getNum()), 0);
+		rangeType = RangeType.TIME;
+		return this;
+	}
+
+	/**
+	 * Converts times to the lowest frames at or after the times.
+	 *
+	 * @return
+	 * 	this, with {@link FrameIndex#NO_FRAME} for times past the last frame
+	 */
+	public Subtitles timesToFrames(FrameIndex index)
+	{
+		requireRangeType(RangeType.TIME);
+		int[] startFrames = index.lowestFramesByTimes(size == starts.length ? starts : Arrays.copyOf(starts, size));
+		int[] endFrames = index.lowestFramesByTimes(size == ends.length ? ends : Arrays.copyOf(ends, size));
+		for (int i = 0; i < size; ++i) {
+			starts[i] = startFrames[i];
+			ends[i] = endFrames[i];
+		}
+		rangeType = RangeType.FRAME;
+		// frames now come from the video, not from the declared rate:
+		frameRate = null;
+		return this;
+	}
+
+	/**
+	 * Converts times to the nearest frames, using constant frame rate.
+	 *
+	 * @return
+	 * 	this
+	 */
+	public Subtitles timesToFrames(Rational frameRate)
+	{
+		requireRangeType(RangeType.TIME);
+		linear(0, new Rational(frameRate.getNum(), frameRate.getDen()*1_000_000L), 0);
+		rangeType = RangeType.FRAME;
+		this.frameRate = frameRate;
+		return this;
+	}
+
+	/**
+	 * Snaps starts and ends to times of the first frames shown at or after them.  Entry which would end at its start
+	 * is extended to the next frame, times past the last frame are kept.
+	 *
+	 * @param lookup
+	 * 	frame time lookup, all the times are prefetched from it at once
+	 *
+	 * @return
+	 * 	this
+	 */
+	public Subtitles snapToFrames(FrameTimeLookup lookup)
+	{
+		requireRangeType(RangeType.TIME);
+		long[] times = Arrays.copyOf(starts, size*2);
+		System.arraycopy(ends, 0, times, size, size);
+		lookup.prefetch(times);
+		for (int i = 0; i < size; ++i) {
+			long start = lookup.ceilingFrameTime(starts[i]);
+			long end = lookup.ceilingFrameTime(ends[i]);
+			if (start != FrameTimeLookup.NO_TIME) {
+				starts[i] = start;
+			}
+			if (end != FrameTimeLookup.NO_TIME) {
+				ends[i] = end;
+			}
+			if (ends[i] <= starts[i] && (end = lookup.ceilingFrameTime(starts[i]+1)) != FrameTimeLookup.NO_TIME) {
+				ends[i] = end;
+			}
+		}
+		return this;
+	}
+
+	private void requireRangeType(RangeType expected)
+	{
+		if (rangeType != expected) {
+			throw new IllegalStateException("Expected subtitles in "+expected+" range type, got: "+rangeType);
+		}
+	}
+
+	/**
+	 * Builder collecting entries from reader into columns.
+	 */
+	public static class Builder implements SubtitleSink
+	{
+		private RangeType rangeType;
+
+		private int size;
+
+		private long[] starts = new long[256];
+
+		private long[] ends = new long[256];
+
+		private int[] textOffsets = new int[257];
+
+		private byte[] text = new byte[16384];
+
+		private int textLength;
+
+		private boolean firstLine;
+
+		private Rational frameRate;
+
+		@Override
+		public void startEntry(RangeType rangeType, long start, long end)
+		{
+			if (this.rangeType == null) {
+				this.rangeType = rangeType;
+			}
+			else if (this.rangeType != rangeType) {
+				throw new IllegalArgumentException("Mixed range types in subtitles: "+this.rangeType+" "+rangeType);
+			}
+			if (size == starts.length) {
+				starts = Arrays.copyOf(starts, size*2);
+				ends = Arrays.copyOf(ends, size*2);
+				textOffsets = Arrays.copyOf(textOffsets, size*2+1);
+			}
+			starts[size] = start;
+			ends[size] = end;
+			textOffsets[size] = textLength;
+			++size;
+			textOffsets[size] = textLength;
+			firstLine = true;
+		}
+
+		@Override
+		public void addLine(ByteBuffer buffer, int start, int end)
+		{
+			int length = end-start+(firstLine ? 0 : 1);
+			if (textLength+length > text.length) {
+				text = Arrays.copyOf(text, Math.max(text.length*2, textLength+length));
+			}
+			if (!firstLine) {
+				text[textLength++] = '\n';
+			}
+			buffer.get(start, text, textLength, end-start);
+			textLength += end-start;
+			textOffsets[size] = textLength;
+			firstLine = false;
+		}
+
+		@Override
+		public void appendLine(ByteBuffer buffer, int start, int end)
+		{
+			if (firstLine) {
+				addLine(buffer, start, end);
+				return;
+			}
+			int length = end-start;
+			if (textLength+length > text.length) {
+				text = Arrays.copyOf(text, Math.max(text.length*2, textLength+length));
+			}
+			buffer.get(start, text, textLength, length);
+			textLength += length;
+			textOffsets[size] = textLength;
+		}
+
+		@Override
+		public void setFrameRate(Rational frameRate)
+		{
+			this.frameRate = frameRate;
+		}
+
+		/**
+		 * Builds the subtitles, trimming the columns.
+		 *
+		 * @param defaultRangeType
+		 * 	range type used when there are no entries
+		 */
+		public Subtitles build(RangeType defaultRangeType)
+		{
+			return new Subtitles(
+				rangeType == null ? defaultRangeType : rangeType,
+				size,
+				Arrays.copyOf(starts, size),
+				Arrays.copyOf(ends, size),
+				Arrays.copyOf(textOffsets, size+1),
+				Arrays.copyOf(text, textLength),
+				frameRate
+			);
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+import com.github.kvr000.zbynekvideoutils.videotool.util.Rational;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+
+/**
+ * Transcoder of subtitle text spans between ASCII compatible charsets, applied by wrapping {@link SubtitleSink}.
+ *
+ * The subtitle readers parse the structure directly in the source charset, only the text spans are transcoded, each
+ * once.  Spans consisting of ASCII only are passed through without copying.  Single byte source charsets are
+ * transcoded by lookup table, others through decoder and encoder with reused buffers.  Unmappable characters are
+ * replaced.
+ *
+ * The instance is not thread safe.
+ */
+public class Transcoder
+{
+	private final CharsetDecoder decoder;
+
+	private final CharsetEncoder encoder;
+
+	/** Encoded high bytes of single byte source charset, null for multi byte charsets. */
+	private final byte[][] table;
+
+	private byte[] output = new byte[1024];
+
+	private CharBuffer chars = CharBuffer.allocate(1024);
+
+	private ByteBuffer encoded = ByteBuffer.allocate(4096);
+
+	/**
+	 * Creates the transcoder.
+	 *
+	 * @param from
+	 * 	source charset
+	 * @param to
+	 * 	target charset
+	 */
+	public Transcoder(Charset from, Charset to)
+	{
+		this.decoder = from.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.encoder = to.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		if (from.newEncoder().maxBytesPerChar() == 1.0f) {
+			table = new byte[128][];
+			for (int b = 0; b < 128; ++b) {
+				String c = new String(new byte[]{ (byte) (b+128) }, from);
+				table[b] = c.getBytes(to);
+			}
+		}
+		else {
+			table = null;
+		}
+	}
+
+	/**
+	 * Wraps sink, transcoding the text spans passed to it.
+	 */
+	public SubtitleSink wrap(SubtitleSink sink)
+	{
+		return new SubtitleSink()
+		{
+			@Override
+			public void startEntry(RangeType rangeType, long start, long end)
+			{
+				sink.startEntry(rangeType, start, end);
+			}
+
+			@Override
+			public void addLine(ByteBuffer buffer, int start, int end)
+			{
+				int ascii = asciiEnd(buffer, start, end);
+				if (ascii == end) {
+					sink.addLine(buffer, start, end);
+				}
+				else {
+					ByteBuffer result = transcode(buffer, start, ascii, end);
+					sink.addLine(result, 0, result.limit());
+				}
+			}
+
+			@Override
+			public void appendLine(ByteBuffer buffer, int start, int end)
+			{
+				int ascii = asciiEnd(buffer, start, end);
+				if (ascii == end) {
+					sink.appendLine(buffer, start, end);
+				}
+				else {
+					ByteBuffer result = transcode(buffer, start, ascii, end);
+					sink.appendLine(result, 0, result.limit());
+				}
+			}
+
+			@Override
+			public void setFrameRate(Rational frameRate)
+			{
+				sink.setFrameRate(frameRate);
+			}
+		};
+	}
+
+	private static int asciiEnd(ByteBuffer buffer, int start, int end)
+	{
+		for (int p = start; p < end; ++p) {
+			if (buffer.get(p) < 0) {
+				return p;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Transcodes span which contains non-ASCII byte.
+	 *
+	 * @param ascii
+	 * 	end of leading ASCII part, which is copied as is
+	 *
+	 * @return
+	 * 	buffer containing the result from zero to limit, valid until next call
+	 */
+	private ByteBuffer transcode(ByteBuffer buffer, int start, int ascii, int end)
+	{
+		if (table == null) {
+			return transcodeGeneric(buffer, start, end);
+		}
+		int length = ascii-start;
+		ensureOutput(length+(end-ascii)*4);
+		buffer.get(start, output, 0, length);
+		for (int p = ascii; p < end; ++p) {
+			int b = buffer.get(p);
+			if (b >= 0) {
+				output[length++] = (byte) b;
+			}
+			else {
+				byte[] mapped = table[b+128];
+				ensureOutput(length+mapped.length+(end-p)*4);
+				System.arraycopy(mapped, 0, output, length, mapped.length);
+				length += mapped.length;
+			}
+		}
+		return ByteBuffer.wrap(output, 0, length);
+	}
+
+	private ByteBuffer transcodeGeneric(ByteBuffer buffer, int start, int end)
+	{
+		if (chars.capacity() < end-start) {
+			chars = CharBuffer.allocate(Math.max(chars.capacity()*2, end-start));
+		}
+		chars.clear();
+		decoder.reset().decode(buffer.slice(start, end-start), chars, true);
+		decoder.flush(chars);
+		chars.flip();
+		int needed = (int) Math.ceil(chars.remaining()*encoder.maxBytesPerChar());
+		if (encoded.capacity() < needed) {
+			encoded = ByteBuffer.allocate(Math.max(encoded.capacity()*2, needed));
+		}
+		encoded.clear();
+		encoder.reset().encode(chars, encoded, true);
+		encoder.flush(encoded);
+		encoded.flip();
+		return encoded;
+	}
+
+	private void ensureOutput(int size)
+	{
+		if (output.length < size) {
+			output = Arrays.copyOf(output, Math.max(output.length*2, size));
+		}
+	}
+}
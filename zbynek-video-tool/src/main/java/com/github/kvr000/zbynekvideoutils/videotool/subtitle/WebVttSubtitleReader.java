@@ -0,0 +1,125 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Reader of WebVTT (vtt) subtitles.
+ *
+ * The WEBVTT header block is required in the first chunk, NOTE, STYLE and REGION blocks are skipped, cue identifiers
+ * and cue settings are ignored.  Cue payload is passed as is, including markup, which is compatible with srt for the
+ * basic b, i and u tags.
+ */
+public class WebVttSubtitleReader implements SubtitleReader
+{
+	@Override
+	public void readChunk(ByteBuffer buffer, SubtitleSink sink, boolean first) throws IOException
+	{
+		new Scanner(buffer, first ? SubtitleReader.skipBom(buffer) : buffer.position()).read(sink, first);
+	}
+
+	@Override
+	public int chunkEnd(ByteBuffer buffer)
+	{
+		return SubtitleReader.blankLineChunkEnd(buffer);
+	}
+
+	private static class Scanner extends LineScanner
+	{
+		Scanner(ByteBuffer buffer, int position)
+		{
+			super(buffer, position);
+		}
+
+		void read(SubtitleSink sink, boolean first) throws IOException
+		{
+			if (first) {
+				if (!nextLine() || !skip("WEBVTT") || (position < lineEnd && (buffer.get(position)&0xff) > ' ')) {
+					throw new IOException("Expected WEBVTT header at line 1");
+				}
+				skipBlock();
+			}
+			for (;;) {
+				do {
+					if (!nextLine()) {
+						return;
+					}
+				} while (isBlank());
+
+				if (startsWithKeyword("NOTE") || startsWithKeyword("STYLE") || startsWithKeyword("REGION")) {
+					skipBlock();
+					continue;
+				}
+				if (!containsArrow()) {
+					// cue identifier:
+					if (!nextLine()) {
+						throw invalidTime();
+					}
+				}
+				long start = parseTime(lineEnd);
+				skipSpaces();
+				if (start == NO_TIME || !skip("-->")) {
+					throw invalidTime();
+				}
+				skipSpaces();
+				long end = parseTime(lineEnd);
+				if (end == NO_TIME) {
+					throw invalidTime();
+				}
+				sink.startEntry(RangeType.TIME, start, end);
+
+				while (nextLine() && position != lineEnd) {
+					sink.addLine(buffer, position, lineEnd);
+				}
+			}
+		}
+
+		private boolean startsWithKeyword(String keyword)
+		{
+			int end = position+keyword.length();
+			return startsWith(position, keyword) && (end == lineEnd || (buffer.get(end)&0xff) <= ' ');
+		}
+
+		private boolean containsArrow()
+		{
+			for (int p = position; p+3 <= lineEnd; ++p) {
+				if (buffer.get(p) == '-' && buffer.get(p+1) == '-' && buffer.get(p+2) == '>') {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void skipBlock()
+		{
+			while (nextLine() && !isBlank()) {
+			}
+		}
+
+		private IOException invalidTime()
+		{
+			return new IOException("Expected cue timing in vtt at line "+lineNumber);
+		}
+	}
+}
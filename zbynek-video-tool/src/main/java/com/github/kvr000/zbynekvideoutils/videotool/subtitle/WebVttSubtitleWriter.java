@@ -0,0 +1,63 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Writer of WebVTT (vtt) subtitles.  Cues are written without identifiers, times are truncated to milliseconds,
+ * negative times are written as zero.
+ */
+public class WebVttSubtitleWriter implements SubtitleWriter
+{
+	private static final byte[] HEADER = "WEBVTT\n\n".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] ARROW = " --> ".getBytes(StandardCharsets.US_ASCII);
+
+	@Override
+	public void writeHeader(SubtitleOutput output) throws IOException
+	{
+		output.write(HEADER);
+	}
+
+	@Override
+	public void writeChunk(Subtitles subtitles, long firstEntry, SubtitleOutput output) throws IOException
+	{
+		if (subtitles.getRangeType() != RangeType.TIME) {
+			throw new IllegalArgumentException("vtt requires subtitles in time range type, got: "+subtitles.getRangeType());
+		}
+		for (int i = 0; i < subtitles.size(); ++i) {
+			output.writeTime(subtitles.starts[i], 2, (byte) '.', 3);
+			output.write(ARROW);
+			output.writeTime(subtitles.ends[i], 2, (byte) '.', 3);
+			output.write((byte) '\n');
+			int start = subtitles.textOffsets[i];
+			int end = subtitles.textOffsets[i+1];
+			if (end != start) {
+				output.write(subtitles.text, start, end-start);
+				output.write((byte) '\n');
+			}
+			output.write((byte) '\n');
+		}
+	}
+}
@@ -0,0 +1,306 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.sync;
+
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+import com.github.kvr000.zbynekvideoutils.videotool.subtitle.Subtitles;
+import com.github.kvr000.zbynekvideoutils.videotool.util.Fft;
+import lombok.Value;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+
+/**
+ * Finds delays of subtitles against audio, by cross-correlation of subtitles on/off timeline with voice activity.
+ *
+ * Both signals are sampled per {@link VoiceActivityReader#FRAME_US} and their changes, subtitles appearing and
+ * disappearing and speech starting and ending, are correlated via FFT over the searched range of delays.  Correlating
+ * the changes instead of the levels gives peaks as narrow as the timing precision of the subtitles.  The peak is
+ * accepted if it stands out of the correlation values outside its lobe by {@link #MIN_SCORE} standard deviations.
+ *
+ * The global offset is searched over the whole subtitles, then windows are correlated in parallel around the global
+ * offset to find anchors for piecewise linear retiming, dropping weak and outlying windows and anchors lying on line
+ * between their neighbours.
+ */
+public class SubtitleSynchronizer
+{
+	/** Minimal peak height in standard deviations of correlation. */
+	public static final double MIN_SCORE = 6;
+
+	/** Minimal and maximal fraction of window covered by subtitles, to have anything to correlate. */
+	private static final double MIN_COVERAGE = 0.05;
+	private static final double MAX_COVERAGE = 0.95;
+
+	/** Maximal difference of anchor delay from median of its neighbours. */
+	private static final long OUTLIER_US = 1_000_000;
+
+	/** Number of neighbours on each side used for outlier detection. */
+	private static final int OUTLIER_NEIGHBOURS = 2;
+
+	/** Number of frames of voice activity moving average, suppressing syllable fluctuations before differentiation. */
+	private static final int SMOOTH_FRAMES = 25;
+
+	/** Half width of correlation peak, excluded from peak score statistics. */
+	private static final int PEAK_LOBE_FRAMES = 2*SMOOTH_FRAMES;
+
+	/** Tolerance of anchor delay from line between its neighbours, for removing it. */
+	private static final long SIMPLIFY_US = 50_000;
+
+	/** Changes of smoothed voice activity. */
+	private final float[] voiceEdges;
+
+	/**
+	 * Creates the synchronizer.
+	 *
+	 * @param voice
+	 * 	voice activity of audio, see {@link VoiceActivityReader}
+	 */
+	public SubtitleSynchronizer(float[] voice)
+	{
+		double[] sums = new double[voice.length+1];
+		for (int i = 0; i < voice.length; ++i) {
+			sums[i+1] = sums[i]+voice[i];
+		}
+		// centered average, so the edges are not delayed, shortened at the ends so the ends do not make edges:
+		this.voiceEdges = new float[voice.length];
+		double previous = 0;
+		for (int i = 0; i < voice.length; ++i) {
+			int from = Math.max(0, i-SMOOTH_FRAMES/2);
+			int to = Math.min(voice.length, i+SMOOTH_FRAMES-SMOOTH_FRAMES/2);
+			double smoothed = (sums[to]-sums[from])/(to-from);
+			voiceEdges[i] = i == 0 ? 0 : (float) (smoothed-previous);
+			previous = smoothed;
+		}
+	}
+
+	/**
+	 * Builds subtitles timeline, 1 for frames where any entry is shown, 0 otherwise.
+	 *
+	 * @param subtitles
+	 * 	subtitles in times
+	 *
+	 * @return
+	 * 	timeline per {@link VoiceActivityReader#FRAME_US}
+	 */
+	public static double[] timeline(Subtitles subtitles)
+	{
+		if (subtitles.getRangeType() != RangeType.TIME) {
+			throw new IllegalArgumentException("Expected subtitles in times, got: "+subtitles.getRangeType());
+		}
+		int frames = 0;
+		for (int i = 0; i < subtitles.size(); ++i) {
+			frames = (int) Math.max(frames, Math.min(Integer.MAX_VALUE, subtitles.end(i)/VoiceActivityReader.FRAME_US+1));
+		}
+		double[] timeline = new double[frames];
+		for (int i = 0; i < subtitles.size(); ++i) {
+			int start = (int) Math.max(0, subtitles.start(i)/VoiceActivityReader.FRAME_US);
+			int end = (int) Math.max(0, subtitles.end(i)/VoiceActivityReader.FRAME_US);
+			Arrays.fill(timeline, Math.min(start, frames), Math.min(end, frames), 1);
+		}
+		return timeline;
+	}
+
+	/**
+	 * Finds the global offset of subtitles.
+	 *
+	 * @param timeline
+	 * 	subtitles timeline
+	 * @param maxOffsetUs
+	 * 	maximum searched offset in both directions
+	 *
+	 * @return
+	 * 	anchor with delay at time zero or null if no significant peak was found
+	 */
+	public Anchor findOffset(double[] timeline, long maxOffsetUs)
+	{
+		Anchor anchor = correlate(timeline, 0, timeline.length, 0, (int) (maxOffsetUs/VoiceActivityReader.FRAME_US));
+		return anchor == null || anchor.score < MIN_SCORE ? null : new Anchor(0, anchor.delay, anchor.score);
+	}
+
+	/**
+	 * Finds anchors of piecewise linear retiming, correlating windows in parallel.
+	 *
+	 * @param timeline
+	 * 	subtitles timeline
+	 * @param windowUs
+	 * 	length of correlated window, windows overlap by half
+	 * @param centerUs
+	 * 	delay around which the windows are searched, typically global offset
+	 * @param maxDriftUs
+	 * 	maximum searched difference from the center delay
+	 * @param executor
+	 * 	executor running the window correlations
+	 *
+	 * @return
+	 * 	anchors ordered by time, empty if no window matched
+	 */
+	public List<Anchor> findAnchors(double[] timeline, long windowUs, long centerUs, long maxDriftUs, ExecutorService executor) throws IOException
+	{
+		int window = (int) (windowUs/VoiceActivityReader.FRAME_US);
+		int center = (int) (centerUs/VoiceActivityReader.FRAME_US);
+		int range = (int) (maxDriftUs/VoiceActivityReader.FRAME_US);
+		List<Future<Anchor>> futures = new ArrayList<>();
+		for (int from = 0; from < timeline.length; from += Math.max(1, window/2)) {
+			int windowFrom = from;
+			int windowTo = Math.min(timeline.length, from+window);
+			futures.add(executor.submit(() -> correlate(timeline, windowFrom, windowTo, center, range)));
+			if (windowTo == timeline.length) {
+				break;
+			}
+		}
+		List<Anchor> anchors = new ArrayList<>();
+		for (Future<Anchor> future: futures) {
+			try {
+				Anchor anchor = future.get();
+				if (anchor != null && anchor.score >= MIN_SCORE) {
+					anchors.add(anchor);
+				}
+			}
+			catch (ExecutionException ex) {
+				throw new IOException("Failed to correlate subtitles window: "+ex.getCause().getMessage(), ex.getCause());
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted correlating subtitles", ex);
+			}
+		}
+		return simplify(removeOutliers(anchors));
+	}
+
+	/**
+	 * Correlates window of subtitles timeline with voice activity.
+	 *
+	 * @return
+	 * 	anchor at window center or null if the window has too little or too much subtitles or the audio does not
+	 * 	cover the searched range
+	 */
+	private Anchor correlate(double[] timeline, int from, int to, int center, int range)
+	{
+		int length = to-from;
+		double sum = 0;
+		for (int i = from; i < to; ++i) {
+			sum += timeline[i];
+		}
+		if (length == 0 || sum < MIN_COVERAGE*length || sum > MAX_COVERAGE*length) {
+			return null;
+		}
+		double[] subtitles = new double[length];
+		for (int i = 0; i < length; ++i) {
+			subtitles[i] = timeline[from+i]-(from+i > 0 ? timeline[from+i-1] : 0);
+		}
+		int lags = 2*range+1;
+		double[] audio = new double[length+lags-1];
+		int audioStart = from+center-range;
+		if (Math.min(voiceEdges.length, (long) audioStart+audio.length)-Math.max(0, audioStart) < length) {
+			return null;
+		}
+		for (int i = Math.max(0, -audioStart); i < audio.length && audioStart+i < voiceEdges.length; ++i) {
+			audio[i] = voiceEdges[audioStart+i];
+		}
+		double[] correlation = new Fft(Fft.sizeFor(audio.length)).crossCorrelate(subtitles, audio, lags);
+
+		int best = 0;
+		for (int j = 1; j < lags; ++j) {
+			if (correlation[j] > correlation[best]) {
+				best = j;
+			}
+		}
+		// the peak is compared to correlation values outside of its own lobe:
+		double total = 0;
+		double squares = 0;
+		int count = 0;
+		for (int j = 0; j < lags; ++j) {
+			if (Math.abs(j-best) > PEAK_LOBE_FRAMES) {
+				total += correlation[j];
+				squares += correlation[j]*correlation[j];
+				++count;
+			}
+		}
+		double average = count == 0 ? 0 : total/count;
+		double deviation = count == 0 ? 0 : Math.sqrt(Math.max(0, squares/count-average*average));
+		double score = deviation == 0 ? 0 : (correlation[best]-average)/deviation;
+		return new Anchor(
+			(long) (from+to)/2*VoiceActivityReader.FRAME_US,
+			(long) (center-range+best)*VoiceActivityReader.FRAME_US,
+			score
+		);
+	}
+
+	/**
+	 * Removes anchors differing from median of their neighbours by more than {@link #OUTLIER_US}.
+	 */
+	private static List<Anchor> removeOutliers(List<Anchor> anchors)
+	{
+		List<Anchor> result = new ArrayList<>();
+		for (int i = 0; i < anchors.size(); ++i) {
+			int from = Math.max(0, i-OUTLIER_NEIGHBOURS);
+			int to = Math.min(anchors.size(), i+OUTLIER_NEIGHBOURS+1);
+			long[] delays = anchors.subList(from, to).stream().mapToLong(Anchor::getDelay).sorted().toArray();
+			if (Math.abs(anchors.get(i).delay-delays[delays.length/2]) <= OUTLIER_US) {
+				result.add(anchors.get(i));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Removes anchors lying on line between their neighbours, within {@link #SIMPLIFY_US}.
+	 */
+	private static List<Anchor> simplify(List<Anchor> anchors)
+	{
+		if (anchors.size() <= 2) {
+			return anchors;
+		}
+		List<Anchor> result = new ArrayList<>();
+		result.add(anchors.get(0));
+		for (int i = 1; i < anchors.size()-1; ++i) {
+			Anchor previous = result.get(result.size()-1);
+			Anchor current = anchors.get(i);
+			Anchor next = anchors.get(i+1);
+			double expected = previous.delay+(double) (next.delay-previous.delay)*(current.time-previous.time)/(next.time-previous.time);
+			if (Math.abs(current.delay-expected) > SIMPLIFY_US) {
+				result.add(current);
+			}
+		}
+		result.add(anchors.get(anchors.size()-1));
+		return result;
+	}
+
+	/**
+	 * Delay of subtitles found at time.
+	 */
+	@Value
+	public static class Anchor
+	{
+		/** Time of subtitles in microseconds. */
+		long time;
+
+		/** Delay of subtitles at the time in microseconds. */
+		long delay;
+
+		/** Height of correlation peak in standard deviations. */
+		double score;
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.sync;
+
+import com.github.kvr000.zbynekvideoutils.videotool.video.VideoInfoReader;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Reads voice activity envelope of video audio track.
+ *
+ * The audio is decoded by ffmpeg, downmixed to mono 8 kHz 16-bit PCM and piped in chunks, so the audio is never held
+ * in memory, only the envelope having single value per {@link #FRAME_US} frame.  The envelope is log energy of
+ * pre-emphasized signal, suppressing hum and low frequency noise, normalized between noise floor and speech level
+ * percentiles into activity from 0 to 1.
+ */
+@Log4j2
+public class VoiceActivityReader
+{
+	/** Duration of envelope frame. */
+	public static final int FRAME_US = 10_000;
+
+	private static final int SAMPLE_RATE = 8000;
+
+	private static final int FRAME_SAMPLES = SAMPLE_RATE/(1_000_000/FRAME_US);
+
+	private static final int CHUNK_SIZE = 65536;
+
+	/** Percentile of frame energies considered noise floor. */
+	private static final double NOISE_PERCENTILE = 0.2;
+
+	/** Percentile of frame energies considered full speech level. */
+	private static final double SPEECH_PERCENTILE = 0.9;
+
+	/**
+	 * Reads voice activity of the first audio stream of video.
+	 *
+	 * @param video
+	 * 	video file
+	 *
+	 * @return
+	 * 	voice activity per frame
+	 */
+	public float[] readActivity(Path video) throws IOException
+	{
+		Process process = new ProcessBuilder(List.of(
+				"ffmpeg", "-hide_banner", "-loglevel", "error", "-nostdin", "-i", video.toString(),
+				"-map", "0:a:0", "-vn", "-ac", "1", "-ar", String.valueOf(SAMPLE_RATE), "-f", "s16le", "-acodec", "pcm_s16le", "-"
+			))
+			.redirectError(ProcessBuilder.Redirect.INHERIT)
+			.start();
+		process.getOutputStream().close();
+		float[] activity;
+		try (InputStream input = process.getInputStream()) {
+			activity = readActivity(input);
+		}
+		catch (Throwable ex) {
+			process.destroy();
+			throw ex;
+		}
+		VideoInfoReader.waitForProcess(process, "ffmpeg");
+		log.debug("Read audio voice activity: file={} seconds={}", video, (long) activity.length*FRAME_US/1_000_000);
+		return activity;
+	}
+
+	/**
+	 * Reads voice activity from stream of mono 8 kHz signed 16-bit little endian PCM.
+	 *
+	 * @param input
+	 * 	PCM stream
+	 *
+	 * @return
+	 * 	voice activity per frame
+	 */
+	public float[] readActivity(InputStream input) throws IOException
+	{
+		float[] energies = new float[65536];
+		int frames = 0;
+		byte[] chunk = new byte[CHUNK_SIZE];
+		int pending = 0;
+		double previous = 0;
+		double energy = 0;
+		int samples = 0;
+		for (int read; (read = input.read(chunk, pending, chunk.length-pending)) >= 0; ) {
+			int length = pending+read;
+			int end = length&~1;
+			for (int p = 0; p < end; p += 2) {
+				double sample = (short) ((chunk[p]&0xff)|(chunk[p+1]<<8));
+				double emphasized = sample-0.97*previous;
+				previous = sample;
+				energy += emphasized*emphasized;
+				if (++samples == FRAME_SAMPLES) {
+					if (frames == energies.length) {
+						energies = Arrays.copyOf(energies, frames*2);
+					}
+					energies[frames++] = (float) Math.log10(energy/FRAME_SAMPLES+1);
+					energy = 0;
+					samples = 0;
+				}
+			}
+			// odd byte is kept for the next chunk:
+			pending = length-end;
+			if (pending != 0) {
+				chunk[0] = chunk[end];
+			}
+		}
+		return normalize(energies, frames);
+	}
+
+	/**
+	 * Normalizes log energies into activity between noise floor and speech level.
+	 */
+	private static float[] normalize(float[] energies, int frames)
+	{
+		float[] activity = Arrays.copyOf(energies, frames);
+		if (frames == 0) {
+			return activity;
+		}
+		float[] sorted = activity.clone();
+		Arrays.sort(sorted);
+		float floor = sorted[(int) (NOISE_PERCENTILE*(frames-1))];
+		float speech = sorted[(int) (SPEECH_PERCENTILE*(frames-1))];
+		float range = Math.max(speech-floor, 1e-3f);
+		for (int i = 0; i < frames; ++i) {
+			activity[i] = Math.min(1, Math.max(0, (activity[i]-floor)/range));
+		}
+		return activity;
+	}
+}
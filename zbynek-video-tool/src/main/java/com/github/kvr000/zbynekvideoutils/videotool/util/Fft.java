@@ -0,0 +1,168 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.util;
+
+
+/**
+ * Radix-2 fast Fourier transform of fixed power of two size, with precomputed twiddle factors.
+ *
+ * The instance is immutable and may be shared across threads, the transformed arrays are supplied by caller.
+ */
+public class Fft
+{
+	private final int size;
+
+	private final double[] cos;
+
+	private final double[] sin;
+
+	/**
+	 * Creates transform of the size.
+	 *
+	 * @param size
+	 * 	transform size, power of two
+	 */
+	public Fft(int size)
+	{
+		if (size < 1 || Integer.bitCount(size) != 1) {
+			throw new IllegalArgumentException("FFT size must be power of two: "+size);
+		}
+		this.size = size;
+		this.cos = new double[size/2];
+		this.sin = new double[size/2];
+		for (int i = 0; i < size/2; ++i) {
+			double angle = -2*Math.PI*i/size;
+			cos[i] = Math.cos(angle);
+			sin[i] = Math.sin(angle);
+		}
+	}
+
+	/**
+	 * Gets the smallest power of two size not less than length.
+	 */
+	public static int sizeFor(int length)
+	{
+		return length <= 1 ? 1 : Integer.highestOneBit(length-1)<<1;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Transforms complex values in place.
+	 *
+	 * @param re
+	 * 	real parts
+	 * @param im
+	 * 	imaginary parts
+	 * @param inverse
+	 * 	whether to compute inverse transform, scaled by 1/size
+	 */
+	public void transform(double[] re, double[] im, boolean inverse)
+	{
+		for (int i = 1, j = 0; i < size; ++i) {
+			int bit = size>>1;
+			for (; (j&bit) != 0; bit >>= 1) {
+				j ^= bit;
+			}
+			j |= bit;
+			if (i < j) {
+				double t = re[i];
+				re[i] = re[j];
+				re[j] = t;
+				t = im[i];
+				im[i] = im[j];
+				im[j] = t;
+			}
+		}
+		double direction = inverse ? -1 : 1;
+		for (int length = 2; length <= size; length <<= 1) {
+			int half = length>>1;
+			int step = size/length;
+			for (int start = 0; start < size; start += length) {
+				for (int k = 0; k < half; ++k) {
+					double wr = cos[k*step];
+					double wi = direction*sin[k*step];
+					int a = start+k;
+					int b = a+half;
+					double xr = re[b]*wr-im[b]*wi;
+					double xi = re[b]*wi+im[b]*wr;
+					re[b] = re[a]-xr;
+					im[b] = im[a]-xi;
+					re[a] += xr;
+					im[a] += xi;
+				}
+			}
+		}
+		if (inverse) {
+			double scale = 1.0/size;
+			for (int i = 0; i < size; ++i) {
+				re[i] *= scale;
+				im[i] *= scale;
+			}
+		}
+	}
+
+	/**
+	 * Computes cross-correlation of two real signals, result[j] = sum of a[t]*b[t+j].  Both signals are transformed
+	 * by single complex transform, packed as real and imaginary parts.
+	 *
+	 * @param a
+	 * 	first signal, shorter or equal
+	 * @param b
+	 * 	second signal, not longer than size
+	 * @param lags
+	 * 	number of computed lags, neither lags nor a.length+lags-1 may exceed size so the correlation does not wrap
+	 * 	around
+	 *
+	 * @return
+	 * 	correlation for lags from 0 to lags-1
+	 */
+	public double[] crossCorrelate(double[] a, double[] b, int lags)
+	{
+		if (b.length > size || a.length+lags-1 > size || lags > size) {
+			throw new IllegalArgumentException("Signals longer than FFT size: a="+a.length+" b="+b.length+" lags="+lags+" size="+size);
+		}
+		double[] re = new double[size];
+		double[] im = new double[size];
+		System.arraycopy(a, 0, re, 0, a.length);
+		System.arraycopy(b, 0, im, 0, b.length);
+		transform(re, im, false);
+		// separate spectra A and B, multiply conj(A)*B, pairs k and size-k are processed together:
+		for (int k = 0; k <= size/2; ++k) {
+			int n = (size-k)&(size-1);
+			double xr = re[k], xi = im[k], nr = re[n], ni = im[n];
+			double ar = (xr+nr)/2, ai = (xi-ni)/2;
+			double br = (xi+ni)/2, bi = -(xr-nr)/2;
+			re[k] = ar*br+ai*bi;
+			im[k] = ar*bi-ai*br;
+			if (n != k) {
+				// spectra at size-k are conjugates of those at k:
+				re[n] = re[k];
+				im[n] = -im[k];
+			}
+		}
+		transform(re, im, true);
+		double[] result = new double[lags];
+		System.arraycopy(re, 0, result, 0, lags);
+		return result;
+	}
+}
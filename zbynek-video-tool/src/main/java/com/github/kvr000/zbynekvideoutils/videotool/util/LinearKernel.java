@@ -0,0 +1,77 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.util;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Kernel transforming ranges of arrays linearly, value becoming toOrigin+(value-fromOrigin)*scale, rounded to the
+ * nearest the same way as {@link Rational#multiply(long)}.
+ *
+ * The vector implementation is chosen at runtime when the jdk.incubator.vector module is present (java --add-modules
+ * jdk.incubator.vector) and the zbynekvideotool.vector system property is not false, scalar implementation is used
+ * otherwise.  Both produce identical results.
+ */
+@Log4j2
+public abstract class LinearKernel
+{
+	private static final LinearKernel INSTANCE = create();
+
+	/**
+	 * Gets the best available kernel.
+	 */
+	public static LinearKernel getInstance()
+	{
+		return INSTANCE;
+	}
+
+	/**
+	 * Transforms values in place.
+	 *
+	 * @param values
+	 * 	values to transform
+	 * @param from
+	 * 	first index, inclusive
+	 * @param to
+	 * 	last index, exclusive
+	 * @param fromOrigin
+	 * 	origin of source values
+	 * @param scale
+	 * 	scale, denominator must be positive
+	 * @param toOrigin
+	 * 	origin of target values
+	 */
+	public abstract void apply(long[] values, int from, int to, long fromOrigin, Rational scale, long toOrigin);
+
+	private static LinearKernel create()
+	{
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() &&
+			!"false".equals(System.getProperty("zbynekvideotool.vector"))) {
+			try {
+				return (LinearKernel) Class.forName(LinearKernel.class.getPackageName()+".VectorLinearKernel")
+					.getConstructor().newInstance();
+			}
+			catch (ReflectiveOperationException|LinkageError ex) {
+				log.debug("Vector linear kernel not available, using scalar", ex);
+			}
+		}
+		return new ScalarLinearKernel();
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.util;
+
+import lombok.Value;
+
+import java.math.BigInteger;
+
+
+/**
+ * Rational number, as used by ffmpeg for time bases and frame rates.
+ */
+@Value
+public class Rational
+{
+	long num;
+
+	long den;
+
+	/**
+	 * Parses rational in num/den or num:den format.
+	 *
+	 * @throws IllegalArgumentException
+	 * 	if the value is not in expected format or denominator is zero
+	 */
+	public static Rational parse(String value)
+	{
+		int split = value.indexOf('/');
+		if (split < 0) {
+			split = value.indexOf(':');
+		}
+		try {
+			Rational result = split < 0 ?
+				new Rational(Long.parseLong(value), 1) :
+				new Rational(Long.parseLong(value.substring(0, split)), Long.parseLong(value.substring(split+1)));
+			if (result.den == 0) {
+				throw new IllegalArgumentException("Denominator is zero: "+value);
+			}
+			return result;
+		}
+		catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("Expected num/den rational, got: "+value, ex);
+		}
+	}
+
+	/**
+	 * Multiplies value by this rational, rounding to the nearest.
+	 */
+	public long multiply(long value)
+	{
+		return mulDivRound(value, num, den);
+	}
+
+	/**
+	 * Converts ticks in this time base to microseconds, rounding to the nearest.
+	 */
+	public long ticksToUs(long ticks)
+	{
+		return mulDivRound(ticks, num*1_000_000L, den);
+	}
+
+	/**
+	 * Converts microseconds to ticks in this time base, rounding to the nearest.
+	 */
+	public long usToTicks(long us)
+	{
+		return mulDivRound(us, den, num*1_000_000L);
+	}
+
+	public double doubleValue()
+	{
+		return (double) num/den;
+	}
+
+	private static long mulDivRound(long value, long mul, long div)
+	{
+		try {
+			return Math.floorDiv(Math.addExact(Math.multiplyExact(value, mul), div/2), div);
+		}
+		catch (ArithmeticException ex) {
+			BigInteger[] qr = BigInteger.valueOf(value).multiply(BigInteger.valueOf(mul))
+				.add(BigInteger.valueOf(div/2))
+				.divideAndRemainder(BigInteger.valueOf(div));
+			return (qr[1].signum() < 0 ? qr[0].subtract(BigInteger.ONE) : qr[0]).longValueExact();
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return num+"/"+den;
+	}
+}
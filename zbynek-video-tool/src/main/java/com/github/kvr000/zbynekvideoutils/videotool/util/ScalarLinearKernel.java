@@ -0,0 +1,34 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.util;
+
+
+/**
+ * Scalar implementation of {@link LinearKernel}.
+ */
+public class ScalarLinearKernel extends LinearKernel
+{
+	@Override
+	public void apply(long[] values, int from, int to, long fromOrigin, Rational scale, long toOrigin)
+	{
+		for (int i = from; i < to; ++i) {
+			values[i] = toOrigin+scale.multiply(values[i]-fromOrigin);
+		}
+	}
+}
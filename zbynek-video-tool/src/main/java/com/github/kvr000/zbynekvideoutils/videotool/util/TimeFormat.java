@@ -0,0 +1,75 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.util;
+
+import java.math.BigDecimal;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Time parsing and formatting utilities, all times are in microseconds.
+ */
+public class TimeFormat
+{
+	private static final Pattern TIME_FORMAT_PATTERN = Pattern.compile("^([-+])?(?:(\\d+):)?(?:(\\d+):)?(\\d+(?:\\.\\d*)?)$");
+
+	/**
+	 * Parses time in [-][[hh:]mm:]ss[.ssssss] format.
+	 *
+	 * @param time
+	 * 	time string
+	 *
+	 * @return
+	 * 	time in microseconds
+	 *
+	 * @throws IllegalArgumentException
+	 * 	if the time is not in expected format
+	 */
+	public static long strToUsTime(String time)
+	{
+		Matcher match = TIME_FORMAT_PATTERN.matcher(time);
+		if (!match.matches()) {
+			throw new IllegalArgumentException("Expected [-][[hh:]mm:]ss[.ssssss] for time format, got: "+time);
+		}
+		// with single colon, the first group is minutes:
+		String hours = match.group(3) == null ? null : match.group(2);
+		String minutes = match.group(3) == null ? match.group(2) : match.group(3);
+		long us = (hours == null ? 0 : Long.parseLong(hours))*3600_000_000L +
+			(minutes == null ? 0 : Long.parseLong(minutes))*60_000_000L +
+			new BigDecimal(match.group(4)).movePointRight(6).longValue();
+		return "-".equals(match.group(1)) ? -us : us;
+	}
+
+	/**
+	 * Formats time as hh:mm:ss.ssssss .
+	 *
+	 * @param us
+	 * 	time in microseconds
+	 *
+	 * @return
+	 * 	formatted time
+	 */
+	public static String usToStr(long us)
+	{
+		String sign = us < 0 ? "-" : "";
+		us = Math.abs(us);
+		return String.format("%s%02d:%02d:%02d.%06d", sign, us/3600_000_000L, us/60_000_000L%60, us/1_000_000L%60, us%1_000_000L);
+	}
+}
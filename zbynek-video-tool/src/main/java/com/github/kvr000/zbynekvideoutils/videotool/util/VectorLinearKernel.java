@@ -0,0 +1,88 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.util;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * Vector API implementation of {@link LinearKernel}, loaded only when jdk.incubator.vector module is present.
+ *
+ * There is no vector long division, so the quotient is estimated in double lanes and corrected to the exact rounded
+ * result using the remainder computed in wrapping long arithmetic: the true remainder is small, so the overflowing
+ * products cancel out.  Conversions between long and double lanes are not intrinsified in all JDKs, so they are done
+ * by adding magic constant to the bit pattern, which is exact for values well within 2^51.  Values too far from
+ * origin or too large scale are delegated to the scalar kernel.
+ */
+public class VectorLinearKernel extends LinearKernel
+{
+	private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+	/** Maximum distance of value from origin, about 12 days in microseconds. */
+	static final long MAX_DELTA = 1L<<40;
+
+	/** Maximum absolute scale, keeping the scaled delta within 2^50. */
+	static final long MAX_SCALE = 1L<<10;
+
+	/** 1.5*2^52, adding it to double within 2^51 leaves the rounded integer in the low bits of mantissa. */
+	private static final double MAGIC = 0x1.8p52;
+
+	private static final long MAGIC_BITS = Double.doubleToRawLongBits(MAGIC);
+
+	private final ScalarLinearKernel scalar = new ScalarLinearKernel();
+
+	@Override
+	public void apply(long[] values, int from, int to, long fromOrigin, Rational scale, long toOrigin)
+	{
+		long num = scale.getNum();
+		long den = scale.getDen();
+		if (den <= 0 || den >= MAX_DELTA || Math.abs(num) > MAX_SCALE*den) {
+			scalar.apply(values, from, to, fromOrigin, scale, toOrigin);
+			return;
+		}
+		long half = den/2;
+		double ratio = (double) num/den;
+		int bound = from+LONGS.loopBound(to-from);
+		int i = from;
+		for (; i < bound; i += LONGS.length()) {
+			LongVector delta = LongVector.fromArray(LONGS, values, i).sub(fromOrigin);
+			if (delta.add(MAX_DELTA).compare(VectorOperators.UNSIGNED_GT, 2*MAX_DELTA).anyTrue()) {
+				scalar.apply(values, i, i+LONGS.length(), fromOrigin, scale, toOrigin);
+				continue;
+			}
+			LongVector q = delta.add(MAGIC_BITS).viewAsFloatingLanes().sub(MAGIC)
+				.mul(ratio)
+				.add(MAGIC).viewAsIntegralLanes().sub(MAGIC_BITS);
+			// q is within two of the result, remainder of rounded numerator must end up within [0, den):
+			LongVector r = delta.mul(num).add(half).sub(q.mul(den));
+			for (int step = 0; step < 2; ++step) {
+				LongVector negative = r.lanewise(VectorOperators.ASHR, 63);
+				q = q.add(negative);
+				r = r.add(negative.and(den));
+				LongVector below = r.sub(den).lanewise(VectorOperators.ASHR, 63);
+				q = q.add(below.add(1));
+				r = r.sub(below.not().and(den));
+			}
+			q.add(toOrigin).intoArray(values, i);
+		}
+		scalar.apply(values, i, to, fromOrigin, scale, toOrigin);
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.video;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Video file information, as provided by ffprobe -show_format -show_streams .
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class VideoInfo
+{
+	private Format format;
+
+	private List<Stream> streams = List.of();
+
+	/**
+	 * Finds the first video stream.
+	 *
+	 * @return
+	 * 	the first video stream or null if there is none
+	 */
+	public Stream firstVideoStream()
+	{
+		return streams.stream()
+			.filter(stream -> "video".equals(stream.getCodecType()))
+			.findFirst()
+			.orElse(null);
+	}
+
+	@Data
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class Format
+	{
+		@JsonProperty("format_name")
+		private String formatName;
+
+		private String duration;
+
+		private String size;
+	}
+
+	@Data
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class Stream
+	{
+		private int index;
+
+		@JsonProperty("codec_type")
+		private String codecType;
+
+		@JsonProperty("codec_name")
+		private String codecName;
+
+		@JsonProperty("time_base")
+		private String timeBase;
+
+		@JsonProperty("r_frame_rate")
+		private String rFrameRate;
+
+		@JsonProperty("avg_frame_rate")
+		private String avgFrameRate;
+
+		@JsonProperty("start_pts")
+		private Long startPts;
+
+		@JsonProperty("nb_frames")
+		private String nbFrames;
+
+		private String duration;
+
+		private Map<String, String> tags = Map.of();
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.video;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+
+/**
+ * Reads video file information via ffprobe.
+ */
+public class VideoInfoReader
+{
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	public VideoInfo readVideoInfo(Path video) throws IOException
+	{
+		Process process = new ProcessBuilder(List.of(
+				"ffprobe", "-hide_banner", "-loglevel", "fatal", "-show_error",
+				"-show_format", "-show_streams", "-print_format", "json", "--", video.toString()
+			))
+			.redirectError(ProcessBuilder.Redirect.INHERIT)
+			.start();
+		process.getOutputStream().close();
+		VideoInfo info;
+		try (InputStream input = process.getInputStream()) {
+			info = OBJECT_MAPPER.readValue(input, VideoInfo.class);
+		}
+		catch (Throwable ex) {
+			process.destroy();
+			throw ex;
+		}
+		waitForProcess(process, "ffprobe");
+		return info;
+	}
+
+	/**
+	 * Waits for external process and checks its exit code.
+	 *
+	 * @throws IOException
+	 * 	if the process exited with error or waiting was interrupted
+	 */
+	public static void waitForProcess(Process process, String name) throws IOException
+	{
+		try {
+			int exit = process.waitFor();
+			if (exit != 0) {
+				throw new IOException(name+" exited with error: exit="+exit);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for "+name, e);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+
+
+public class CompressedFrameIndexTest
+{
+	@Test
+	public void frameTime_whenCompressed_thenSame()
+	{
+		ArrayFrameIndex index = index(5*CompressedFrameIndex.BLOCK_SIZE+17);
+
+		CompressedFrameIndex compressed = CompressedFrameIndex.compress(index);
+
+		assertEquals(compressed.size(), index.size());
+		for (int i = 0; i < index.size(); ++i) {
+			assertEquals(compressed.frameTime(i), index.frameTime(i), "frame "+i);
+		}
+	}
+
+	@Test
+	public void lowestFrameByTime_whenAnyTime_thenSameAsArray()
+	{
+		ArrayFrameIndex index = index(3*CompressedFrameIndex.BLOCK_SIZE+1);
+		CompressedFrameIndex compressed = CompressedFrameIndex.compress(index);
+
+		for (long time = -1; time <= index.frameTime(index.size()-1)+1; time += 997) {
+			assertEquals(compressed.lowestFrameByTime(time), index.lowestFrameByTime(time), "time "+time);
+		}
+		assertEquals(compressed.lowestFrameByTime(index.frameTime(index.size()-1)+1), FrameIndex.NO_FRAME);
+	}
+
+	@Test
+	public void lowestFramesByTimes_whenSorted_thenSameAsArray()
+	{
+		ArrayFrameIndex index = index(10*CompressedFrameIndex.BLOCK_SIZE);
+		CompressedFrameIndex compressed = CompressedFrameIndex.compress(index);
+		long[] times = times(index, 5000);
+		Arrays.sort(times);
+
+		assertEquals(compressed.lowestFramesByTimes(times), index.lowestFramesByTimes(times));
+	}
+
+	@Test
+	public void lowestFramesByTimes_whenUnsorted_thenSameAsArray()
+	{
+		ArrayFrameIndex index = index(10*CompressedFrameIndex.BLOCK_SIZE);
+		CompressedFrameIndex compressed = CompressedFrameIndex.compress(index);
+		long[] times = times(index, 5000);
+
+		assertEquals(compressed.lowestFramesByTimes(times), index.lowestFramesByTimes(times));
+	}
+
+	private static ArrayFrameIndex index(int frames)
+	{
+		Random random = new Random(frames);
+		ArrayFrameIndex index = new ArrayFrameIndex(frames);
+		long time = 0;
+		for (int i = 0; i < frames; ++i) {
+			index.add(time);
+			// occasional long gaps make requested times skip whole blocks:
+			time += random.nextInt(100) == 0 ? 5_000_000 : 40_000+random.nextInt(1000);
+		}
+		return index;
+	}
+
+	private static long[] times(FrameIndex index, int count)
+	{
+		Random random = new Random(count);
+		long last = index.frameTime(index.size()-1);
+		long[] times = new long[count];
+		for (int i = 0; i < count; ++i) {
+			times[i] = random.nextInt(10) == 0 ? index.frameTime(random.nextInt(index.size())) : random.nextLong(-1000, last+1000);
+		}
+		return times;
+	}
+}
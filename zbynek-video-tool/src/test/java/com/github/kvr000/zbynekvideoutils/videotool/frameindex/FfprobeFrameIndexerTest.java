@@ -0,0 +1,121 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import com.github.kvr000.zbynekvideoutils.videotool.util.Rational;
+import org.testng.annotations.Test;
+
+import java.util.function.LongUnaryOperator;
+
+import static org.testng.Assert.assertEquals;
+
+
+public class FfprobeFrameIndexerTest
+{
+	/** Display order of frames in decode order within group of pictures, I P B B P B B P B B. */
+	private static final int[] GOP_DISPLAY_ORDER = { 0, 3, 1, 2, 6, 4, 5, 9, 7, 8 };
+
+	private static final int WINDOW_PACKETS = 64;
+
+	/** Last window reads decode positions 882-945, the group at 940 presents up to frame 946. */
+	private static final long LAST_SAMPLED_FRAME = 946;
+
+	private static final Rational MPEG_TIME_BASE = new Rational(1, 90_000);
+
+	private static final Rational NTSC_RATE = new Rational(30_000, 1001);
+
+	@Test
+	public void findGridEnd_whenReorderedConstantRate_thenLastFrame()
+	{
+		ArrayFrameIndex[] windows = sampleWindows(1000, frame -> 7000+frame*3003);
+
+		long end = FfprobeFrameIndexer.findGridEnd(windows, MPEG_TIME_BASE, NTSC_RATE);
+
+		assertEquals(end, LAST_SAMPLED_FRAME);
+	}
+
+	@Test
+	public void findGridEnd_whenRoundedMillisecondTimeBase_thenLastFrame()
+	{
+		ArrayFrameIndex[] windows = sampleWindows(1000, frame -> Math.round(frame*1001/30.0));
+
+		long end = FfprobeFrameIndexer.findGridEnd(windows, new Rational(1, 1000), NTSC_RATE);
+
+		assertEquals(end, LAST_SAMPLED_FRAME);
+	}
+
+	@Test
+	public void findGridEnd_whenOffGrid_thenNegative()
+	{
+		ArrayFrameIndex[] windows = sampleWindows(1000, frame -> frame*3003+(frame == 530 ? 1 : 0));
+
+		assertEquals(FfprobeFrameIndexer.findGridEnd(windows, MPEG_TIME_BASE, NTSC_RATE), -1);
+	}
+
+	@Test
+	public void findGridEnd_whenFrameDropped_thenNegative()
+	{
+		// variable rate, frame 530 lasts twice as long:
+		ArrayFrameIndex[] windows = sampleWindows(1000, frame -> (frame <= 530 ? frame : frame+1)*3003);
+
+		assertEquals(FfprobeFrameIndexer.findGridEnd(windows, MPEG_TIME_BASE, NTSC_RATE), -1);
+	}
+
+	@Test
+	public void findGridEnd_whenDuplicateTime_thenNegative()
+	{
+		ArrayFrameIndex[] windows = sampleWindows(1000, frame -> (frame == 531 ? 530 : frame)*3003);
+
+		assertEquals(FfprobeFrameIndexer.findGridEnd(windows, MPEG_TIME_BASE, NTSC_RATE), -1);
+	}
+
+	@Test
+	public void findGridEnd_whenWindowsTooShort_thenNegative()
+	{
+		ArrayFrameIndex window = new ArrayFrameIndex();
+		for (int i = 0; i < 10; ++i) {
+			window.add(i*3003);
+		}
+
+		assertEquals(FfprobeFrameIndexer.findGridEnd(new ArrayFrameIndex[]{ window }, MPEG_TIME_BASE, NTSC_RATE), -1);
+	}
+
+	/**
+	 * Simulates sampled places of ffprobe -read_intervals: each reads packets in decode order from the place, the
+	 * place at the start of video is aligned to keyframe, others start in the middle of group of pictures.
+	 */
+	private static ArrayFrameIndex[] sampleWindows(int frames, LongUnaryOperator frameTime)
+	{
+		int[] decodeOrder = new int[frames];
+		for (int i = 0; i < frames; ++i) {
+			int gop = i/GOP_DISPLAY_ORDER.length*GOP_DISPLAY_ORDER.length;
+			decodeOrder[i] = Math.min(frames-1, gop+GOP_DISPLAY_ORDER[i%GOP_DISPLAY_ORDER.length]);
+		}
+		ArrayFrameIndex[] windows = new ArrayFrameIndex[8];
+		for (int w = 0; w < windows.length; ++w) {
+			int first = w == 0 ? 0 : frames/windows.length*w+w%GOP_DISPLAY_ORDER.length;
+			windows[w] = new ArrayFrameIndex(WINDOW_PACKETS);
+			for (int i = first; i < Math.min(frames, first+WINDOW_PACKETS); ++i) {
+				windows[w].add(frameTime.applyAsLong(decodeOrder[i]));
+			}
+			windows[w].sort();
+		}
+		return windows;
+	}
+}
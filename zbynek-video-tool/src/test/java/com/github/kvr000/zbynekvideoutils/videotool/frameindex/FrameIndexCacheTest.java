@@ -0,0 +1,249 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import org.apache.commons.io.file.PathUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+
+public class FrameIndexCacheTest
+{
+	private Path directory;
+
+	private Path video;
+
+	private final FrameIndexCache cache = new FrameIndexCache();
+
+	@BeforeMethod
+	public void setUp() throws IOException
+	{
+		directory = Files.createTempDirectory("FrameIndexCacheTest");
+		video = directory.resolve("video.mkv");
+		byte[] content = new byte[300_000];
+		new Random(0).nextBytes(content);
+		Files.write(video, content);
+	}
+
+	@AfterMethod(alwaysRun = true)
+	public void tearDown() throws IOException
+	{
+		PathUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void load_whenStored_thenSameIndex() throws IOException
+	{
+		FrameIndexConfig config = config(FrameIndexConfig.CACHE_SIDECAR);
+		ArrayFrameIndex index = index(1000);
+
+		cache.store(video, config, index);
+		FrameIndex loaded = cache.load(video, config);
+
+		assertNotNull(loaded);
+		assertEquals(loaded.size(), index.size());
+		for (int i = 0; i < index.size(); ++i) {
+			assertEquals(loaded.frameTime(i), index.frameTime(i), "frame "+i);
+		}
+		assertEquals(loaded.lowestFrameByTime(index.frameTime(500)-1), 500);
+		assertEquals(loaded.lowestFrameByTime(index.frameTime(999)+1), FrameIndex.NO_FRAME);
+	}
+
+	@Test
+	public void load_whenCacheDirectory_thenSameIndex() throws IOException
+	{
+		FrameIndexConfig config = config(directory.resolve("cache").toString());
+		ArrayFrameIndex index = index(300);
+
+		cache.store(video, config, index);
+		FrameIndex loaded = cache.load(video, config);
+
+		assertNotNull(loaded);
+		assertEquals(loaded.size(), 300);
+		assertEquals(loaded.frameTime(299), index.frameTime(299));
+	}
+
+	@Test
+	public void load_whenEmptyIndex_thenEmpty() throws IOException
+	{
+		FrameIndexConfig config = config(FrameIndexConfig.CACHE_SIDECAR);
+
+		cache.store(video, config, index(0));
+		FrameIndex loaded = cache.load(video, config);
+
+		assertNotNull(loaded);
+		assertEquals(loaded.size(), 0);
+	}
+
+	@Test
+	public void load_whenMissing_thenNull() throws IOException
+	{
+		assertNull(cache.load(video, config(FrameIndexConfig.CACHE_SIDECAR)));
+	}
+
+	@Test
+	public void load_whenCacheNone_thenNull() throws IOException
+	{
+		FrameIndexConfig config = config(FrameIndexConfig.CACHE_NONE);
+
+		cache.store(video, config, index(10));
+
+		assertNull(cache.cachePath(video, config));
+		assertNull(cache.load(video, config));
+	}
+
+	@Test
+	public void load_whenDifferentMode_thenNull() throws IOException
+	{
+		FrameIndexConfig config = config(FrameIndexConfig.CACHE_SIDECAR);
+		cache.store(video, config, index(100));
+
+		config.setIndexMode(FrameIndexConfig.IndexMode.PACKETS);
+
+		assertNull(cache.load(video, config));
+	}
+
+	@Test
+	public void load_whenVideoChanged_thenNull() throws IOException
+	{
+		FrameIndexConfig config = config(FrameIndexConfig.CACHE_SIDECAR);
+		cache.store(video, config, index(100));
+
+		Files.write(video, new byte[]{ 1 }, StandardOpenOption.APPEND);
+
+		assertNull(cache.load(video, config));
+	}
+
+	@Test
+	public void load_whenPathLengthCorrupt_thenNull() throws IOException
+	{
+		FrameIndexConfig config = config(FrameIndexConfig.CACHE_SIDECAR);
+		cache.store(video, config, index(100));
+
+		overwriteInt(cache.cachePath(video, config), 48, Integer.MAX_VALUE);
+
+		assertNull(cache.load(video, config));
+	}
+
+	@Test
+	public void load_whenDataOffsetCorrupt_thenNull() throws IOException
+	{
+		FrameIndexConfig config = config(FrameIndexConfig.CACHE_SIDECAR);
+		cache.store(video, config, index(100));
+
+		overwriteInt(cache.cachePath(video, config), 52, -8);
+
+		assertNull(cache.load(video, config));
+	}
+
+	@Test
+	public void load_whenTruncated_thenNull() throws IOException
+	{
+		FrameIndexConfig config = config(FrameIndexConfig.CACHE_SIDECAR);
+		cache.store(video, config, index(1000));
+		Path cacheFile = cache.cachePath(video, config);
+
+		try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size()-10);
+		}
+
+		assertNull(cache.load(video, config));
+	}
+
+	@Test
+	public void load_whenBlockOffsetsCorrupt_thenNull() throws IOException
+	{
+		FrameIndexConfig config = config(FrameIndexConfig.CACHE_SIDECAR);
+		cache.store(video, config, index(1000));
+		Path cacheFile = cache.cachePath(video, config);
+
+		// block offsets follow the four block times:
+		overwriteInt(cacheFile, readInt(cacheFile, 52)+4*Long.BYTES+2*Integer.BYTES, Integer.MAX_VALUE);
+
+		assertNull(cache.load(video, config));
+	}
+
+	@Test
+	public void load_whenDeltasCorrupt_thenNull() throws IOException
+	{
+		FrameIndexConfig config = config(FrameIndexConfig.CACHE_SIDECAR);
+		cache.store(video, config, index(1000));
+		Path cacheFile = cache.cachePath(video, config);
+
+		// unterminated varints make the last block run past the data:
+		try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.WRITE)) {
+			ByteBuffer garbage = ByteBuffer.allocate(64);
+			while (garbage.hasRemaining()) {
+				garbage.put((byte) 0xff);
+			}
+			channel.write(garbage.flip(), channel.size()-64);
+		}
+
+		assertNull(cache.load(video, config));
+	}
+
+	private static FrameIndexConfig config(String cacheLocation)
+	{
+		FrameIndexConfig config = new FrameIndexConfig();
+		config.setCacheLocation(cacheLocation);
+		return config;
+	}
+
+	private static ArrayFrameIndex index(int frames)
+	{
+		Random random = new Random(frames);
+		ArrayFrameIndex index = new ArrayFrameIndex(frames);
+		long time = 0;
+		for (int i = 0; i < frames; ++i) {
+			index.add(time);
+			time += 40_000+random.nextInt(1000);
+		}
+		return index;
+	}
+
+	private static int readInt(Path file, long position) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			channel.read(buffer, position);
+			return buffer.getInt(0);
+		}
+	}
+
+	private static void overwriteInt(Path file, long position, int value) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(0, value), position);
+		}
+	}
+}
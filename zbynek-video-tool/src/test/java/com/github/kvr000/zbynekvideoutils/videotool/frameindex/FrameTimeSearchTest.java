@@ -0,0 +1,158 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import org.testng.annotations.Test;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+
+
+public class FrameTimeSearchTest
+{
+	@Test
+	public void lowestFrame_whenDuplicates_thenLowest()
+	{
+		LongBuffer times = LongBuffer.wrap(new long[]{ 10, 20, 20, 20, 30 });
+
+		assertEquals(FrameTimeSearch.lowestFrame(times, 5, 20), 1);
+		assertEquals(FrameTimeSearch.lowestFrame(times, 5, 21), 4);
+		assertEquals(FrameTimeSearch.lowestFrame(times, 5, Long.MIN_VALUE), 0);
+		assertEquals(FrameTimeSearch.lowestFrame(times, 5, 31), FrameIndex.NO_FRAME);
+		assertEquals(FrameTimeSearch.lowestFrame(times, 0, 0), FrameIndex.NO_FRAME);
+	}
+
+	@Test
+	public void lowestFrame_whenRandom_thenSameAsLinearScan()
+	{
+		Random random = new Random(0);
+		for (int round = 0; round < 200; ++round) {
+			long[] times = randomTimes(random, random.nextInt(100));
+			for (int q = 0; q < 50; ++q) {
+				long time = random.nextInt(4000)-100;
+				assertEquals(FrameTimeSearch.lowestFrame(LongBuffer.wrap(times), times.length, time), linearLowest(times, time));
+			}
+		}
+	}
+
+	@Test
+	public void lowestFramesByTimes_whenSortedSparse_thenSameAsBinarySearch()
+	{
+		Random random = new Random(1);
+		for (int round = 0; round < 200; ++round) {
+			long[] times = randomTimes(random, random.nextInt(3000));
+			long[] queries = randomQueries(random, random.nextInt(20), times);
+			Arrays.sort(queries);
+			verify(times, queries);
+		}
+	}
+
+	@Test
+	public void lowestFramesByTimes_whenSortedDense_thenSameAsBinarySearch()
+	{
+		Random random = new Random(2);
+		for (int round = 0; round < 200; ++round) {
+			long[] times = randomTimes(random, random.nextInt(300));
+			long[] queries = randomQueries(random, random.nextInt(1000), times);
+			Arrays.sort(queries);
+			verify(times, queries);
+		}
+	}
+
+	@Test
+	public void lowestFramesByTimes_whenUnsortedMany_thenSameAsBinarySearch()
+	{
+		Random random = new Random(3);
+		for (int round = 0; round < 200; ++round) {
+			long[] times = randomTimes(random, random.nextInt(1000));
+			// enough queries for Eytzinger layout:
+			long[] queries = randomQueries(random, times.length/8+2, times);
+			verify(times, queries);
+		}
+	}
+
+	@Test
+	public void lowestFramesByTimes_whenUnsortedFew_thenSameAsBinarySearch()
+	{
+		Random random = new Random(4);
+		for (int round = 0; round < 200; ++round) {
+			long[] times = randomTimes(random, 100+random.nextInt(1000));
+			long[] queries = { times[times.length-1]+1, times[0]-1, times[times.length/2] };
+			verify(times, queries);
+		}
+	}
+
+	@Test
+	public void lowestFramesByTimes_whenEmpty_thenNoFrame()
+	{
+		assertEquals(FrameTimeSearch.lowestFramesByTimes(LongBuffer.wrap(new long[0]), 0, new long[]{ 5, 1 }),
+			new int[]{ FrameIndex.NO_FRAME, FrameIndex.NO_FRAME });
+		assertEquals(FrameTimeSearch.lowestFramesByTimes(LongBuffer.wrap(new long[]{ 1 }), 1, new long[0]), new int[0]);
+	}
+
+	private static void verify(long[] times, long[] queries)
+	{
+		LongBuffer buffer = LongBuffer.wrap(times);
+		int[] expected = Arrays.stream(queries).mapToInt(time -> FrameTimeSearch.lowestFrame(buffer, times.length, time)).toArray();
+		assertEquals(FrameTimeSearch.lowestFramesByTimes(buffer, times.length, queries), expected,
+			"times="+times.length+" queries="+Arrays.toString(queries));
+	}
+
+	private static int linearLowest(long[] times, long time)
+	{
+		for (int i = 0; i < times.length; ++i) {
+			if (times[i] >= time) {
+				return i;
+			}
+		}
+		return FrameIndex.NO_FRAME;
+	}
+
+	/**
+	 * Generates sorted times with duplicates and occasional long gaps.
+	 */
+	private static long[] randomTimes(Random random, int size)
+	{
+		long[] times = new long[size];
+		long time = random.nextInt(100);
+		for (int i = 0; i < size; ++i) {
+			times[i] = time;
+			time += random.nextInt(10) == 0 ? random.nextInt(1000) : random.nextInt(40);
+		}
+		return times;
+	}
+
+	/**
+	 * Generates queries hitting exact frame times, times between frames and times before and after all frames.
+	 */
+	private static long[] randomQueries(Random random, int count, long[] times)
+	{
+		long[] queries = new long[count];
+		long end = times.length == 0 ? 100 : times[times.length-1]+100;
+		for (int i = 0; i < count; ++i) {
+			queries[i] = times.length != 0 && random.nextBoolean() ?
+				times[random.nextInt(times.length)] :
+				random.nextLong(end+200)-100;
+		}
+		return queries;
+	}
+}
@@ -0,0 +1,393 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import org.apache.commons.io.file.PathUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+
+public class MatroskaFrameIndexReaderTest
+{
+	private static final int VIDEO = 1;
+
+	private static final int AUDIO = 2;
+
+	private static final int FLAG_KEYFRAME = 0x80;
+
+	private static final int FLAG_XIPH_LACING = 0x02;
+
+	private final MatroskaFrameIndexReader reader = new MatroskaFrameIndexReader();
+
+	private Path directory;
+
+	@BeforeClass
+	public void setUp() throws IOException
+	{
+		directory = Files.createTempDirectory("MatroskaFrameIndexReaderTest");
+	}
+
+	@AfterClass(alwaysRun = true)
+	public void tearDown() throws IOException
+	{
+		PathUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void readIndex_whenKnownAndUnknownSizeClusters_thenVideoBlockTimes() throws IOException
+	{
+		byte[] file = mkv(
+			element(0x1F43B675,
+				uint(0xE7, 1000),
+				simpleBlock(VIDEO, 0, FLAG_KEYFRAME, 100),
+				simpleBlock(AUDIO, 5, FLAG_XIPH_LACING, 20),
+				// reordered, presentation times come out of order:
+				simpleBlock(VIDEO, 80, 0, 100),
+				element(0xA0, block(VIDEO, 40, 100), uint(0xFB, 80))
+			),
+			unknownSizeElement(0x1F43B675,
+				uint(0xE7, 2000),
+				simpleBlock(VIDEO, 0, FLAG_KEYFRAME, 100),
+				simpleBlock(AUDIO, 3, 0, 20),
+				element(0xA0, block(VIDEO, 40, 100))
+			),
+			// top level element ending the cluster of unknown size:
+			element(0x1C53BB6B, uint(0xBB, 0))
+		);
+
+		ArrayFrameIndex index = read(file);
+
+		assertNotNull(index);
+		assertEquals(index.size(), 5);
+		assertEquals(index.frameTime(0), 1_000_000);
+		assertEquals(index.frameTime(1), 1_040_000);
+		assertEquals(index.frameTime(2), 1_080_000);
+		assertEquals(index.frameTime(3), 2_000_000);
+		assertEquals(index.frameTime(4), 2_040_000);
+	}
+
+	@Test
+	public void readIndex_whenTimestampScale_thenScaled() throws IOException
+	{
+		byte[] file = concat(
+			element(0x1A45DFA3, string(0x4282, "webm")),
+			element(0x18538067,
+				element(0x1549A966, uint(0x2AD7B1, 100_000)),
+				tracks(),
+				element(0x1F43B675, uint(0xE7, 10), simpleBlock(VIDEO, 3, FLAG_KEYFRAME, 10))
+			)
+		);
+
+		ArrayFrameIndex index = read(file);
+
+		assertNotNull(index);
+		assertEquals(index.frameTime(0), 1_300);
+	}
+
+	@Test
+	public void readIndex_whenLacedVideo_thenNull() throws IOException
+	{
+		byte[] file = mkv(
+			element(0x1F43B675,
+				uint(0xE7, 0),
+				simpleBlock(VIDEO, 0, FLAG_KEYFRAME|FLAG_XIPH_LACING, 100)
+			)
+		);
+
+		assertNull(read(file));
+	}
+
+	@Test
+	public void readIndex_whenNoVideoBlocks_thenNull() throws IOException
+	{
+		byte[] file = mkv(element(0x1F43B675, uint(0xE7, 0), simpleBlock(AUDIO, 0, 0, 10)));
+
+		assertNull(read(file));
+	}
+
+	@Test
+	public void readIndex_whenNotMatroska_thenNull() throws IOException
+	{
+		assertNull(read(new byte[]{ 0, 0, 0, 24, 'f', 't', 'y', 'p' }));
+		assertNull(read(new byte[0]));
+	}
+
+	@Test
+	public void readIndex_whenLargeBlocks_thenReadsOnlyHeaders() throws IOException
+	{
+		ByteArrayOutputStream clusters = new ByteArrayOutputStream();
+		for (int c = 0; c < 20; ++c) {
+			ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+			blocks.writeBytes(uint(0xE7, c*1000L));
+			for (int b = 0; b < 25; ++b) {
+				blocks.writeBytes(simpleBlock(VIDEO, b*40, b == 0 ? FLAG_KEYFRAME : 0, 20_000));
+				blocks.writeBytes(simpleBlock(AUDIO, b*40, 0, 200));
+				blocks.writeBytes(simpleBlock(AUDIO, b*40+20, 0, 200));
+			}
+			clusters.writeBytes(element(0x1F43B675, blocks.toByteArray()));
+		}
+		byte[] file = mkv(clusters.toByteArray());
+		Path path = Files.createTempFile(directory, "large", ".mkv");
+		Files.write(path, file);
+
+		ArrayFrameIndex index;
+		CountingFileChannel channel = new CountingFileChannel(FileChannel.open(path, StandardOpenOption.READ));
+		try (channel) {
+			index = reader.readIndex(channel);
+		}
+
+		assertNotNull(index);
+		assertEquals(index.size(), 500);
+		assertEquals(index.frameTime(499), 19_960_000);
+		assertTrue(channel.bytesRead < file.length/8, "read "+channel.bytesRead+" of "+file.length);
+	}
+
+	private ArrayFrameIndex read(byte[] content) throws IOException
+	{
+		Path file = Files.createTempFile(directory, "video", ".mkv");
+		Files.write(file, content);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return reader.readIndex(channel);
+		}
+	}
+
+	private static byte[] mkv(byte[]... clusters)
+	{
+		return concat(
+			element(0x1A45DFA3, string(0x4282, "matroska")),
+			element(0x18538067,
+				element(0x1549A966, uint(0x2AD7B1, 1_000_000)),
+				tracks(),
+				concat(clusters)
+			)
+		);
+	}
+
+	private static byte[] tracks()
+	{
+		return element(0x1654AE6B,
+			element(0xAE, uint(0xD7, AUDIO), uint(0x83, 2)),
+			element(0xAE, uint(0xD7, VIDEO), uint(0x83, 1))
+		);
+	}
+
+	private static byte[] simpleBlock(int track, int relative, int flags, int payload)
+	{
+		return element(0xA3, blockContent(track, relative, flags, payload));
+	}
+
+	private static byte[] block(int track, int relative, int payload)
+	{
+		return element(0xA1, blockContent(track, relative, 0, payload));
+	}
+
+	private static byte[] blockContent(int track, int relative, int flags, int payload)
+	{
+		return ByteBuffer.allocate(4+payload)
+			.put((byte) (0x80|track))
+			.putShort((short) relative)
+			.put((byte) flags)
+			.array();
+	}
+
+	private static byte[] uint(int id, long value)
+	{
+		return element(id, ByteBuffer.allocate(8).putLong(value).array());
+	}
+
+	private static byte[] string(int id, String value)
+	{
+		return element(id, value.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private static byte[] element(int id, byte[]... children)
+	{
+		byte[] data = concat(children);
+		// eight bytes size, to exercise the longest vint:
+		return concat(id(id), ByteBuffer.allocate(8).putLong((1L<<56)|data.length).array(), data);
+	}
+
+	private static byte[] unknownSizeElement(int id, byte[]... children)
+	{
+		return concat(id(id), new byte[]{ 0x01, -1, -1, -1, -1, -1, -1, -1 }, concat(children));
+	}
+
+	private static byte[] id(int id)
+	{
+		int length = 4-Integer.numberOfLeadingZeros(id)/8;
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; ++i) {
+			bytes[i] = (byte) (id>>>(8*(length-1-i)));
+		}
+		return bytes;
+	}
+
+	private static byte[] concat(byte[]... parts)
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		for (byte[] part: parts) {
+			output.writeBytes(part);
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * File channel counting the bytes read.
+	 */
+	private static class CountingFileChannel extends FileChannel
+	{
+		private final FileChannel delegate;
+
+		long bytesRead;
+
+		CountingFileChannel(FileChannel delegate)
+		{
+			this.delegate = delegate;
+		}
+
+		@Override
+		public int read(ByteBuffer dst, long position) throws IOException
+		{
+			int read = delegate.read(dst, position);
+			bytesRead += Math.max(0, read);
+			return read;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException
+		{
+			int read = delegate.read(dst);
+			bytesRead += Math.max(0, read);
+			return read;
+		}
+
+		@Override
+		public long read(ByteBuffer[] dsts, int offset, int length) throws IOException
+		{
+			long read = delegate.read(dsts, offset, length);
+			bytesRead += Math.max(0, read);
+			return read;
+		}
+
+		@Override
+		public long size() throws IOException
+		{
+			return delegate.size();
+		}
+
+		@Override
+		public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException
+		{
+			bytesRead += size;
+			return delegate.map(mode, position, size);
+		}
+
+		@Override
+		public int write(ByteBuffer src)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs, int offset, int length)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int write(ByteBuffer src, long position)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public long position() throws IOException
+		{
+			return delegate.position();
+		}
+
+		@Override
+		public FileChannel position(long newPosition) throws IOException
+		{
+			delegate.position(newPosition);
+			return this;
+		}
+
+		@Override
+		public FileChannel truncate(long size)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void force(boolean metaData) throws IOException
+		{
+			delegate.force(metaData);
+		}
+
+		@Override
+		public long transferTo(long position, long count, WritableByteChannel target)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public long transferFrom(ReadableByteChannel src, long position, long count)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public FileLock lock(long position, long size, boolean shared)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public FileLock tryLock(long position, long size, boolean shared)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		protected void implCloseChannel() throws IOException
+		{
+			delegate.close();
+		}
+	}
+}
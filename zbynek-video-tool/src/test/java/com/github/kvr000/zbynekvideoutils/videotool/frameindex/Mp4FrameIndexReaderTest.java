@@ -0,0 +1,274 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.frameindex;
+
+import org.apache.commons.io.file.PathUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+
+public class Mp4FrameIndexReaderTest
+{
+	/** Display order of samples in decode order, I P B B P B B P. */
+	private static final int[] DISPLAY_ORDER = { 0, 3, 1, 2, 6, 4, 5, 7 };
+
+	/** Number of mutated files read, each read maps freshly written file which takes most of the time. */
+	private static final int MUTATION_ROUNDS = 5000;
+
+	private final Mp4FrameIndexReader reader = new Mp4FrameIndexReader();
+
+	private Path directory;
+
+	@BeforeClass
+	public void setUp() throws IOException
+	{
+		directory = Files.createTempDirectory("Mp4FrameIndexReaderTest");
+	}
+
+	@AfterClass(alwaysRun = true)
+	public void tearDown() throws IOException
+	{
+		PathUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void readIndex_whenCttsAndEditList_thenPresentationTimes() throws IOException
+	{
+		// 500 ms empty edit, then media from the first presented sample for 7 frames of 40 ms:
+		byte[] file = mp4(
+			elst(new long[]{ 500, 280 }, new long[]{ -1, 80 }),
+			stts(DISPLAY_ORDER.length, 40),
+			ctts(DISPLAY_ORDER)
+		);
+
+		ArrayFrameIndex index = read(file);
+
+		assertNotNull(index);
+		assertEquals(index.size(), 7);
+		for (int i = 0; i < index.size(); ++i) {
+			assertEquals(index.frameTime(i), 500_000+i*40_000L, "frame "+i);
+		}
+	}
+
+	@Test
+	public void readIndex_whenNoCttsNorEditList_thenDecodeTimes() throws IOException
+	{
+		byte[] file = mp4(null, stts(5, 40), null);
+
+		ArrayFrameIndex index = read(file);
+
+		assertNotNull(index);
+		assertEquals(index.size(), 5);
+		assertEquals(index.frameTime(4), 160_000);
+	}
+
+	@Test
+	public void readIndex_whenCttsWithoutEditList_thenShiftedByCtts() throws IOException
+	{
+		byte[] file = mp4(null, stts(DISPLAY_ORDER.length, 40), ctts(DISPLAY_ORDER));
+
+		ArrayFrameIndex index = read(file);
+
+		assertNotNull(index);
+		assertEquals(index.size(), 8);
+		assertEquals(index.frameTime(0), 80_000);
+		assertEquals(index.frameTime(7), 360_000);
+	}
+
+	@Test
+	public void readIndex_whenNotMp4_thenNull() throws IOException
+	{
+		assertNull(read("\u001aEß£ matroska".getBytes(StandardCharsets.ISO_8859_1)));
+		assertNull(read(new byte[0]));
+	}
+
+	@Test
+	public void readIndex_whenCountExceedsBox_thenNull() throws IOException
+	{
+		byte[] file = mp4(elst(new long[]{ 280 }, new long[]{ 0 }), stts(5, 40), ctts(DISPLAY_ORDER));
+		int stts = indexOf(file, "stts");
+		ByteBuffer.wrap(file).putInt(stts+12, 1_000_000);
+
+		assertNull(read(file));
+	}
+
+	/**
+	 * Mutates valid file randomly, the reader must either return index or null, never fail.
+	 */
+	@Test
+	public void readIndex_whenMutated_thenNoFailure() throws IOException
+	{
+		byte[] original = mp4(
+			elst(new long[]{ 500, 280 }, new long[]{ -1, 80 }),
+			stts(DISPLAY_ORDER.length, 40),
+			ctts(DISPLAY_ORDER)
+		);
+		Random random = new Random(0);
+		try (FileChannel channel = FileChannel.open(directory.resolve("mutated.mp4"),
+			StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			for (int round = 0; round < MUTATION_ROUNDS; ++round) {
+				byte[] mutated = mutate(original, random);
+				channel.truncate(0);
+				channel.write(ByteBuffer.wrap(mutated), 0);
+				try {
+					reader.readIndex(channel);
+				}
+				catch (RuntimeException ex) {
+					throw new AssertionError("Failed on round "+round+": "+ex, ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Flips bits, overwrites ints with random or boundary values and truncates.
+	 */
+	private static byte[] mutate(byte[] original, Random random)
+	{
+		byte[] mutated = Arrays.copyOf(original, original.length);
+		for (int count = 1+random.nextInt(4); count > 0 && mutated.length >= 4; --count) {
+			int position = random.nextInt(mutated.length-3);
+			switch (random.nextInt(4)) {
+			case 0:
+				mutated[position] ^= 1<<random.nextInt(8);
+				break;
+			case 1:
+				ByteBuffer.wrap(mutated).putInt(position, random.nextInt());
+				break;
+			case 2:
+				ByteBuffer.wrap(mutated).putInt(position, random.nextBoolean() ? -1 : random.nextInt(16));
+				break;
+			default:
+				mutated = Arrays.copyOf(mutated, position);
+				break;
+			}
+		}
+		return mutated;
+	}
+
+	private ArrayFrameIndex read(byte[] content) throws IOException
+	{
+		Path file = Files.createTempFile(directory, "video", ".mp4");
+		Files.write(file, content);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return reader.readIndex(channel);
+		}
+	}
+
+	private static byte[] mp4(byte[] elst, byte[] stts, byte[] ctts)
+	{
+		byte[] stbl = box("stbl", stts, ctts == null ? new byte[0] : ctts);
+		byte[] mdia = box("mdia",
+			fullBox("mdhd", ints(0, 0, 1000, 0, 0)),
+			fullBox("hdlr", ints(0), "vide".getBytes(StandardCharsets.US_ASCII), ints(0, 0, 0), new byte[]{ 0 }),
+			box("minf", stbl)
+		);
+		byte[] trak = elst == null ? box("trak", mdia) : box("trak", box("edts", elst), mdia);
+		return concat(
+			box("ftyp", "isom".getBytes(StandardCharsets.US_ASCII), ints(512)),
+			box("moov", fullBox("mvhd", ints(0, 0, 1000, 0)), trak),
+			box("mdat", new byte[64])
+		);
+	}
+
+	private static byte[] elst(long[] durations, long[] mediaTimes)
+	{
+		int[] entries = new int[1+durations.length*3];
+		entries[0] = durations.length;
+		for (int i = 0; i < durations.length; ++i) {
+			entries[1+i*3] = (int) durations[i];
+			entries[2+i*3] = (int) mediaTimes[i];
+			entries[3+i*3] = 1<<16;
+		}
+		return fullBox("elst", ints(entries));
+	}
+
+	private static byte[] stts(int count, int delta)
+	{
+		return fullBox("stts", ints(1, count, delta));
+	}
+
+	private static byte[] ctts(int[] displayOrder)
+	{
+		int[] entries = new int[1+displayOrder.length*2];
+		entries[0] = displayOrder.length;
+		for (int i = 0; i < displayOrder.length; ++i) {
+			entries[1+i*2] = 1;
+			entries[2+i*2] = (displayOrder[i]+2-i)*40;
+		}
+		return fullBox("ctts", ints(entries));
+	}
+
+	private static byte[] fullBox(String type, byte[]... content)
+	{
+		byte[][] withVersion = new byte[content.length+1][];
+		withVersion[0] = new byte[4];
+		System.arraycopy(content, 0, withVersion, 1, content.length);
+		return box(type, withVersion);
+	}
+
+	private static byte[] box(String type, byte[]... content)
+	{
+		byte[] payload = concat(content);
+		return ByteBuffer.allocate(8+payload.length)
+			.putInt(8+payload.length)
+			.put(type.getBytes(StandardCharsets.US_ASCII))
+			.put(payload)
+			.array();
+	}
+
+	private static byte[] ints(int... values)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(values.length*Integer.BYTES);
+		for (int value: values) {
+			buffer.putInt(value);
+		}
+		return buffer.array();
+	}
+
+	private static byte[] concat(byte[]... parts)
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		for (byte[] part: parts) {
+			output.writeBytes(part);
+		}
+		return output.toByteArray();
+	}
+
+	private static int indexOf(byte[] content, String type)
+	{
+		return new String(content, StandardCharsets.ISO_8859_1).indexOf(type)-4;
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+
+public class CharsetDetectorTest
+{
+	private static final String CZECH = "Příliš žluťoučký kůň úpěl ďábelské ódy, šťastný Šimon.\n";
+
+	@Test
+	public void detect_whenByteOrderMark_thenMarked()
+	{
+		assertEquals(detect(new byte[]{ (byte) 0xef, (byte) 0xbb, (byte) 0xbf, 'a' }), StandardCharsets.UTF_8);
+		assertEquals(detect(new byte[]{ (byte) 0xfe, (byte) 0xff, 0, 'a' }), StandardCharsets.UTF_16BE);
+		assertEquals(detect(new byte[]{ (byte) 0xff, (byte) 0xfe, 'a', 0 }), StandardCharsets.UTF_16LE);
+	}
+
+	@Test
+	public void detect_whenValidUtf8_thenUtf8()
+	{
+		assertEquals(detect(CZECH.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+		assertEquals(detect("plain ascii".getBytes(StandardCharsets.US_ASCII)), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void detect_whenUtf8CutAtEnd_thenUtf8()
+	{
+		byte[] content = CZECH.getBytes(StandardCharsets.UTF_8);
+		// cut in the middle of the two byte ř:
+		byte[] cut = Arrays.copyOf(content, 2);
+
+		assertEquals(detect(cut), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void detect_whenLegacy_thenTellsWindowsFromIso()
+	{
+		assertEquals(detect(CZECH.getBytes(CharsetDetector.WINDOWS_1250)), CharsetDetector.WINDOWS_1250);
+		assertEquals(detect(CZECH.getBytes(CharsetDetector.ISO_8859_2)), CharsetDetector.ISO_8859_2);
+	}
+
+	@Test
+	public void detect_whenOverlongUtf8_thenLegacy()
+	{
+		// overlong encoding of slash is not valid UTF-8:
+		assertEquals(detect(new byte[]{ 'a', (byte) 0xc0, (byte) 0xaf, 'b' }), CharsetDetector.WINDOWS_1250);
+	}
+
+	@Test
+	public void isAsciiCompatible_whenCharsets_thenOnlySingleByteAscii()
+	{
+		assertTrue(CharsetDetector.isAsciiCompatible(StandardCharsets.UTF_8));
+		assertTrue(CharsetDetector.isAsciiCompatible(CharsetDetector.WINDOWS_1250));
+		assertTrue(CharsetDetector.isAsciiCompatible(StandardCharsets.ISO_8859_1));
+		assertFalse(CharsetDetector.isAsciiCompatible(StandardCharsets.UTF_16LE));
+		assertFalse(CharsetDetector.isAsciiCompatible(StandardCharsets.UTF_16));
+	}
+
+	private static Charset detect(byte[] content)
+	{
+		return CharsetDetector.detect(ByteBuffer.wrap(content));
+	}
+}
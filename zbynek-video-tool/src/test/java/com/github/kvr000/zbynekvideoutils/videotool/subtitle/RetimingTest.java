@@ -0,0 +1,137 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+
+public class RetimingTest
+{
+	@Test
+	public void fromDelays_whenSingleAnchor_thenShiftAsPython()
+	{
+		Retiming retiming = Retiming.fromDelays(List.of(new long[]{ 60_000_000, -1_500_000 }));
+
+		assertEquals(retiming.segments(), 1);
+		for (long time: new long[]{ 0, 59_999_999, 60_000_000, 3_600_000_000L }) {
+			// single delay in Python is the same delay one second later:
+			assertPython(retiming, time, 60_000_000, -1_500_000, 61_000_000, -1_500_000);
+		}
+	}
+
+	@Test
+	public void fromDelays_whenTwoAnchors_thenLinearAsPython()
+	{
+		// given in reverse order, sorted by time:
+		Retiming retiming = Retiming.fromDelays(List.of(
+			new long[]{ 3_000_000_000L, 4_000_000 },
+			new long[]{ 60_000_000, 1_000_000 }
+		));
+
+		assertEquals(retiming.segments(), 1);
+		Random random = new Random(0);
+		for (int i = 0; i < 10_000; ++i) {
+			// before, between and after the anchors:
+			long time = random.nextLong(-100_000_000, 4_000_000_000L);
+			assertPython(retiming, time, 60_000_000, 1_000_000, 3_000_000_000L, 4_000_000);
+		}
+	}
+
+	@Test
+	public void fromDelays_whenManyAnchors_thenEachSegmentAsPythonPair()
+	{
+		long[][] anchors = {
+			{ 0, 500_000 },
+			{ 600_000_000, 1_200_000 },
+			{ 1_200_000_000, -300_000 },
+			{ 2_400_000_000L, -300_000 },
+			{ 3_000_000_000L, 2_000_000 },
+		};
+		List<long[]> shuffled = new ArrayList<>(Arrays.asList(anchors));
+		Collections.shuffle(shuffled, new Random(1));
+		Retiming retiming = Retiming.fromDelays(shuffled);
+
+		assertEquals(retiming.segments(), anchors.length-1);
+		Random random = new Random(2);
+		for (int i = 0; i < 10_000; ++i) {
+			long time = random.nextLong(-100_000_000, 3_500_000_000L);
+			// times outside the anchors follow the closest segment:
+			int segment = 0;
+			while (segment < anchors.length-2 && time >= anchors[segment+1][0]) {
+				++segment;
+			}
+			long[] start = anchors[segment];
+			long[] end = anchors[segment+1];
+			assertPython(retiming, time, start[0], start[1], end[0], end[1]);
+		}
+		for (long[] anchor: anchors) {
+			assertEquals(retiming.apply(anchor[0]), anchor[0]+anchor[1], "anchor "+anchor[0]);
+		}
+	}
+
+	@Test
+	public void apply_whenArray_thenSameAsSingle()
+	{
+		Retiming retiming = Retiming.fromDelays(List.of(
+			new long[]{ 0, 500_000 },
+			new long[]{ 600_000_000, 1_200_000 },
+			new long[]{ 1_200_000_000, -300_000 }
+		));
+		Random random = new Random(3);
+		long[] values = new long[1000];
+		for (int i = 0; i < values.length; ++i) {
+			values[i] = random.nextLong(-100_000_000, 1_500_000_000);
+		}
+		// mostly sorted, with some values out of order:
+		Arrays.sort(values, 0, 900);
+		long[] expected = Arrays.stream(values).map(retiming::apply).toArray();
+
+		retiming.apply(values, values.length);
+
+		assertEquals(values, expected);
+	}
+
+	@Test
+	public void fromDelays_whenInvalid_thenThrows()
+	{
+		expectThrows(IllegalArgumentException.class, () -> Retiming.fromDelays(List.of()));
+		expectThrows(IllegalArgumentException.class, () -> Retiming.fromDelays(List.of(new long[]{ 5, 1 }, new long[]{ 5, 2 })));
+	}
+
+	/**
+	 * Checks the result against Python adjustTime, which computes in floating point and truncates, so it may differ
+	 * by one microsecond from the exact rounded result.
+	 */
+	private static void assertPython(Retiming retiming, long time, long startAt, long startDelay, long endAt, long endDelay)
+	{
+		long python = (long) ((double) (time-startAt)/(endAt-startAt)*(endAt+endDelay-startAt-startDelay)+(startAt+startDelay));
+		long actual = retiming.apply(time);
+		assertTrue(Math.abs(actual-python) <= 1, "time="+time+" expected="+python+" actual="+actual);
+	}
+}
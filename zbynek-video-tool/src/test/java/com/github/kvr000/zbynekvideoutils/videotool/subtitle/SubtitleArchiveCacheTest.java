@@ -0,0 +1,155 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.expectThrows;
+
+
+public class SubtitleArchiveCacheTest
+{
+	private Path directory;
+
+	private Path archive;
+
+	@BeforeMethod
+	public void setUp() throws IOException
+	{
+		directory = Files.createTempDirectory("SubtitleArchiveCacheTest");
+		archive = directory.resolve("subs.zip");
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException
+	{
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path file: files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Test
+	public void listSubtitles_whenMixedEntries_thenSubtitlesOnly() throws IOException
+	{
+		writeArchive(1000, "a.srt", "1", "dir/", "", "b.txt", "2", "__MACOSX/c.srt", "3", "d.VTT", "4");
+
+		try (SubtitleArchiveCache cache = new SubtitleArchiveCache()) {
+			assertEquals(cache.listSubtitles(archive), List.of(archive+"!/a.srt", archive+"!/d.VTT"));
+			assertEquals(read(cache, archive+"!/a.srt"), "1");
+			expectThrows(NoSuchFileException.class, () -> cache.openEntry(archive+"!/missing.srt"));
+		}
+	}
+
+	@Test
+	public void openEntry_whenArchiveChangedWhileReading_thenOldClosedByLastStream() throws IOException
+	{
+		writeArchive(1000, "a.srt", "old");
+
+		try (SubtitleArchiveCache cache = new SubtitleArchiveCache()) {
+			InputStream old = cache.openEntry(archive+"!/a.srt");
+
+			writeArchive(2000, "a.srt", "new content");
+			assertEquals(read(cache, archive+"!/a.srt"), "new content");
+			assertEquals(cache.staleCount(), 1);
+
+			// the replaced instance remains readable until its stream is closed:
+			assertEquals(new String(old.readAllBytes(), StandardCharsets.UTF_8), "old");
+			old.close();
+			assertEquals(cache.staleCount(), 0);
+			old.close();
+			assertEquals(read(cache, archive+"!/a.srt"), "new content");
+		}
+	}
+
+	@Test
+	public void openEntry_whenArchiveChangedWithoutStreams_thenOldClosedImmediately() throws IOException
+	{
+		writeArchive(1000, "a.srt", "old");
+
+		try (SubtitleArchiveCache cache = new SubtitleArchiveCache()) {
+			assertEquals(read(cache, archive+"!/a.srt"), "old");
+			writeArchive(2000, "a.srt", "new content");
+			assertEquals(read(cache, archive+"!/a.srt"), "new content");
+			assertEquals(cache.staleCount(), 0);
+		}
+	}
+
+	@Test
+	public void close_whenStaleStreamOpen_thenClosesStale() throws IOException
+	{
+		writeArchive(1000, "a.srt", "old");
+		SubtitleArchiveCache cache = new SubtitleArchiveCache();
+		InputStream old = cache.openEntry(archive+"!/a.srt");
+		writeArchive(2000, "a.srt", "new content");
+		cache.listSubtitles(archive);
+		assertEquals(cache.staleCount(), 1);
+
+		cache.close();
+
+		assertEquals(cache.staleCount(), 0);
+		// stream of closed archive cannot be read anymore:
+		expectThrows(IOException.class, old::read);
+		old.close();
+	}
+
+	private String read(SubtitleArchiveCache cache, String entry) throws IOException
+	{
+		try (InputStream stream = cache.openEntry(entry)) {
+			return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Writes archive with entries given as name and content pairs, setting its modification time.  The archive is
+	 * replaced by rename, as tools usually do, so the already opened instance keeps reading the old content.
+	 */
+	private void writeArchive(long mtime, String... entries) throws IOException
+	{
+		Path temporary = directory.resolve("subs.zip.tmp");
+		try (OutputStream file = Files.newOutputStream(temporary); ZipOutputStream zip = new ZipOutputStream(file)) {
+			for (int i = 0; i < entries.length; i += 2) {
+				zip.putNextEntry(new ZipEntry(entries[i]));
+				zip.write(entries[i+1].getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+		}
+		Files.setLastModifiedTime(temporary, FileTime.fromMillis(mtime));
+		Files.move(temporary, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,384 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+import com.github.kvr000.zbynekvideoutils.videotool.util.Rational;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.expectThrows;
+
+
+public class SubtitleFormatTest
+{
+	private static final String SRT =
+		"1\n" +
+		"00:00:01,000 --> 00:00:02,500\n" +
+		"Hello\n" +
+		"world\n" +
+		"\n" +
+		"2\n" +
+		"00:01:00,120 --> 01:00:00,000\n" +
+		"Žluťoučký kůň\n" +
+		"\n";
+
+	private static final String SUB =
+		"{1}{1}25\n" +
+		"{10}{20}Hello|world\n" +
+		"{1500}{90000}Žluťoučký kůň\n";
+
+	private static final String VTT =
+		"WEBVTT\n" +
+		"\n" +
+		"00:00:01.000 --> 00:00:02.500\n" +
+		"Hello\n" +
+		"world\n" +
+		"\n" +
+		"00:01:00.120 --> 01:00:00.000\n" +
+		"Žluťoučký kůň\n" +
+		"\n";
+
+	private static final String ASS =
+		"[Script Info]\n" +
+		"ScriptType: v4.00+\n" +
+		"WrapStyle: 0\n" +
+		"ScaledBorderAndShadow: yes\n" +
+		"PlayResX: 384\n" +
+		"PlayResY: 288\n" +
+		"\n" +
+		"[V4+ Styles]\n" +
+		"Format: Name, Fontname, Fontsize, PrimaryColour, SecondaryColour, OutlineColour, BackColour, Bold, Italic, Underline, StrikeOut, ScaleX, ScaleY, Spacing, Angle, BorderStyle, Outline, Shadow, Alignment, MarginL, MarginR, MarginV, Encoding\n" +
+		"Style: Default,Arial,16,&Hffffff,&Hffffff,&H0,&H0,0,0,0,0,100,100,0,0,1,1,0,2,10,10,10,0\n" +
+		"\n" +
+		"[Events]\n" +
+		"Format: Layer, Start, End, Style, Name, MarginL, MarginR, MarginV, Effect, Text\n" +
+		"Dialogue: 0,0:00:01.00,0:00:02.50,Default,,0,0,0,,Hello\\Nworld\n" +
+		"Dialogue: 0,0:01:00.12,1:00:00.00,Default,,0,0,0,,Žluťoučký kůň\n";
+
+	private static final String SSA =
+		"[Script Info]\n" +
+		"ScriptType: v4.00\n" +
+		"PlayResX: 384\n" +
+		"PlayResY: 288\n" +
+		"\n" +
+		"[V4 Styles]\n" +
+		"Format: Name, Fontname, Fontsize, PrimaryColour, SecondaryColour, TertiaryColour, BackColour, Bold, Italic, BorderStyle, Outline, Shadow, Alignment, MarginL, MarginR, MarginV, AlphaLevel, Encoding\n" +
+		"Style: Default,Arial,16,16777215,16777215,16777215,0,0,0,1,1,0,2,10,10,10,0,0\n" +
+		"\n" +
+		"[Events]\n" +
+		"Format: Marked, Start, End, Style, Name, MarginL, MarginR, MarginV, Effect, Text\n" +
+		"Dialogue: Marked=0,0:00:01.00,0:00:02.50,Default,,0,0,0,,Hello\\Nworld\n" +
+		"Dialogue: Marked=0,0:01:00.12,1:00:00.00,Default,,0,0,0,,Žluťoučký kůň\n";
+
+	@DataProvider
+	public Object[][] formats()
+	{
+		return new Object[][]{
+			{ SubtitleFormat.SRT, SRT, new long[]{ 1_000_000, 60_120_000 }, new long[]{ 2_500_000, 3_600_000_000L } },
+			{ SubtitleFormat.SUB, SUB, new long[]{ 10, 1500 }, new long[]{ 20, 90000 } },
+			{ SubtitleFormat.VTT, VTT, new long[]{ 1_000_000, 60_120_000 }, new long[]{ 2_500_000, 3_600_000_000L } },
+			{ SubtitleFormat.ASS, ASS, new long[]{ 1_000_000, 60_120_000 }, new long[]{ 2_500_000, 3_600_000_000L } },
+			{ SubtitleFormat.SSA, SSA, new long[]{ 1_000_000, 60_120_000 }, new long[]{ 2_500_000, 3_600_000_000L } },
+		};
+	}
+
+	@Test(dataProvider = "formats")
+	public void roundTrip_whenCanonical_thenSame(SubtitleFormat format, String content, long[] starts, long[] ends) throws IOException
+	{
+		byte[] input = content.getBytes(StandardCharsets.UTF_8);
+		List<Subtitles> chunks = readChunks(format, input, 32);
+
+		Subtitles all = concat(chunks);
+		assertEquals(all.getRangeType(), format.getRangeType());
+		assertEquals(all.size(), 2);
+		for (int i = 0; i < all.size(); ++i) {
+			assertEquals(all.start(i), starts[i], "start of "+i);
+			assertEquals(all.end(i), ends[i], "end of "+i);
+		}
+		assertEquals(all.lines(0), Arrays.asList("Hello", "world"));
+		assertEquals(all.text(1), "Žluťoučký kůň");
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		SubtitleOutput encoder = new SubtitleOutput(Channels.newChannel(output));
+		format.getWriter().writeHeader(encoder);
+		long written = 0;
+		for (Subtitles chunk: chunks) {
+			format.getWriter().writeChunk(chunk, written, encoder);
+			written += chunk.size();
+		}
+		encoder.flush();
+		assertEquals(new String(output.toByteArray(), StandardCharsets.UTF_8), content);
+	}
+
+	@Test
+	public void read_whenSubFrameRate_thenDeclared() throws IOException
+	{
+		Subtitles subtitles = concat(readChunks(SubtitleFormat.SUB, SUB.getBytes(StandardCharsets.UTF_8), 1024));
+
+		assertEquals(subtitles.getFrameRate(), new Rational(25, 1));
+	}
+
+	@Test
+	public void read_whenSubNtscFrameRate_thenExact() throws IOException
+	{
+		Subtitles subtitles = concat(readChunks(SubtitleFormat.SUB, "{1}{1}23.976\n{1}{2}a\n".getBytes(StandardCharsets.UTF_8), 1024));
+
+		assertEquals(subtitles.getFrameRate(), new Rational(24000, 1001));
+		assertEquals(subtitles.size(), 1);
+	}
+
+	@Test
+	public void read_whenSubFirstEntryNotRate_thenEntry() throws IOException
+	{
+		Subtitles subtitles = concat(readChunks(SubtitleFormat.SUB, "{1}{1}Hi\r\nbroken\r\n{5}{8}a|b\r\n".getBytes(StandardCharsets.UTF_8), 1024));
+
+		assertNull(subtitles.getFrameRate());
+		assertEquals(subtitles.size(), 2);
+		assertEquals(subtitles.text(0), "Hi");
+		assertEquals(subtitles.start(1), 5);
+		assertEquals(subtitles.end(1), 8);
+		assertEquals(subtitles.lines(1), Arrays.asList("a", "b"));
+	}
+
+	@Test
+	public void read_whenAssCustomFormat_thenFieldsFollowFormatAcrossChunks() throws IOException
+	{
+		StringBuilder content = new StringBuilder("[Events]\nFormat: Start, End, Layer, Style, Name, MarginL, MarginR, MarginV, Effect, Text\n");
+		for (int i = 0; i < 100; ++i) {
+			content.append("Dialogue: 0:00:0").append(i/10).append(".").append(i%10).append("0,0:00:10.00,0,Default,,0,0,0,,Entry ").append(i).append("\n");
+		}
+
+		Subtitles subtitles = concat(readChunks(SubtitleFormat.ASS, content.toString().getBytes(StandardCharsets.UTF_8), 64));
+
+		assertEquals(subtitles.size(), 100);
+		assertEquals(subtitles.start(99), 9_900_000);
+		assertEquals(subtitles.end(99), 10_000_000);
+		assertEquals(subtitles.text(99), "Entry 99");
+	}
+
+	@Test
+	public void read_whenVttBlocksAndCueSettings_thenOnlyCues() throws IOException
+	{
+		String content = "\ufeffWEBVTT - title\r\n\r\n" +
+			"NOTE comment\r\nspanning lines\r\n\r\n" +
+			"STYLE\r\n::cue { color: red }\r\n\r\n" +
+			"intro\r\n00:01.000 --> 00:02.500 align:start line:0\r\n<i>Hello</i>\r\n\r\n" +
+			"01:00:00.000 --> 01:00:01.000\r\nBye\r\n";
+
+		Subtitles subtitles = concat(readChunks(SubtitleFormat.VTT, content.getBytes(StandardCharsets.UTF_8), 16));
+
+		assertEquals(subtitles.size(), 2);
+		assertEquals(subtitles.start(0), 1_000_000);
+		assertEquals(subtitles.end(0), 2_500_000);
+		assertEquals(subtitles.text(0), "<i>Hello</i>");
+		assertEquals(subtitles.start(1), 3_600_000_000L);
+		assertEquals(subtitles.text(1), "Bye");
+	}
+
+	@Test
+	public void read_whenVttWithoutHeader_thenFails()
+	{
+		expectThrows(IOException.class, () -> readChunks(SubtitleFormat.VTT, "00:01.000 --> 00:02.000\nHi\n".getBytes(StandardCharsets.UTF_8), 1024));
+	}
+
+	@Test
+	public void read_whenUtf16_thenDecoded() throws IOException
+	{
+		ByteArrayOutputStream input = new ByteArrayOutputStream();
+		input.write(new byte[]{ (byte) 0xff, (byte) 0xfe });
+		input.write(SRT.getBytes(StandardCharsets.UTF_16LE));
+
+		Subtitles subtitles = concat(readChunks(SubtitleFormat.SRT, input.toByteArray(), 32));
+
+		assertEquals(subtitles.size(), 2);
+		assertEquals(subtitles.text(1), "Žluťoučký kůň");
+	}
+
+	@Test
+	public void read_whenMappedUtf16_thenDecoded() throws IOException
+	{
+		ByteArrayOutputStream input = new ByteArrayOutputStream();
+		input.write(new byte[]{ (byte) 0xfe, (byte) 0xff });
+		input.write(SRT.getBytes(StandardCharsets.UTF_16BE));
+
+		Subtitles subtitles = concat(readMappedChunks(SubtitleFormat.SRT, input.toByteArray(), 32));
+
+		assertEquals(subtitles.size(), 2);
+		assertEquals(subtitles.lines(0), Arrays.asList("Hello", "world"));
+		assertEquals(subtitles.text(1), "Žluťoučký kůň");
+	}
+
+	@Test
+	public void read_whenLegacyAfterAsciiChunks_thenDetectedLate() throws IOException
+	{
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 50; ++i) {
+			content.append("{").append(i*10+1).append("}{").append(i*10+5).append("}plain ascii\n");
+		}
+		content.append("{1000}{1010}Příliš žluťoučký kůň\n");
+
+		Subtitles subtitles = concat(readChunks(SubtitleFormat.SUB, content.toString().getBytes(CharsetDetector.WINDOWS_1250), 64));
+
+		assertEquals(subtitles.size(), 51);
+		assertEquals(subtitles.text(50), "Příliš žluťoučký kůň");
+	}
+
+	@Test
+	public void read_whenSlowProducerWithByteOrderMark_thenDecoded() throws IOException
+	{
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		content.write(new byte[]{ (byte) 0xff, (byte) 0xfe });
+		content.write(SRT.getBytes(StandardCharsets.UTF_16LE));
+		byte[] bytes = content.toByteArray();
+		// single byte per read, nothing reported available:
+		InputStream slow = new InputStream()
+		{
+			private int position;
+
+			@Override
+			public int read()
+			{
+				return position < bytes.length ? bytes[position++]&0xff : -1;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len)
+			{
+				if (position >= bytes.length) {
+					return -1;
+				}
+				b[off] = bytes[position++];
+				return 1;
+			}
+		};
+		SubtitleChunkReader reader = new SubtitleChunkReader(SubtitleFormat.SRT, slow, 32, null, CharsetDetector.WINDOWS_1250);
+		List<Subtitles> chunks = new ArrayList<>();
+		for (Subtitles chunk; (chunk = reader.next()) != null; ) {
+			chunks.add(chunk);
+		}
+
+		Subtitles subtitles = concat(chunks);
+		assertEquals(subtitles.size(), 2);
+		// text is kept in output charset:
+		Subtitles last = chunks.get(chunks.size()-1);
+		int entry = last.size()-1;
+		assertEquals(new String(last.text, last.textOffsets[entry], last.textOffsets[entry+1]-last.textOffsets[entry], CharsetDetector.WINDOWS_1250), "Žluťoučký kůň");
+	}
+
+	@Test(dataProvider = "formats")
+	public void read_whenMapped_thenSameAsStream(SubtitleFormat format, String content, long[] starts, long[] ends) throws IOException
+	{
+		byte[] input = content.getBytes(StandardCharsets.UTF_8);
+
+		// chunk smaller than single entry makes the mapped chunk grow:
+		Subtitles mapped = concat(readMappedChunks(format, input, 32));
+		Subtitles streamed = concat(readChunks(format, input, 32));
+
+		assertEquals(mapped.size(), streamed.size());
+		for (int i = 0; i < mapped.size(); ++i) {
+			assertEquals(mapped.start(i), streamed.start(i), "start of "+i);
+			assertEquals(mapped.end(i), streamed.end(i), "end of "+i);
+			assertEquals(mapped.text(i), streamed.text(i), "text of "+i);
+		}
+	}
+
+	@Test
+	public void read_whenMappedLegacyCharset_thenTranscoded() throws IOException
+	{
+		byte[] input = SRT.getBytes(Charset.forName("windows-1250"));
+
+		Subtitles subtitles = concat(readMappedChunks(SubtitleFormat.SRT, input, 1024));
+
+		assertEquals(subtitles.size(), 2);
+		assertEquals(subtitles.text(1), "Žluťoučký kůň");
+	}
+
+	@Test
+	public void detect_whenKnownHeads_thenFormat()
+	{
+		assertEquals(detect(SRT), SubtitleFormat.SRT);
+		assertEquals(detect(SUB), SubtitleFormat.SUB);
+		assertEquals(detect(VTT), SubtitleFormat.VTT);
+		assertEquals(detect(ASS), SubtitleFormat.ASS);
+		assertNull(detect("<html>"));
+	}
+
+	private static SubtitleFormat detect(String content)
+	{
+		byte[] head = content.getBytes(StandardCharsets.UTF_8);
+		return SubtitleFormat.detect(head, head.length);
+	}
+
+	private static List<Subtitles> readChunks(SubtitleFormat format, byte[] input, int chunkSize) throws IOException
+	{
+		SubtitleChunkReader reader = new SubtitleChunkReader(format, new ByteArrayInputStream(input), chunkSize, null, StandardCharsets.UTF_8);
+		List<Subtitles> chunks = new ArrayList<>();
+		for (Subtitles chunk; (chunk = reader.next()) != null; ) {
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	private static List<Subtitles> readMappedChunks(SubtitleFormat format, byte[] input, int chunkSize) throws IOException
+	{
+		// direct buffer, as the file mapping is:
+		ByteBuffer mapped = ByteBuffer.allocateDirect(input.length).put(input).flip();
+		SubtitleChunkReader reader = new SubtitleChunkReader(format, mapped, chunkSize, null, StandardCharsets.UTF_8);
+		List<Subtitles> chunks = new ArrayList<>();
+		for (Subtitles chunk; (chunk = reader.next()) != null; ) {
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	private static Subtitles concat(List<Subtitles> chunks)
+	{
+		Subtitles.Builder builder = Subtitles.builder();
+		RangeType rangeType = RangeType.TIME;
+		for (Subtitles chunk: chunks) {
+			rangeType = chunk.getRangeType();
+			if (chunk.getFrameRate() != null) {
+				builder.setFrameRate(chunk.getFrameRate());
+			}
+			for (int i = 0; i < chunk.size(); ++i) {
+				builder.startEntry(chunk.getRangeType(), chunk.start(i), chunk.end(i));
+				for (String line: chunk.lines(i)) {
+					byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+					builder.addLine(ByteBuffer.wrap(bytes), 0, bytes.length);
+				}
+			}
+		}
+		return builder.build(rangeType);
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import com.github.kvr000.zbynekvideoutils.videotool.frameindex.RangeType;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.testng.Assert.assertEquals;
+
+
+public class SubtitleIntervalIndexTest
+{
+	@Test
+	public void stab_whenNested_thenAllShown()
+	{
+		SubtitleIntervalIndex index = new SubtitleIntervalIndex(subtitles(
+			new long[]{ 0, 10, 12, 30 },
+			new long[]{ 100, 20, 15, 40 }
+		));
+
+		assertEquals(index.stab(13), new int[]{ 0, 1, 2 });
+		assertEquals(index.stab(15), new int[]{ 0, 1 });
+		assertEquals(index.stab(20), new int[]{ 0 });
+		assertEquals(index.stab(35), new int[]{ 0, 3 });
+		assertEquals(index.stab(100), new int[0]);
+		assertEquals(index.stab(-1), new int[0]);
+	}
+
+	@Test
+	public void query_whenEmptyEntry_thenNeverMatched()
+	{
+		SubtitleIntervalIndex index = new SubtitleIntervalIndex(subtitles(
+			new long[]{ 10, 20 },
+			new long[]{ 10, 30 }
+		));
+
+		assertEquals(index.query(0, 100), new int[]{ 1 });
+		assertEquals(index.query(30, 100), new int[0]);
+		assertEquals(index.query(25, 25), new int[0]);
+	}
+
+	@Test
+	public void query_whenEmptySubtitles_thenEmpty()
+	{
+		SubtitleIntervalIndex index = new SubtitleIntervalIndex(subtitles(new long[0], new long[0]));
+
+		assertEquals(index.size(), 0);
+		assertEquals(index.query(Long.MIN_VALUE, Long.MAX_VALUE), new int[0]);
+	}
+
+	@Test
+	public void query_whenRandomSorted_thenSameAsBruteForce()
+	{
+		Random random = new Random(0);
+		for (int round = 0; round < 200; ++round) {
+			verifyQueries(randomSubtitles(random, random.nextInt(300), true), random);
+		}
+	}
+
+	@Test
+	public void query_whenRandomUnsorted_thenSameAsBruteForce()
+	{
+		Random random = new Random(1);
+		for (int round = 0; round < 200; ++round) {
+			verifyQueries(randomSubtitles(random, random.nextInt(300), false), random);
+		}
+	}
+
+	@Test
+	public void forEachOverlap_whenRandom_thenSameAsBruteForce()
+	{
+		Random random = new Random(2);
+		for (int round = 0; round < 200; ++round) {
+			Subtitles subtitles = randomSubtitles(random, random.nextInt(300), round%2 == 0);
+			List<String> found = new ArrayList<>();
+			new SubtitleIntervalIndex(subtitles).forEachOverlap((earlier, later) -> found.add(earlier+"-"+later));
+
+			assertEquals(found, bruteOverlaps(subtitles), "round "+round);
+		}
+	}
+
+	private static void verifyQueries(Subtitles subtitles, Random random)
+	{
+		SubtitleIntervalIndex index = new SubtitleIntervalIndex(subtitles);
+		for (int q = 0; q < 50; ++q) {
+			long from = random.nextInt(12_000)-1000;
+			long to = from+random.nextInt(q%2 == 0 ? 2 : 2000);
+			assertEquals(index.query(from, to), bruteQuery(subtitles, from, to), "query "+from+"-"+to);
+			assertEquals(index.stab(from), bruteQuery(subtitles, from, from+1), "stab "+from);
+		}
+	}
+
+	private static Integer[] startOrder(Subtitles subtitles)
+	{
+		return IntStream.range(0, subtitles.size()).boxed()
+			.sorted(Comparator.comparingLong(subtitles::start))
+			.toArray(Integer[]::new);
+	}
+
+	private static int[] bruteQuery(Subtitles subtitles, long from, long to)
+	{
+		return Arrays.stream(startOrder(subtitles))
+			.filter(i -> from < to && subtitles.start(i) < to && from < subtitles.end(i) && subtitles.start(i) < subtitles.end(i))
+			.mapToInt(Integer::intValue)
+			.toArray();
+	}
+
+	private static List<String> bruteOverlaps(Subtitles subtitles)
+	{
+		List<String> result = new ArrayList<>();
+		Integer[] order = startOrder(subtitles);
+		for (int i = 0; i < order.length; ++i) {
+			int later = order[i];
+			if (subtitles.start(later) >= subtitles.end(later)) {
+				continue;
+			}
+			int earlier = -1;
+			for (int j = 0; j < i; ++j) {
+				int candidate = order[j];
+				if (subtitles.start(candidate) < subtitles.end(candidate) &&
+					(earlier < 0 || subtitles.end(candidate) > subtitles.end(earlier))) {
+					earlier = candidate;
+				}
+			}
+			if (earlier >= 0 && subtitles.start(later) < subtitles.end(earlier)) {
+				result.add(earlier+"-"+later);
+			}
+		}
+		return result;
+	}
+
+	private static Subtitles randomSubtitles(Random random, int size, boolean sorted)
+	{
+		long[] starts = new long[size];
+		long[] ends = new long[size];
+		long time = 0;
+		for (int i = 0; i < size; ++i) {
+			time += random.nextInt(60);
+			starts[i] = sorted ? time : random.nextInt(10_000);
+			// some entries are empty or end before start, long ones nest others:
+			ends[i] = starts[i]+(random.nextInt(20) == 0 ? -random.nextInt(3) : random.nextInt(random.nextInt(10) == 0 ? 2000 : 100));
+		}
+		return subtitles(starts, ends);
+	}
+
+	private static Subtitles subtitles(long[] starts, long[] ends)
+	{
+		return new Subtitles(RangeType.TIME, starts.length, starts, ends, new int[starts.length+1], new byte[0], null);
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.testng.Assert.assertEquals;
+
+
+public class SubtitleMergerTest
+{
+	@Test
+	public void run_whenOverlapping_thenSplitAtBoundaries() throws IOException
+	{
+		String top = srt(new long[]{ 1000, 3000 }, "top");
+		String bottom = srt(new long[]{ 2000, 4000 }, "bottom");
+
+		assertEquals(merge(1024, top, bottom), List.of(
+			"1000000-2000000:top",
+			"2000000-3000000:top|bottom",
+			"3000000-4000000:bottom"
+		));
+	}
+
+	@Test
+	public void run_whenNested_thenInnerStackedInInputOrder() throws IOException
+	{
+		// bottom input starts first, still top input is shown on top:
+		String top = srt(new long[]{ 2000, 3000 }, "inner");
+		String bottom = srt(new long[]{ 1000, 5000 }, "outer\nsecond line");
+
+		assertEquals(merge(1024, top, bottom), List.of(
+			"1000000-2000000:outer|second line",
+			"2000000-3000000:inner|outer|second line",
+			"3000000-5000000:outer|second line"
+		));
+	}
+
+	@Test
+	public void run_whenAdjacentAndGaps_thenNotJoined() throws IOException
+	{
+		String first = srt(new long[]{ 1000, 2000 }, "a", new long[]{ 2000, 3000 }, "b", new long[]{ 5000, 6000 }, "c");
+		String second = srt(new long[]{ 1000, 2000 }, "x");
+
+		assertEquals(merge(1024, first, second), List.of(
+			"1000000-2000000:a|x",
+			"2000000-3000000:b",
+			"5000000-6000000:c"
+		));
+	}
+
+	@Test
+	public void run_whenSameInputOverlaps_thenStackedByStart() throws IOException
+	{
+		String first = srt(new long[]{ 1000, 4000 }, "long", new long[]{ 2000, 3000 }, "short");
+		String second = srt(new long[]{ 2500, 3500 }, "other");
+
+		assertEquals(merge(1024, first, second), List.of(
+			"1000000-2000000:long",
+			"2000000-2500000:long|short",
+			"2500000-3000000:long|short|other",
+			"3000000-3500000:long|other",
+			"3500000-4000000:long"
+		));
+	}
+
+	@Test
+	public void run_whenLongEntryAcrossChunks_thenKeptActive() throws IOException
+	{
+		// the long entry of first chunk remains shown along entries of many following chunks of the other input:
+		List<Object> many = new ArrayList<>();
+		for (int i = 0; i < 30; ++i) {
+			many.add(new long[]{ 1000+i*100, 1050+i*100 });
+			many.add("n"+i);
+		}
+		String first = srt(new long[]{ 1000, 10000 }, "long", new long[]{ 10000, 11000 }, "after");
+		String second = srt(many.toArray());
+
+		List<String> small = merge(48, first, second);
+		assertEquals(small, merge(1 << 20, first, second));
+		assertEquals(small, reference(first, second));
+		assertEquals(small.get(1), "1050000-1100000:long");
+		assertEquals(small.get(small.size()-1), "10000000-11000000:after");
+	}
+
+	@Test
+	public void run_whenRandom_thenSameAsReference() throws IOException
+	{
+		Random random = new Random(0);
+		for (int round = 0; round < 20; ++round) {
+			String[] inputs = new String[2+random.nextInt(3)];
+			for (int input = 0; input < inputs.length; ++input) {
+				List<Object> entries = new ArrayList<>();
+				long start = 0;
+				for (int i = 0, count = random.nextInt(round == 0 ? 2000 : 60); i < count; ++i) {
+					start += random.nextInt(3)*random.nextInt(500);
+					entries.add(new long[]{ start, start+1+random.nextInt(random.nextBoolean() ? 300 : 3000) });
+					entries.add(input+"-"+i+(random.nextInt(5) == 0 ? "\nmore" : ""));
+				}
+				inputs[input] = srt(entries.toArray());
+			}
+
+			List<String> expected = reference(inputs);
+			for (int chunkSize: new int[]{ 40, 333, 1 << 20 }) {
+				assertEquals(merge(chunkSize, inputs), expected, "round="+round+" chunkSize="+chunkSize);
+			}
+		}
+	}
+
+	/**
+	 * Merges the inputs, collecting the output batches as start-end:lines entries.
+	 */
+	private static List<String> merge(int chunkSize, String... inputs) throws IOException
+	{
+		List<SubtitleChunkReader> readers = new ArrayList<>();
+		for (String input: inputs) {
+			readers.add(new SubtitleChunkReader(SubtitleFormat.SRT, new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+				chunkSize, null, StandardCharsets.UTF_8));
+		}
+		List<String> result = new ArrayList<>();
+		long written = new SubtitleMerger(readers, subtitles -> subtitles, subtitles -> {
+			for (int i = 0; i < subtitles.size(); ++i) {
+				result.add(format(subtitles.start(i), subtitles.end(i), subtitles.lines(i)));
+			}
+			return subtitles;
+		}, SubtitleFormat.SRT.getWriter())
+			.run(Channels.newChannel(new ByteArrayOutputStream()));
+		assertEquals(written, result.size());
+		return result;
+	}
+
+	/**
+	 * Computes the merge naively, for each interval between consecutive boundaries stacking all entries covering it.
+	 */
+	private static List<String> reference(String... inputs) throws IOException
+	{
+		List<Subtitles> parsed = new ArrayList<>();
+		TreeSet<Long> boundaries = new TreeSet<>();
+		for (String input: inputs) {
+			Subtitles subtitles = new SubtitleChunkReader(SubtitleFormat.SRT, new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+				1 << 24, null, StandardCharsets.UTF_8).next();
+			if (subtitles == null) {
+				continue;
+			}
+			parsed.add(subtitles);
+			for (int i = 0; i < subtitles.size(); ++i) {
+				boundaries.add(subtitles.start(i));
+				boundaries.add(subtitles.end(i));
+			}
+		}
+		List<String> result = new ArrayList<>();
+		Long previous = null;
+		for (long boundary: boundaries) {
+			if (previous != null) {
+				List<String> lines = new ArrayList<>();
+				boolean shown = false;
+				for (Subtitles subtitles: parsed) {
+					for (int i = 0; i < subtitles.size(); ++i) {
+						if (subtitles.start(i) <= previous && subtitles.end(i) > previous) {
+							shown = true;
+							lines.addAll(subtitles.lines(i));
+						}
+					}
+				}
+				if (shown) {
+					result.add(format(previous, boundary, lines));
+				}
+			}
+			previous = boundary;
+		}
+		return result;
+	}
+
+	private static String format(long start, long end, List<String> lines)
+	{
+		return start+"-"+end+":"+String.join("|", lines);
+	}
+
+	/**
+	 * Creates SRT content from pairs of {start, end} in milliseconds and text.
+	 */
+	private static String srt(Object... entries)
+	{
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < entries.length; i += 2) {
+			long[] range = (long[]) entries[i];
+			content.append(i/2+1).append('\n')
+				.append(time(range[0])).append(" --> ").append(time(range[1])).append('\n')
+				.append(entries[i+1]).append("\n\n");
+		}
+		return content.toString();
+	}
+
+	private static String time(long millis)
+	{
+		return String.format("%02d:%02d:%02d,%03d", millis/3_600_000, millis/60_000%60, millis/1000%60, millis%1000);
+	}
+}
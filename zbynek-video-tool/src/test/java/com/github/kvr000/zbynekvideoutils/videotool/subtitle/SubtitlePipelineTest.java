@@ -0,0 +1,106 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.subtitle;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+
+public class SubtitlePipelineTest
+{
+	@Test
+	public void run_whenEmptyInputToVtt_thenHeaderOnly() throws IOException
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		long entries = pipeline(SubtitleFormat.SRT, SubtitleFormat.VTT, 1024).run(new ByteArrayInputStream(new byte[0]), Channels.newChannel(output));
+
+		assertEquals(entries, 0);
+		assertEquals(output.toString(StandardCharsets.UTF_8), "WEBVTT\n\n");
+	}
+
+	@Test
+	public void run_whenEmptyInputToAss_thenHeaderOnly() throws IOException
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		pipeline(SubtitleFormat.SRT, SubtitleFormat.ASS, 1024).run(new ByteArrayInputStream("\n\n".getBytes(StandardCharsets.UTF_8)), Channels.newChannel(output));
+
+		String content = output.toString(StandardCharsets.UTF_8);
+		assertTrue(content.startsWith("[Script Info]\n"), content);
+		assertTrue(content.endsWith("[Events]\nFormat: Layer, Start, End, Style, Name, MarginL, MarginR, MarginV, Effect, Text\n"), content);
+	}
+
+	@Test
+	public void run_whenEmptyInputToSrt_thenEmpty() throws IOException
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		pipeline(SubtitleFormat.SRT, SubtitleFormat.SRT, 1024).run(new ByteArrayInputStream(new byte[0]), Channels.newChannel(output));
+
+		assertEquals(output.size(), 0);
+	}
+
+	@Test
+	public void run_whenManyChunks_thenHeaderOnceAndNumberingContinues() throws IOException
+	{
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 20; ++i) {
+			input.append(i+1).append("\n00:00:0").append(i/10).append(",").append(i%10).append("00 --> 00:00:05,000\nEntry ").append(i).append("\n\n");
+		}
+		ByteArrayOutputStream vtt = new ByteArrayOutputStream();
+		ByteArrayOutputStream srt = new ByteArrayOutputStream();
+
+		long entries = pipeline(SubtitleFormat.SRT, SubtitleFormat.VTT, 64).run(new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8)), Channels.newChannel(vtt));
+		pipeline(SubtitleFormat.SRT, SubtitleFormat.SRT, 64).run(new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8)), Channels.newChannel(srt));
+
+		assertEquals(entries, 20);
+		String content = vtt.toString(StandardCharsets.UTF_8);
+		assertEquals(content.indexOf("WEBVTT"), 0);
+		assertEquals(content.lastIndexOf("WEBVTT"), 0);
+		assertEquals(srt.toString(StandardCharsets.UTF_8), input.toString());
+	}
+
+	@Test
+	public void mergerRun_whenEmptyInputs_thenHeaderOnly() throws IOException
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		SubtitleChunkReader input = new SubtitleChunkReader(SubtitleFormat.SRT, new ByteArrayInputStream(new byte[0]), 1024, null, StandardCharsets.UTF_8);
+
+		long entries = new SubtitleMerger(List.of(input), subtitles -> subtitles, subtitles -> subtitles, SubtitleFormat.VTT.getWriter())
+			.run(Channels.newChannel(output));
+
+		assertEquals(entries, 0);
+		assertEquals(output.toString(StandardCharsets.UTF_8), "WEBVTT\n\n");
+	}
+
+	private static SubtitlePipeline pipeline(SubtitleFormat input, SubtitleFormat output, int chunkSize)
+	{
+		return new SubtitlePipeline(input, output, subtitles -> subtitles, chunkSize, null, StandardCharsets.UTF_8);
+	}
+}
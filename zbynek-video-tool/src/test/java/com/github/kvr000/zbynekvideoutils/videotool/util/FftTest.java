@@ -0,0 +1,143 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.util;
+
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.expectThrows;
+
+
+public class FftTest
+{
+	private static final double EPSILON = 1e-9;
+
+	@Test
+	public void sizeFor_whenLengths_thenPowerOfTwo()
+	{
+		assertEquals(Fft.sizeFor(0), 1);
+		assertEquals(Fft.sizeFor(1), 1);
+		assertEquals(Fft.sizeFor(2), 2);
+		assertEquals(Fft.sizeFor(3), 4);
+		assertEquals(Fft.sizeFor(1024), 1024);
+		assertEquals(Fft.sizeFor(1025), 2048);
+	}
+
+	@Test
+	public void transform_whenRandom_thenSameAsNaiveDft()
+	{
+		Random random = new Random(0);
+		for (int size = 1; size <= 256; size <<= 1) {
+			double[] re = random.doubles(size, -1, 1).toArray();
+			double[] im = random.doubles(size, -1, 1).toArray();
+			double[] expectedRe = new double[size];
+			double[] expectedIm = new double[size];
+			for (int k = 0; k < size; ++k) {
+				for (int t = 0; t < size; ++t) {
+					double angle = -2*Math.PI*((long) k*t%size)/size;
+					expectedRe[k] += re[t]*Math.cos(angle)-im[t]*Math.sin(angle);
+					expectedIm[k] += re[t]*Math.sin(angle)+im[t]*Math.cos(angle);
+				}
+			}
+			double[] originalRe = re.clone();
+			double[] originalIm = im.clone();
+			Fft fft = new Fft(size);
+
+			fft.transform(re, im, false);
+			assertArrayClose(re, expectedRe, size*EPSILON, "re size="+size);
+			assertArrayClose(im, expectedIm, size*EPSILON, "im size="+size);
+
+			fft.transform(re, im, true);
+			assertArrayClose(re, originalRe, size*EPSILON, "inverse re size="+size);
+			assertArrayClose(im, originalIm, size*EPSILON, "inverse im size="+size);
+		}
+	}
+
+	@Test
+	public void crossCorrelate_whenRandom_thenSameAsNaive()
+	{
+		Random random = new Random(1);
+		for (int round = 0; round < 200; ++round) {
+			int size = 1<<random.nextInt(11);
+			int aLength = random.nextInt(size+1);
+			int lags = 1+random.nextInt(Math.min(size, size-aLength+1));
+			int bLength = random.nextInt(size+1);
+			double[] a = random.doubles(aLength, -1000, 1000).toArray();
+			double[] b = random.doubles(bLength, -1000, 1000).toArray();
+
+			double[] actual = new Fft(size).crossCorrelate(a, b, lags);
+
+			double[] expected = naiveCorrelation(a, b, lags);
+			assertArrayClose(actual, expected, 1e6*Math.max(1, size)*EPSILON, "size="+size+" a="+aLength+" b="+bLength+" lags="+lags);
+		}
+	}
+
+	@Test
+	public void crossCorrelate_whenShiftedCopy_thenPeakAtShift()
+	{
+		Random random = new Random(2);
+		double[] a = random.doubles(1000, -1, 1).toArray();
+		double[] b = new double[1500];
+		int shift = 377;
+		System.arraycopy(a, 0, b, shift, a.length);
+
+		double[] correlation = new Fft(Fft.sizeFor(1500)).crossCorrelate(a, b, 501);
+
+		int best = 0;
+		for (int j = 1; j < correlation.length; ++j) {
+			if (correlation[j] > correlation[best]) {
+				best = j;
+			}
+		}
+		assertEquals(best, shift);
+	}
+
+	@Test
+	public void crossCorrelate_whenTooLong_thenThrows()
+	{
+		Fft fft = new Fft(16);
+
+		expectThrows(IllegalArgumentException.class, () -> fft.crossCorrelate(new double[4], new double[17], 1));
+		expectThrows(IllegalArgumentException.class, () -> fft.crossCorrelate(new double[10], new double[16], 8));
+		expectThrows(IllegalArgumentException.class, () -> fft.crossCorrelate(new double[0], new double[16], 17));
+		expectThrows(IllegalArgumentException.class, () -> new Fft(12));
+		expectThrows(IllegalArgumentException.class, () -> new Fft(0));
+	}
+
+	private static double[] naiveCorrelation(double[] a, double[] b, int lags)
+	{
+		double[] result = new double[lags];
+		for (int j = 0; j < lags; ++j) {
+			for (int t = 0; t < a.length && t+j < b.length; ++t) {
+				result[j] += a[t]*b[t+j];
+			}
+		}
+		return result;
+	}
+
+	private static void assertArrayClose(double[] actual, double[] expected, double tolerance, String message)
+	{
+		assertEquals(actual.length, expected.length, message);
+		for (int i = 0; i < actual.length; ++i) {
+			assertEquals(actual[i], expected[i], tolerance, message+" index="+i);
+		}
+	}
+}
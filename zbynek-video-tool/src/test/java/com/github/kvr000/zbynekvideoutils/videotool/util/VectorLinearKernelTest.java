@@ -0,0 +1,141 @@
+/*
+ * zbynek-video-tool - various video files manipulation utilities
+ *
+ * Copyright 2024-2024 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/kvr000/zbynek-video-utils/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.kvr000.zbynekvideoutils.videotool.util;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+
+public class VectorLinearKernelTest
+{
+	private static final long ORIGIN = 3_600_000_000L;
+
+	private final VectorLinearKernel vector = new VectorLinearKernel();
+
+	private final ScalarLinearKernel scalar = new ScalarLinearKernel();
+
+	@Test
+	public void getInstance_whenModulePresent_thenVector()
+	{
+		assertTrue(LinearKernel.getInstance() instanceof VectorLinearKernel, LinearKernel.getInstance().getClass().getName());
+	}
+
+	@Test
+	public void apply_whenRandom_thenSameAsScalar()
+	{
+		Random random = new Random(0);
+		for (int round = 0; round < 2000; ++round) {
+			long den = 1+random.nextInt(round%2 == 0 ? 10 : 1_000_000);
+			long num = random.nextLong(-VectorLinearKernel.MAX_SCALE*den, VectorLinearKernel.MAX_SCALE*den+1);
+			long[] values = new long[random.nextInt(100)];
+			for (int i = 0; i < values.length; ++i) {
+				values[i] = ORIGIN+random.nextLong(-VectorLinearKernel.MAX_DELTA, VectorLinearKernel.MAX_DELTA+1);
+			}
+			verify(values, new Rational(num, den), random.nextLong(-ORIGIN, ORIGIN));
+		}
+	}
+
+	@Test
+	public void apply_whenDeltaLimits_thenSameAsScalar()
+	{
+		long[] values = new long[64];
+		for (int i = 0; i < values.length; ++i) {
+			long delta = VectorLinearKernel.MAX_DELTA-2+i%5;
+			values[i] = ORIGIN+(i%2 == 0 ? delta : -delta);
+		}
+		// extremes far out of range fall back to scalar lanes:
+		values[7] = 1L<<52;
+		values[40] = -(1L<<52);
+
+		for (Rational scale: new Rational[]{ new Rational(1001, 1000), new Rational(-1000, 1001), new Rational(VectorLinearKernel.MAX_SCALE, 1) }) {
+			verify(values, scale, 17);
+		}
+	}
+
+	@Test
+	public void apply_whenScaleLimits_thenSameAsScalar()
+	{
+		Random random = new Random(1);
+		long[] values = new long[50];
+		for (int i = 0; i < values.length; ++i) {
+			values[i] = ORIGIN+random.nextLong(-1_000_000_000, 1_000_000_000);
+		}
+		for (long den: new long[]{ 1, 3, 1001, VectorLinearKernel.MAX_DELTA-1, VectorLinearKernel.MAX_DELTA }) {
+			for (long num: new long[]{ VectorLinearKernel.MAX_SCALE*den, VectorLinearKernel.MAX_SCALE*den+1, -VectorLinearKernel.MAX_SCALE*den, -VectorLinearKernel.MAX_SCALE*den-1 }) {
+				verify(values, new Rational(num, den), -5);
+			}
+		}
+	}
+
+	@Test
+	public void apply_whenNegativeSlopeHalves_thenRoundedAsRational()
+	{
+		long[] values = new long[40];
+		for (int i = 0; i < values.length; ++i) {
+			values[i] = ORIGIN+i-20;
+		}
+
+		// every other value lands exactly on half:
+		verify(values, new Rational(-1, 2), 0);
+		verify(values, new Rational(1, 2), 0);
+		verify(values, new Rational(-3, 2), 1000);
+	}
+
+	@Test
+	public void apply_whenSubrange_thenOutsideUntouched()
+	{
+		long[] values = new long[37];
+		Arrays.fill(values, ORIGIN+1000);
+		Rational scale = new Rational(-25, 24);
+
+		vector.apply(values, 3, 30, ORIGIN, scale, 0);
+
+		for (int i = 0; i < values.length; ++i) {
+			assertEquals(values[i], i >= 3 && i < 30 ? scale.multiply(1000) : ORIGIN+1000, "index "+i);
+		}
+	}
+
+	/**
+	 * Compares vector kernel with scalar kernel and with {@link Rational#multiply(long)}, over whole array and over
+	 * unaligned subrange.
+	 */
+	private void verify(long[] values, Rational scale, long toOrigin)
+	{
+		long[] expected = Arrays.stream(values).map(value -> toOrigin+scale.multiply(value-ORIGIN)).toArray();
+		long[] scalarResult = values.clone();
+		scalar.apply(scalarResult, 0, values.length, ORIGIN, scale, toOrigin);
+		long[] vectorResult = values.clone();
+		vector.apply(vectorResult, 0, values.length, ORIGIN, scale, toOrigin);
+
+		assertEquals(scalarResult, expected, "scalar scale="+scale);
+		assertEquals(vectorResult, expected, "vector scale="+scale);
+
+		if (values.length > 2) {
+			long[] shifted = values.clone();
+			vector.apply(shifted, 1, values.length-1, ORIGIN, scale, toOrigin);
+			assertEquals(Arrays.copyOfRange(shifted, 1, values.length-1), Arrays.copyOfRange(expected, 1, values.length-1),
+				"vector subrange scale="+scale);
+		}
+	}
+}